@@ -0,0 +1,180 @@
+package com.seerlogics.chatbot.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Compares two JMH json results, usually the baseline under src/jmh/baseline and the result of the last run, and
+ * prints the change of the score and of the allocation per operation of every benchmark in both. A score that got
+ * worse by more than the error of both runs is marked as a regression.
+ * <p>
+ * When there is no baseline yet the result is copied there and becomes the baseline, commit it to compare later runs
+ * with it. The baseline has to come from a run on the machine the later runs are made on, so the CPU, the cores and
+ * the JVM it was recorded with are stored next to it in machine.properties and a comparison on another machine is
+ * flagged.
+ * <p>
+ * Usage: BaselineComparison [baseline json] [result json]
+ */
+public final class BaselineComparison {
+
+    private static final String ALLOCATION_METRIC = "\u00b7gc.alloc.rate.norm";
+
+    private static final String MACHINE_FILE = "machine.properties";
+
+    private BaselineComparison() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: BaselineComparison [baseline json] [result json]");
+            System.exit(2);
+        }
+        File baselineFile = new File(args[0]);
+        File resultFile = new File(args[1]);
+        if (!resultFile.isFile()) {
+            System.err.println("No result at " + resultFile + ", run the benchmarks first with mvn -P local,jmh "
+                    + "test-compile exec:exec");
+            System.exit(2);
+        }
+        if (!baselineFile.isFile()) {
+            Files.createDirectories(baselineFile.getAbsoluteFile().getParentFile().toPath());
+            Files.copy(resultFile.toPath(), baselineFile.toPath());
+            Path machineFile = machineFile(baselineFile);
+            try (OutputStream out = Files.newOutputStream(machineFile)) {
+                machine().store(out, "Machine the JMH baseline was recorded on");
+            }
+            System.out.println("No baseline at " + baselineFile + ", the result " + resultFile
+                    + " is the baseline now. Commit it and " + machineFile + " to compare the next runs with it.");
+            return;
+        }
+        checkMachine(baselineFile);
+        ObjectMapper objectMapper = new ObjectMapper();
+        Map<String, JsonNode> baseline = byKey(objectMapper.readTree(baselineFile));
+        Map<String, JsonNode> result = byKey(objectMapper.readTree(resultFile));
+
+        int regressions = 0;
+        System.out.println(String.format("%-90s %14s %14s %8s %12s %12s", "benchmark", "baseline", "result",
+                "change", "B/op before", "B/op after"));
+        for (Map.Entry<String, JsonNode> benchmark : result.entrySet()) {
+            JsonNode before = baseline.get(benchmark.getKey());
+            if (before == null) {
+                System.out.println(String.format("%-90s %14s", benchmark.getKey(), "new"));
+                continue;
+            }
+            JsonNode after = benchmark.getValue();
+            double beforeScore = before.path("primaryMetric").path("score").asDouble();
+            double afterScore = after.path("primaryMetric").path("score").asDouble();
+            double change = beforeScore == 0 ? 0 : (afterScore - beforeScore) / beforeScore * 100;
+            boolean regression = isWorse(after.path("mode").asText(), beforeScore, afterScore)
+                    && Math.abs(afterScore - beforeScore) > error(before) + error(after);
+            if (regression) {
+                regressions++;
+            }
+            System.out.println(String.format("%-90s %14.3f %14.3f %+7.1f%% %12.1f %12.1f%s", benchmark.getKey(),
+                    beforeScore, afterScore, change, allocation(before), allocation(after),
+                    regression ? "  REGRESSION" : ""));
+        }
+        System.out.println(regressions + " regression(s)");
+    }
+
+    /**
+     * What the scores depend on besides the code.
+     */
+    private static Properties machine() {
+        Properties machine = new Properties();
+        machine.setProperty("cpu", cpuModel());
+        machine.setProperty("availableProcessors", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        machine.setProperty("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+        machine.setProperty("jvm", System.getProperty("java.vm.name") + " " + System.getProperty("java.vm.version"));
+        return machine;
+    }
+
+    private static String cpuModel() {
+        Path cpuInfo = Paths.get("/proc/cpuinfo");
+        if (Files.isReadable(cpuInfo)) {
+            try {
+                for (String line : Files.readAllLines(cpuInfo, StandardCharsets.UTF_8)) {
+                    if (line.startsWith("model name")) {
+                        return line.substring(line.indexOf(':') + 1).trim();
+                    }
+                }
+            } catch (IOException e) {
+                // not known then
+            }
+        }
+        return "unknown";
+    }
+
+    private static Path machineFile(File baselineFile) {
+        return baselineFile.getAbsoluteFile().toPath().resolveSibling(MACHINE_FILE);
+    }
+
+    private static void checkMachine(File baselineFile) throws IOException {
+        Path machineFile = machineFile(baselineFile);
+        if (!Files.isRegularFile(machineFile)) {
+            System.out.println("WARNING: no " + machineFile + ", it is not known which machine the baseline is from");
+            return;
+        }
+        Properties baselineMachine = new Properties();
+        try (InputStream in = Files.newInputStream(machineFile)) {
+            baselineMachine.load(in);
+        }
+        Properties machine = machine();
+        if (!baselineMachine.equals(machine)) {
+            System.out.println("WARNING: the baseline was recorded on " + baselineMachine + ", this is " + machine
+                    + ". The scores are not comparable, only the allocation per operation is.");
+        }
+    }
+
+    // the benchmark, its params and the mode, e.g. ...IntentMatcherBenchmark.match{scoreCacheSize=0} thrpt
+    private static Map<String, JsonNode> byKey(JsonNode results) {
+        Map<String, JsonNode> byKey = new LinkedHashMap<>();
+        for (JsonNode benchmark : results) {
+            StringBuilder key = new StringBuilder(benchmark.path("benchmark").asText());
+            JsonNode params = benchmark.path("params");
+            if (params.size() > 0) {
+                key.append('{');
+                Iterator<Map.Entry<String, JsonNode>> fields = params.fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> param = fields.next();
+                    key.append(param.getKey()).append('=').append(param.getValue().asText());
+                    if (fields.hasNext()) {
+                        key.append(',');
+                    }
+                }
+                key.append('}');
+            }
+            key.append(' ').append(benchmark.path("mode").asText());
+            byKey.put(key.toString(), benchmark);
+        }
+        return byKey;
+    }
+
+    // higher is better for throughput, lower for the time modes
+    private static boolean isWorse(String mode, double beforeScore, double afterScore) {
+        return "thrpt".equals(mode) ? afterScore < beforeScore : afterScore > beforeScore;
+    }
+
+    private static double error(JsonNode benchmark) {
+        double error = benchmark.path("primaryMetric").path("scoreError").asDouble();
+        // NaN when there were too few iterations to tell
+        return Double.isNaN(error) ? 0 : error;
+    }
+
+    private static double allocation(JsonNode benchmark) {
+        return benchmark.path("secondaryMetrics").path(ALLOCATION_METRIC).path("score").asDouble(Double.NaN);
+    }
+}
@@ -0,0 +1,60 @@
+package com.seerlogics.chatbot.mutters;
+
+import com.rabidgremlin.mutters.core.Context;
+import com.rabidgremlin.mutters.core.IntentMatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CustomOpenNLPIntentMatcher.match over the training utterances: tokenizing, scoring, picking the intent and matching
+ * the address slot. With scoreCacheSize 0 every utterance is scored by the model, with 1000 all the training
+ * utterances fit in the score cache.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class IntentMatcherBenchmark {
+
+    @Param({"0", "1000"})
+    public long scoreCacheSize;
+
+    private CustomOpenNLPIntentMatcher matcher;
+
+    private String[] utterances;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        NlpBenchmarkModels models = new NlpBenchmarkModels();
+        matcher = models.newIntentMatcher(scoreCacheSize);
+        utterances = models.getUtterances().toArray(new String[0]);
+    }
+
+    private String nextUtterance() {
+        String utterance = utterances[next];
+        next = (next + 1) % utterances.length;
+        return utterance;
+    }
+
+    @Benchmark
+    public IntentMatch match() {
+        // a new context per chat, like a new chat session
+        return matcher.match(nextUtterance(), new Context(), null, new HashMap<>());
+    }
+}
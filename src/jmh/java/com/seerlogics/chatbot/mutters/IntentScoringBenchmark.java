@@ -0,0 +1,71 @@
+package com.seerlogics.chatbot.mutters;
+
+import opennlp.tools.doccat.DoccatModel;
+import opennlp.tools.doccat.DocumentCategorizerME;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scoring the tokens of an utterance with the intent model, without the score cache. scoreWithNewCategorizer is how
+ * generateSortedScoreMap used to do it: a new DocumentCategorizerME per utterance and the model evaluated twice.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class IntentScoringBenchmark {
+
+    private CustomOpenNLPIntentMatcher matcher;
+
+    private DoccatModel intentModel;
+
+    private String[][] utteranceTokens;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        NlpBenchmarkModels models = new NlpBenchmarkModels();
+        matcher = models.newIntentMatcher(0);
+        intentModel = models.newIntentModel();
+        utteranceTokens = new String[models.getUtterances().size()][];
+        for (int i = 0; i < utteranceTokens.length; i++) {
+            utteranceTokens[i] = models.getTokenizer().tokenize(models.getUtterances().get(i));
+        }
+    }
+
+    private String[] nextTokens() {
+        String[] tokens = utteranceTokens[next];
+        next = (next + 1) % utteranceTokens.length;
+        return tokens;
+    }
+
+    @Benchmark
+    public SortedMap<Double, Set<String>> scoreWithThreadCategorizer() {
+        return matcher.generateSortedScoreMap(nextTokens());
+    }
+
+    @Benchmark
+    public SortedMap<Double, Set<String>> scoreWithNewCategorizer() {
+        String[] tokens = nextTokens();
+        DocumentCategorizerME intentCategorizer = new DocumentCategorizerME(intentModel);
+        double[] outcome = intentCategorizer.categorize(tokens);
+        // the best category was looked up for the debug log whether it was on or not
+        intentCategorizer.getBestCategory(outcome);
+        return intentCategorizer.sortedScoreMap(tokens);
+    }
+}
@@ -0,0 +1,156 @@
+package com.seerlogics.chatbot.mutters;
+
+import com.rabidgremlin.mutters.opennlp.ner.OpenNLPSlotMatcher;
+import com.rabidgremlin.mutters.slots.LiteralSlot;
+import opennlp.tools.doccat.DoccatFactory;
+import opennlp.tools.doccat.DoccatModel;
+import opennlp.tools.doccat.DocumentCategorizerME;
+import opennlp.tools.doccat.DocumentSample;
+import opennlp.tools.tokenize.TokenizerModel;
+import opennlp.tools.util.ObjectStreamUtils;
+import opennlp.tools.util.TrainingParameters;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The models the benchmarks run on: the bundled en-token.bin and en-ner-address.bin and an intent model trained from
+ * EventGenieBotIntents.train with the parameters in EventGenieBotIntentsParams.train. Like the models trained by the
+ * bot admin, the intent model is trained on the tokens as the bot's tokenizer normalizes them. It is only trained when
+ * a benchmark asks for it.
+ */
+public final class NlpBenchmarkModels {
+
+    public static final String TOKENIZER_MODEL = "nlp/models/standard/en-token.bin";
+    public static final String ADDRESS_MODEL = "nlp/models/custom/en-ner-address.bin";
+    public static final String TRAINING_DATA = "nlp/models/custom/EventGenieBotIntents.train";
+
+    // the intent with the address slot, as in the event bots
+    private static final String SEARCH_EVENTS_NEAR = "SearchEventsNear";
+
+    private static final float MIN_MATCH_SCORE = 0.60f;
+    private static final float MAYBE_MATCH_SCORE = 0.50f;
+
+    private final TokenizerModel tokenizerModel;
+    private final CustomOpenNLPTokenizer tokenizer;
+    private final List<String> categories = new ArrayList<>();
+    private final List<String> utterances = new ArrayList<>();
+    private final List<DocumentSample> samples = new ArrayList<>();
+    private byte[] intentModelBytes;
+
+    public NlpBenchmarkModels() {
+        try {
+            tokenizerModel = new TokenizerModel(open(TOKENIZER_MODEL));
+            tokenizer = new CustomOpenNLPTokenizer(new PooledTokenizer(tokenizerModel));
+            readTrainingData();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void readTrainingData() throws IOException {
+        Set<String> categorySet = new LinkedHashSet<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(open(TRAINING_DATA), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (StringUtils.isBlank(line)) {
+                    continue;
+                }
+                // "Category the utterance"
+                String category = StringUtils.substringBefore(line, " ");
+                String utterance = StringUtils.substringAfter(line, " ");
+                categorySet.add(category);
+                utterances.add(utterance);
+                samples.add(new DocumentSample(category, tokenizer.tokenize(utterance)));
+            }
+        }
+        categories.addAll(categorySet);
+    }
+
+    private byte[] getIntentModelBytes() {
+        if (intentModelBytes == null) {
+            try {
+                intentModelBytes = trainIntentModel();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return intentModelBytes;
+    }
+
+    private byte[] trainIntentModel() throws IOException {
+        TrainingParameters trainingParameters = new TrainingParameters();
+        trainingParameters.put(TrainingParameters.ALGORITHM_PARAM, "MAXENT");
+        trainingParameters.put(TrainingParameters.ITERATIONS_PARAM, "500");
+        trainingParameters.put(TrainingParameters.CUTOFF_PARAM, "0");
+        DoccatModel model = DocumentCategorizerME.train("en", ObjectStreamUtils.createObjectStream(samples),
+                trainingParameters, new DoccatFactory());
+        ByteArrayOutputStream modelBytes = new ByteArrayOutputStream();
+        model.serialize(modelBytes);
+        return modelBytes.toByteArray();
+    }
+
+    private static InputStream open(String resource) throws IOException {
+        InputStream in = NlpBenchmarkModels.class.getClassLoader().getResourceAsStream(resource);
+        if (in == null) {
+            throw new IOException("Missing " + resource);
+        }
+        return in;
+    }
+
+    public TokenizerModel getTokenizerModel() {
+        return tokenizerModel;
+    }
+
+    public CustomOpenNLPTokenizer getTokenizer() {
+        return tokenizer;
+    }
+
+    /**
+     * @return the utterances of the training data, in file order
+     */
+    public List<String> getUtterances() {
+        return utterances;
+    }
+
+    public DoccatModel newIntentModel() {
+        try {
+            return new DoccatModel(new ByteArrayInputStream(getIntentModelBytes()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param scoreCacheSize max number of token sequences whose scores are cached, 0 for none
+     * @return a matcher of all the trained intents set up like the one SeerBotConfiguration builds
+     */
+    public CustomOpenNLPIntentMatcher newIntentMatcher(long scoreCacheSize) {
+        OpenNLPSlotMatcher slotMatcher = new OpenNLPSlotMatcher(tokenizer);
+        slotMatcher.addSlotModel("Address", ADDRESS_MODEL);
+        CustomOpenNLPIntentMatcher matcher = new CustomOpenNLPIntentMatcher(
+                new ByteArrayInputStream(getIntentModelBytes()), tokenizer, slotMatcher, MIN_MATCH_SCORE,
+                MAYBE_MATCH_SCORE, scoreCacheSize);
+        for (String category : categories) {
+            Intent intent = new Intent(category, null);
+            if (SEARCH_EVENTS_NEAR.equals(category)) {
+                intent.addSlot(new LiteralSlot("Address"));
+            }
+            matcher.addIntent(intent);
+            matcher.addIntentCopy(intent);
+        }
+        return matcher;
+    }
+}
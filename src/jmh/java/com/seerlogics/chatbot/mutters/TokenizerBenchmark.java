@@ -0,0 +1,74 @@
+package com.seerlogics.chatbot.mutters;
+
+import com.rabidgremlin.mutters.opennlp.intent.OpenNLPTokenizer;
+import com.seerlogics.chatbot.noggin.StopWords;
+import com.seerlogics.chatbot.noggin.SynonymHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CustomOpenNLPTokenizer.tokenize over the training utterances. tokenizeSeparatePasses is the tokenizer as it was
+ * before the TokenNormalizer: stop words, lower case and synonyms each in their own pass.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TokenizerBenchmark {
+
+    private CustomOpenNLPTokenizer tokenizer;
+
+    private OpenNLPTokenizer plainTokenizer;
+
+    private final SynonymHelper synonymHelper = new SynonymHelper();
+
+    private String[] utterances;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        NlpBenchmarkModels models = new NlpBenchmarkModels();
+        tokenizer = models.getTokenizer();
+        plainTokenizer = new OpenNLPTokenizer(new PooledTokenizer(models.getTokenizerModel()));
+        utterances = models.getUtterances().toArray(new String[0]);
+    }
+
+    private String nextUtterance() {
+        String utterance = utterances[next];
+        next = (next + 1) % utterances.length;
+        return utterance;
+    }
+
+    @Benchmark
+    public String[] tokenize() {
+        return tokenizer.tokenize(nextUtterance());
+    }
+
+    @Benchmark
+    public String[] tokenizeSeparatePasses() {
+        String[] tokens = plainTokenizer.tokenize(nextUtterance());
+        StopWords stopWords = StopWords.getInstance();
+        List<String> noStopWordsTokens = new ArrayList<>();
+        for (String token : tokens) {
+            if (!stopWords.isStopWord(token)) noStopWordsTokens.add(token.toLowerCase());
+        }
+        tokens = new String[noStopWordsTokens.size()];
+        noStopWordsTokens.toArray(tokens);
+        return synonymHelper.replaceSynonyms(tokens);
+    }
+}
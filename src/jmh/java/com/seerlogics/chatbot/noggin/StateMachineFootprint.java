@@ -0,0 +1,71 @@
+package com.seerlogics.chatbot.noggin;
+
+import org.springframework.statemachine.StateMachine;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Heap kept by chat sessions for their state machines, before and after the pool: the used heap after a full GC
+ * with the sessions alive, less the used heap before they were built, divided by the number of sessions.
+ * <p>
+ * mvn -P local,jmh test-compile exec:java@state-machine-footprint -Dfootprint.sessions=2000
+ * <p>
+ * "eager" keeps every configured machine per session like ChatSession.init() did. "pooled" is sessions that never
+ * start a conversation, which is most of them. "pooled, all in a conversation" is the worst case of the pool: every
+ * session holds the machine of a conversation.
+ */
+public class StateMachineFootprint {
+
+    public static void main(String[] args) {
+        int sessions = Integer.getInteger("footprint.sessions", 2000);
+        String intentToStateMachine = StateMachinePoolBenchmark.intentToStateMachine();
+        Map<String, String> intentToStateMachineClass = StateMachinePoolBenchmark.parse(intentToStateMachine);
+        String conversationIntent = intentToStateMachineClass.keySet().iterator().next();
+
+        // the classes are loaded and the pool is built before anything is measured
+        StateMachinePoolBenchmark.buildAll(intentToStateMachineClass);
+        StateMachinePool stateMachinePool = StateMachinePoolBenchmark.newPool(intentToStateMachine);
+
+        long before = usedHeapAfterGc();
+        List<Object> eager = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            eager.add(StateMachinePoolBenchmark.buildAll(intentToStateMachineClass));
+        }
+        report("eager", sessions, usedHeapAfterGc() - before);
+        eager.clear();
+
+        before = usedHeapAfterGc();
+        List<ChatSession> pooled = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            pooled.add(new ChatSession(stateMachinePool));
+        }
+        report("pooled", sessions, usedHeapAfterGc() - before);
+
+        before = usedHeapAfterGc();
+        List<StateMachine> inConversation = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            inConversation.add(stateMachinePool.borrow(conversationIntent));
+        }
+        report("pooled, all in a conversation", sessions, usedHeapAfterGc() - before);
+
+        // keeps the sessions reachable until they are measured
+        System.out.println("Sessions kept: " + (pooled.size() + inConversation.size()));
+    }
+
+    private static void report(String variant, int sessions, long retainedBytes) {
+        System.out.printf("%-32s %,d sessions retain %,d bytes, %,d bytes per session%n", variant, sessions,
+                retainedBytes, retainedBytes / sessions);
+    }
+
+    private static long usedHeapAfterGc() {
+        MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memoryMXBean.getHeapMemoryUsage().getUsed();
+    }
+}
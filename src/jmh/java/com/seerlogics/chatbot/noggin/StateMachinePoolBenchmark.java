@@ -0,0 +1,120 @@
+package com.seerlogics.chatbot.noggin;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a new chat session costs in state machines, with the seerchat.intentToStateMachine of application.properties.
+ * eagerSessionMachines is what ChatSession.init() did before the pool: build every configured machine for every
+ * session. pooledSession is a session now, which builds none, and pooledConversation is a conversation that borrows
+ * a machine, starts it and gives it back. The gc profiler gives the allocation per session; the heap the sessions keep
+ * is measured by StateMachineFootprint.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StateMachinePoolBenchmark {
+
+    private Map<String, String> intentToStateMachineClass;
+
+    private StateMachinePool stateMachinePool;
+
+    private String conversationIntent;
+
+    @Setup
+    public void setUp() {
+        String intentToStateMachine = intentToStateMachine();
+        intentToStateMachineClass = parse(intentToStateMachine);
+        stateMachinePool = newPool(intentToStateMachine);
+        conversationIntent = intentToStateMachineClass.keySet().iterator().next();
+    }
+
+    @Benchmark
+    public Map<String, StateMachine> eagerSessionMachines() {
+        return buildAll(intentToStateMachineClass);
+    }
+
+    @Benchmark
+    public ChatSession pooledSession() {
+        return new ChatSession(stateMachinePool);
+    }
+
+    @Benchmark
+    public StateMachine pooledConversation() {
+        StateMachine stateMachine = stateMachinePool.borrow(conversationIntent);
+        stateMachine.start();
+        stateMachinePool.release(conversationIntent, stateMachine);
+        return stateMachine;
+    }
+
+    /**
+     * seerchat.intentToStateMachine of application.properties
+     */
+    static String intentToStateMachine() {
+        Properties properties = new Properties();
+        try (InputStream applicationProperties =
+                     StateMachinePoolBenchmark.class.getResourceAsStream("/application.properties")) {
+            properties.load(applicationProperties);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return properties.getProperty("seerchat.intentToStateMachine");
+    }
+
+    static Map<String, String> parse(String intentToStateMachine) {
+        Map<String, String> intentToStateMachineClass = new HashMap<>();
+        for (String toStateMachine : StringUtils.split(intentToStateMachine, ",")) {
+            String[] intentToStateMachinesItem = StringUtils.split(toStateMachine, "=");
+            intentToStateMachineClass.put(intentToStateMachinesItem[0], intentToStateMachinesItem[1]);
+        }
+        return intentToStateMachineClass;
+    }
+
+    static StateMachinePool newPool(String intentToStateMachine) {
+        StateMachinePool stateMachinePool = new StateMachinePool(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(stateMachinePool, "intentToStateMachine", intentToStateMachine);
+        ReflectionTestUtils.setField(stateMachinePool, "maxIdlePerType", 50);
+        ReflectionTestUtils.invokeMethod(stateMachinePool, "init");
+        return stateMachinePool;
+    }
+
+    /**
+     * The state machines the old ChatSession.init() built for each session.
+     */
+    static Map<String, StateMachine> buildAll(Map<String, String> intentToStateMachineClass) {
+        Map<String, StateMachine> conversationToStateMachine = new HashMap<>();
+        for (Map.Entry<String, String> entry : intentToStateMachineClass.entrySet()) {
+            try {
+                Class<?> stateMachineClass = Class.forName(entry.getValue());
+                conversationToStateMachine.put(entry.getKey(), (StateMachine) stateMachineClass
+                        .getMethod("createStateMachine").invoke(stateMachineClass.newInstance()));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return conversationToStateMachine;
+    }
+}
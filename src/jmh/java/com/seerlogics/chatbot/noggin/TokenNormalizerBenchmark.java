@@ -0,0 +1,76 @@
+package com.seerlogics.chatbot.noggin;
+
+import com.rabidgremlin.mutters.opennlp.intent.OpenNLPTokenizer;
+import com.seerlogics.chatbot.mutters.NlpBenchmarkModels;
+import com.seerlogics.chatbot.mutters.PooledTokenizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StopWords.isStopWord and SynonymHelper.replaceSynonyms, the vocabulary lookups of the tokenizer, against the
+ * TokenNormalizer that does both in one pass. Each operation is one utterance of the training data, as tokenized
+ * by en-token.bin.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TokenNormalizerBenchmark {
+
+    private final StopWords stopWords = StopWords.getInstance();
+
+    private final SynonymHelper synonymHelper = new SynonymHelper();
+
+    private final TokenNormalizer tokenNormalizer = TokenNormalizer.getDefault();
+
+    private String[][] utteranceTokens;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        NlpBenchmarkModels models = new NlpBenchmarkModels();
+        OpenNLPTokenizer tokenizer = new OpenNLPTokenizer(new PooledTokenizer(models.getTokenizerModel()));
+        utteranceTokens = new String[models.getUtterances().size()][];
+        for (int i = 0; i < utteranceTokens.length; i++) {
+            utteranceTokens[i] = tokenizer.tokenize(models.getUtterances().get(i));
+        }
+    }
+
+    private String[] nextTokens() {
+        String[] tokens = utteranceTokens[next];
+        next = (next + 1) % utteranceTokens.length;
+        return tokens;
+    }
+
+    @Benchmark
+    public void isStopWord(Blackhole blackhole) {
+        for (String token : nextTokens()) {
+            blackhole.consume(stopWords.isStopWord(token));
+        }
+    }
+
+    @Benchmark
+    public String[] replaceSynonyms() {
+        return synonymHelper.replaceSynonyms(nextTokens());
+    }
+
+    @Benchmark
+    public String[] normalize() {
+        // normalize reuses the array it is given
+        return tokenNormalizer.normalize(nextTokens().clone());
+    }
+}
@@ -0,0 +1,99 @@
+package com.seerlogics.chatbot.service;
+
+import com.seerlogics.chatbot.config.SpringConfig;
+import com.seerlogics.chatbot.noggin.ChatSession;
+import com.seerlogics.chatbot.view.WidgetJsonWriter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The response builders of ChatNLPService with the bundle/messages.properties responses: a plain text, an options
+ * and a custom velocity (.vm) response through convertToVelocityResponse, the delete confirm and the search events
+ * options. All but the custom velocity response come from the rendered response cache after the first call.
+ * <p>
+ * The service is built without repositories since the builders do not use them.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChatNLPServiceResponseBenchmark {
+
+    private static final String PLAIN_TEXT_RESPONSE = "You can search the events by going to Search ALL events.";
+
+    private static final String OPTIONS_RESPONSE = "What time do you want the reservation?|butt=12pm-2pm&res=12-2"
+            + "|butt=1pm-3pm&res=1-3|butt=5pm-7pm&res=5-7|butt=6pm-8pm&res=6-8|butt=7pm-9pm&res=7-9|butt=Quit&res=quit";
+
+    private static final String CUSTOM_VELOCITY_RESPONSE = "/restaurant/howManyGuests.vm";
+
+    private ChatNLPService chatNLPService;
+
+    private ChatSession chatSession;
+
+    private MethodHandle convertToVelocityResponse;
+
+    @Setup
+    public void setUp() throws Exception {
+        SpringConfig springConfig = new SpringConfig(null);
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        chatNLPService = new ChatNLPService(null, null, null, springConfig.velocityEngine(),
+                springConfig.messageSource(), null, null, null, null, meterRegistry, new WidgetJsonWriter(),
+                new ChatPipelineMetrics(meterRegistry));
+        ReflectionTestUtils.setField(chatNLPService, "maxConcurrentBotConfigBuilds", 4);
+        ReflectionTestUtils.setField(chatNLPService, "responseCacheMaximumSize", 10000L);
+        ReflectionTestUtils.invokeMethod(chatNLPService, "buildCache");
+
+        chatSession = new ChatSession(null);
+        chatSession.setAttributes("mealOption", "lunch");
+        chatSession.setAttributes("invalidNumOfGuests", false);
+        chatSession.setAttributes("maxGuests", 8);
+
+        Method convert = ChatNLPService.class.getDeclaredMethod("convertToVelocityResponse", String.class,
+                ChatSession.class);
+        convert.setAccessible(true);
+        convertToVelocityResponse = MethodHandles.lookup().unreflect(convert);
+    }
+
+    @Benchmark
+    public String plainTextResponse() throws Throwable {
+        return (String) convertToVelocityResponse.invokeExact(chatNLPService, PLAIN_TEXT_RESPONSE, chatSession);
+    }
+
+    @Benchmark
+    public String optionsResponse() throws Throwable {
+        return (String) convertToVelocityResponse.invokeExact(chatNLPService, OPTIONS_RESPONSE, chatSession);
+    }
+
+    @Benchmark
+    public String customVelocityResponse() throws Throwable {
+        return (String) convertToVelocityResponse.invokeExact(chatNLPService, CUSTOM_VELOCITY_RESPONSE, chatSession);
+    }
+
+    @Benchmark
+    public String genericConfirmMessage() {
+        return chatNLPService.getGenericConfirmMessage();
+    }
+
+    @Benchmark
+    public String searchAllEventsOptionsMessage() {
+        return chatNLPService.getSearchAllEventsOptionsMessage();
+    }
+}
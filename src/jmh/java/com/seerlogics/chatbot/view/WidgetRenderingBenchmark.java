@@ -0,0 +1,97 @@
+package com.seerlogics.chatbot.view;
+
+import com.seerlogics.chatbot.config.SpringConfig;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering a text and an options widget, without the rendered response cache, with the WidgetJsonWriter and with
+ * the velocity templates it replaced. The templates are kept under src/jmh/resources/velocity/legacy and are
+ * rendered the way ChatNLPService used to render them.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WidgetRenderingBenchmark {
+
+    private static final String TEXT = "You can search the events by going to Search ALL events.";
+
+    private static final String HEADING = "What time do you want the reservation?";
+
+    private static final String[][] OPTIONS = {{"12pm-2pm", "12-2"}, {"1pm-3pm", "1-3"}, {"5pm-7pm", "5-7"},
+            {"6pm-8pm", "6-8"}, {"7pm-9pm", "7-9"}, {"Quit", "quit"}};
+
+    private final WidgetJsonWriter widgetJsonWriter = new WidgetJsonWriter();
+
+    private VelocityEngine velocityEngine;
+
+    private List<WidgetOption> widgetOptions;
+
+    @Setup
+    public void setUp() throws Exception {
+        velocityEngine = new SpringConfig(null).velocityEngine();
+        widgetOptions = new ArrayList<>(OPTIONS.length);
+        for (String[] option : OPTIONS) {
+            widgetOptions.add(new WidgetOption(option[0], WidgetOption.BUTTON, option[1]));
+        }
+    }
+
+    @Benchmark
+    public String writeText() {
+        return widgetJsonWriter.writeText(TEXT);
+    }
+
+    @Benchmark
+    public String velocityText() {
+        VelocityContext context = new VelocityContext();
+        context.put("response", TEXT);
+        StringWriter stringWriter = new StringWriter();
+        velocityEngine.mergeTemplate("/velocity/legacy/simpleTexts.vm", SpringConfig.UTF_8, context, stringWriter);
+        return StringUtils.remove(stringWriter.toString(), '\n');
+    }
+
+    @Benchmark
+    public String writeOptions() {
+        return widgetJsonWriter.writeOptions(HEADING, widgetOptions);
+    }
+
+    @Benchmark
+    public String velocityOptions() {
+        List<Map<String, String>> allOptions = new ArrayList<>(OPTIONS.length);
+        for (String[] option : OPTIONS) {
+            Map<String, String> templateOption = new HashMap<>();
+            templateOption.put("option", option[0]);
+            templateOption.put("type", WidgetOption.BUTTON);
+            templateOption.put("clickResponse", option[1]);
+            allOptions.add(templateOption);
+        }
+        VelocityContext context = new VelocityContext();
+        context.put("allOptions", allOptions);
+        context.put("message", HEADING);
+        StringWriter stringWriter = new StringWriter();
+        velocityEngine.mergeTemplate("/velocity/legacy/optionsResponse.vm", SpringConfig.UTF_8, context,
+                stringWriter);
+        return StringUtils.remove(stringWriter.toString(), '\n');
+    }
+}
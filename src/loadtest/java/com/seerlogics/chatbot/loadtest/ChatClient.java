@@ -0,0 +1,33 @@
+package com.seerlogics.chatbot.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * One chat session of a virtual user, over POST /api/chats or over the chat WebSocket.
+ */
+public interface ChatClient extends Closeable {
+
+    /**
+     * @param chat the ChatData fields of the chat
+     * @return the ChatResponse
+     * @throws ChatFailure if the chat got no reply
+     */
+    JsonNode send(Map<String, Object> chat) throws IOException;
+
+    /**
+     * @return size of the body of the last reply, as it came over the wire
+     */
+    int getLastReplyBytes();
+
+    /**
+     * Opens a new chat session.
+     */
+    @FunctionalInterface
+    interface Factory {
+        ChatClient open() throws IOException;
+    }
+}
@@ -0,0 +1,26 @@
+package com.seerlogics.chatbot.loadtest;
+
+import java.io.IOException;
+
+/**
+ * A chat that did not get a reply: an HTTP status other than 200, an error or overloaded reply on the WebSocket or no
+ * reply in time. The kind is what the error is counted under in the report.
+ */
+public class ChatFailure extends IOException {
+
+    private final String kind;
+
+    public ChatFailure(String kind) {
+        super(kind);
+        this.kind = kind;
+    }
+
+    public ChatFailure(String kind, Throwable cause) {
+        super(kind, cause);
+        this.kind = kind;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+}
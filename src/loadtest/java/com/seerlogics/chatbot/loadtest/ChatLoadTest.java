@@ -0,0 +1,252 @@
+package com.seerlogics.chatbot.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.seerlogics.chatbot.ChatbotApplication;
+import com.seerlogics.chatbot.service.ChatNLPService;
+import org.apache.commons.lang3.StringUtils;
+import org.HdrHistogram.Histogram;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * End to end load test of the chat path. It starts a stub of the events API, boots the bot with the loadtest Spring
+ * profile (in memory H2, see application-loadtest.properties), seeds a launched bot and then has
+ * loadtest.users virtual users run chat sessions against it, see {@link VirtualUser}. After the warm up the latency of
+ * every chat is recorded for loadtest.durationSeconds. The percentiles, the throughput and the errors are printed and
+ * the distributions written to loadtest.reportDir. The size of the replies and the SQL statements Hibernate prepared on
+ * the chat DB, from its statistics, are reported per chat as well.
+ * <p>
+ * The users and the bot are in the same JVM, so the CPU per chat that is reported includes the client. It is still
+ * what to compare between two runs on the same machine, e.g. post against websocket or platform against virtual
+ * threads. With loadtest.transport=both the users run over POST and then over the websocket against the same bot,
+ * each with its own warm up, and the chats per second, the p99 and the CPU per chat of the two are printed side by
+ * side. The exit code is 1 when the p99 of all the chats is above loadtest.maxP99Ms or the error rate above
+ * loadtest.maxErrorRate, for any of the transports, which fails the maven build.
+ * <p>
+ * Before the users start a self check makes sure the seeded bot is one the bot can load and chat with, see
+ * {@link #selfCheck}, so a seeder that does not match the bot admin entities fails the run right away instead of
+ * being measured as a run where every chat fails.
+ */
+public final class ChatLoadTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChatLoadTest.class);
+
+    private static final long REPLY_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private ChatLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestSettings settings = LoadTestSettings.fromSystemProperties();
+        LOGGER.info("Load test with {}", settings);
+
+        EventsApiStub eventsApi = EventsApiStub.start(settings.getEventsApiDelayMs(), settings.getUsers());
+        // system properties win over the property files. A new model store so that no model of an earlier run,
+        // stored under the same trained model id, is picked up.
+        System.setProperty("seerchat.eventsApi.url", eventsApi.getUrl());
+        System.setProperty("seerchat.modelStore.dir",
+                Files.createTempDirectory("seerbot-loadtest-models").toString());
+
+        SpringApplication application = new SpringApplication(ChatbotApplication.class);
+        application.setAdditionalProfiles("loadtest");
+        ConfigurableApplicationContext context = application.run(args);
+        boolean passed;
+        try {
+            LoadTestTrainingData trainingData = new LoadTestTrainingData();
+            new LoadTestSeeder(context.getBean("botAdminEntityManagerFactory", EntityManagerFactory.class),
+                    trainingData).seed();
+
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            String contextPath = context.getEnvironment().getProperty("server.servlet.context-path", "");
+            selfCheck(context.getBean(ChatNLPService.class), trainingData,
+                    "http://localhost:" + port + contextPath + "/api/chats");
+            Statistics chatDbStatistics = context.getBean("chatBotEntityManagerFactory", EntityManagerFactory.class)
+                    .unwrap(SessionFactory.class).getStatistics();
+            chatDbStatistics.setStatisticsEnabled(true);
+            Map<LoadTestSettings.Transport, LoadTestResults> resultsByTransport =
+                    new EnumMap<>(LoadTestSettings.Transport.class);
+            for (LoadTestSettings.Transport transport : settings.getTransports()) {
+                LoadTestResults results = new LoadTestResults();
+                results.setStatementCounter(chatDbStatistics::getPrepareStatementCount);
+                run(settings, transport, trainingData, "localhost:" + port + contextPath, results);
+                resultsByTransport.put(transport, results);
+            }
+
+            System.out.println();
+            System.out.println("Load test with " + settings);
+            passed = true;
+            for (Map.Entry<LoadTestSettings.Transport, LoadTestResults> results : resultsByTransport.entrySet()) {
+                String transport = results.getKey().name().toLowerCase();
+                System.out.println();
+                System.out.println(transport);
+                results.getValue().printSummary(System.out);
+
+                String prefix = transport + "-" + System.getProperty("seerchat.threads.mode", "platform");
+                results.getValue().writeHistograms(Paths.get(settings.getReportDir()), prefix);
+                passed &= check(settings, results.getValue());
+            }
+            if (resultsByTransport.size() > 1) {
+                printComparison(resultsByTransport);
+            }
+            System.out.println("events API calls " + eventsApi.getRequests());
+        } finally {
+            context.close();
+            eventsApi.stop();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static void run(LoadTestSettings settings, LoadTestSettings.Transport transport,
+                            LoadTestTrainingData trainingData, String hostAndPath, LoadTestResults results)
+            throws InterruptedException {
+        LOGGER.info("Running the users over {}", transport.name().toLowerCase());
+        ObjectMapper objectMapper = new ObjectMapper();
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setMaxConnTotal(settings.getUsers())
+                .setMaxConnPerRoute(settings.getUsers())
+                .setDefaultRequestConfig(RequestConfig.custom().setSocketTimeout((int) REPLY_TIMEOUT_MS).build())
+                .build();
+        StandardWebSocketClient webSocketClient = new StandardWebSocketClient();
+        ChatClient.Factory chatClientFactory = transport == LoadTestSettings.Transport.WEBSOCKET
+                ? () -> new WebSocketChatClient(webSocketClient, "ws://" + hostAndPath + "/api/chats/ws",
+                objectMapper, REPLY_TIMEOUT_MS)
+                : () -> new PostChatClient(httpClient, "http://" + hostAndPath + "/api/chats", objectMapper);
+
+        AtomicInteger userNumber = new AtomicInteger();
+        ExecutorService userThreads = Executors.newFixedThreadPool(settings.getUsers(),
+                runnable -> new Thread(runnable, "virtual-user-" + userNumber.incrementAndGet()));
+        List<VirtualUser> users = new ArrayList<>();
+        for (int i = 0; i < settings.getUsers(); i++) {
+            VirtualUser user = new VirtualUser(chatClientFactory, trainingData, results, settings, i);
+            users.add(user);
+            userThreads.execute(user);
+        }
+
+        TimeUnit.SECONDS.sleep(settings.getWarmUpSeconds());
+        LOGGER.info("Warm up done, recording for {} seconds", settings.getDurationSeconds());
+        results.startRecording();
+        TimeUnit.SECONDS.sleep(settings.getDurationSeconds());
+        results.stopRecording();
+
+        for (VirtualUser user : users) {
+            user.stop();
+        }
+        userThreads.shutdown();
+        if (!userThreads.awaitTermination(REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            userThreads.shutdownNow();
+        }
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to close the HTTP client", e);
+        }
+    }
+
+    /**
+     * Loads the seeded bot and sends one session over POST: Initiate, an utterance of a trained intent, which must get
+     * that intent's answer, and an utterance that must start the reservation conversation.
+     *
+     * @throws IllegalStateException when the seeded bot can not be loaded or does not answer as it was seeded
+     */
+    private static void selfCheck(ChatNLPService chatNLPService, LoadTestTrainingData trainingData, String chatsUrl)
+            throws IOException {
+        try {
+            if (!chatNLPService.isValidBotAccess(LoadTestSeeder.UNIQUE_BOT_ID, LoadTestSeeder.ALLOWED_ORIGIN)) {
+                throw new IllegalStateException("the launch info does not match the bot id and the origin");
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Self check failed, the seeded bot can not be loaded: " + e, e);
+        }
+
+        Map.Entry<String, List<String>> trainedIntent = null;
+        for (Map.Entry<String, List<String>> intent : trainingData.getUtterancesByIntent().entrySet()) {
+            if (!LoadTestTrainingData.RESERVATION_INTENT.equals(intent.getKey())) {
+                trainedIntent = intent;
+                break;
+            }
+        }
+        ObjectMapper objectMapper = new ObjectMapper();
+        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+            PostChatClient chatClient = new PostChatClient(httpClient, chatsUrl, objectMapper);
+            selfCheckChat(chatClient, "Initiate", null);
+            selfCheckChat(chatClient, trainedIntent.getValue().get(0), trainedIntent.getKey());
+            selfCheckChat(chatClient, trainingData.getReservationUtterances().get(0), "lunch");
+        }
+        LOGGER.info("Self check passed, the seeded bot answers as it was seeded");
+    }
+
+    private static void selfCheckChat(ChatClient chatClient, String message, String expectedInResponse)
+            throws IOException {
+        Map<String, Object> chat = new HashMap<>();
+        chat.put("message", message);
+        chat.put("authCode", LoadTestSeeder.UNIQUE_BOT_ID);
+        JsonNode reply;
+        try {
+            reply = chatClient.send(chat);
+        } catch (ChatFailure e) {
+            throw new IllegalStateException("Self check failed, '" + message + "' got " + e.getKind(), e);
+        }
+        String response = reply.path("response").asText();
+        if (StringUtils.isBlank(response)
+                || expectedInResponse != null && !StringUtils.containsIgnoreCase(response, expectedInResponse)) {
+            throw new IllegalStateException("Self check failed, '" + message + "' was answered with '" + response
+                    + "'" + (expectedInResponse != null ? ", expected a response with '" + expectedInResponse + "'"
+                    : ""));
+        }
+    }
+
+    private static void printComparison(Map<LoadTestSettings.Transport, LoadTestResults> resultsByTransport) {
+        System.out.println();
+        System.out.println(String.format("%-10s %12s %9s %12s", "transport", "chats/sec", "p99 ms", "cpu ms/chat"));
+        for (Map.Entry<LoadTestSettings.Transport, LoadTestResults> results : resultsByTransport.entrySet()) {
+            System.out.println(String.format("%-10s %12.1f %9.2f %12.3f", results.getKey().name().toLowerCase(),
+                    results.getValue().getChatsPerSecond(),
+                    results.getValue().getTotalHistogram().getValueAtPercentile(99) / 1000.0,
+                    results.getValue().getCpuMillisPerChat()));
+        }
+    }
+
+    private static boolean check(LoadTestSettings settings, LoadTestResults results) {
+        Histogram all = results.getTotalHistogram();
+        boolean passed = true;
+        if (all.getTotalCount() == 0) {
+            System.out.println("FAILED: no chat got a reply");
+            passed = false;
+        }
+        double p99Ms = all.getValueAtPercentile(99) / 1000.0;
+        if (settings.getMaxP99Ms() > 0 && p99Ms > settings.getMaxP99Ms()) {
+            System.out.println(String.format("FAILED: p99 %.2f ms is above %d ms", p99Ms, settings.getMaxP99Ms()));
+            passed = false;
+        }
+        if (results.getErrorRate() > settings.getMaxErrorRate()) {
+            System.out.println(String.format("FAILED: error rate %.3f%% is above %.3f%%",
+                    results.getErrorRate() * 100, settings.getMaxErrorRate() * 100));
+            passed = false;
+        }
+        return passed;
+    }
+}
@@ -0,0 +1,85 @@
+package com.seerlogics.chatbot.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stands in for the events API that ChatDataFetchService calls, so that the load test does not depend on the web
+ * flow app. A DELETE of an event answers true and a GET an empty list of events, after an optional delay that
+ * stands for the latency of the real API.
+ */
+public class EventsApiStub {
+
+    public static final String PATH = "/webflow/api/event/v1/";
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final long delayMs;
+
+    private final LongAdder requests = new LongAdder();
+
+    private EventsApiStub(long delayMs, int threads) throws IOException {
+        this.delayMs = delayMs;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server.setExecutor(executor);
+        this.server.createContext(PATH, this::handle);
+    }
+
+    /**
+     * @param delayMs time each call takes
+     * @param threads max number of calls answered at the same time
+     */
+    public static EventsApiStub start(long delayMs, int threads) throws IOException {
+        EventsApiStub stub = new EventsApiStub(delayMs, threads);
+        stub.server.start();
+        return stub;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.increment();
+        try {
+            if (delayMs > 0) {
+                Thread.sleep(delayMs);
+            }
+            byte[] body = ("DELETE".equals(exchange.getRequestMethod()) ? "true" : "[]")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.sendResponseHeaders(503, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return the url seerchat.eventsApi.url is set to
+     */
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + PATH;
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,227 @@
+package com.seerlogics.chatbot.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Latencies, in microseconds, and errors of the chats sent while recording, i.e. after the warm up. The latency of a
+ * chat is from before it is sent until its reply is read, so it includes the client and, for POST, the HTTP
+ * connection pool.
+ */
+public class LoadTestResults {
+
+    public enum MessageKind {
+        // the first message of a session
+        INITIATE,
+        // a training utterance outside of a conversation
+        UTTERANCE,
+        // a step of a reservation conversation
+        CONVERSATION
+    }
+
+    private static final MessageKind[] KINDS = MessageKind.values();
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final Recorder[] recorders = new Recorder[KINDS.length];
+
+    private final Histogram[] histograms = new Histogram[KINDS.length];
+
+    private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    private final LongAdder sessions = new LongAdder();
+
+    private final LongAdder conversations = new LongAdder();
+
+    // reservation conversations whose first utterance was not matched to GetReservations
+    private final LongAdder conversationsNotStarted = new LongAdder();
+
+    private volatile boolean recording;
+
+    private long recordingStartNanos;
+
+    private long recordingEndNanos;
+
+    // of the whole process, the users included
+    private long cpuNanos;
+
+    // bodies of the replies recorded
+    private final LongAdder replyBytes = new LongAdder();
+
+    // SQL statements run on the chat DB so far, none counted when it is not set
+    private LongSupplier statementCounter = () -> 0;
+
+    private long statements;
+
+    public LoadTestResults() {
+        for (int i = 0; i < recorders.length; i++) {
+            recorders[i] = new Recorder(HIGHEST_TRACKABLE_MICROS, 3);
+        }
+    }
+
+    public void startRecording() {
+        for (Recorder recorder : recorders) {
+            recorder.reset();
+        }
+        recordingStartNanos = System.nanoTime();
+        cpuNanos = processCpuNanos();
+        statements = statementCounter.getAsLong();
+        recording = true;
+    }
+
+    public void stopRecording() {
+        recording = false;
+        recordingEndNanos = System.nanoTime();
+        cpuNanos = processCpuNanos() - cpuNanos;
+        statements = statementCounter.getAsLong() - statements;
+        for (int i = 0; i < recorders.length; i++) {
+            histograms[i] = recorders[i].getIntervalHistogram();
+        }
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+
+    /**
+     * @param statementCounter SQL statements run on the chat DB since the start, read when the recording starts and
+     *                         stops. The write behind saves of a chat may run after the recording stopped.
+     */
+    public void setStatementCounter(LongSupplier statementCounter) {
+        this.statementCounter = statementCounter;
+    }
+
+    public void recordReply(MessageKind kind, long nanos, int bytes) {
+        if (recording) {
+            recorders[kind.ordinal()].recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nanos),
+                    HIGHEST_TRACKABLE_MICROS));
+            replyBytes.add(bytes);
+        }
+    }
+
+    public void recordError(String kind) {
+        if (recording) {
+            errors.computeIfAbsent(kind, k -> new LongAdder()).increment();
+        }
+    }
+
+    public void recordSession() {
+        if (recording) {
+            sessions.increment();
+        }
+    }
+
+    public void recordConversation(boolean started) {
+        if (recording) {
+            conversations.increment();
+            if (!started) {
+                conversationsNotStarted.increment();
+            }
+        }
+    }
+
+    /**
+     * @return the latencies of all the chats, after {@link #stopRecording()}
+     */
+    public Histogram getTotalHistogram() {
+        Histogram total = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        for (Histogram histogram : histograms) {
+            total.add(histogram);
+        }
+        return total;
+    }
+
+    public long getErrorCount() {
+        long count = 0;
+        for (LongAdder error : errors.values()) {
+            count += error.sum();
+        }
+        return count;
+    }
+
+    public double getErrorRate() {
+        long errorCount = getErrorCount();
+        long total = getTotalHistogram().getTotalCount() + errorCount;
+        return total == 0 ? 0 : (double) errorCount / total;
+    }
+
+    public double getElapsedSeconds() {
+        return (recordingEndNanos - recordingStartNanos) / 1e9;
+    }
+
+    public double getChatsPerSecond() {
+        return getTotalHistogram().getTotalCount() / getElapsedSeconds();
+    }
+
+    /**
+     * @return CPU time of the process per chat replied to, the users included
+     */
+    public double getCpuMillisPerChat() {
+        long chats = getTotalHistogram().getTotalCount();
+        return chats == 0 ? 0 : cpuNanos / 1e6 / chats;
+    }
+
+    public void printSummary(PrintStream out) {
+        double seconds = getElapsedSeconds();
+        out.println(String.format("%-14s %10s %10s %9s %9s %9s %9s %9s", "chats", "count", "per sec", "p50 ms",
+                "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (MessageKind kind : KINDS) {
+            printLine(out, kind.name().toLowerCase(), histograms[kind.ordinal()], seconds);
+        }
+        printLine(out, "all", getTotalHistogram(), seconds);
+        out.println(String.format("sessions %d (%.1f per sec), reservation conversations %d, not started %d",
+                sessions.sum(), sessions.sum() / seconds, conversations.sum(), conversationsNotStarted.sum()));
+        out.println(String.format("cpu %.3f ms per chat, the users included", getCpuMillisPerChat()));
+        long chats = getTotalHistogram().getTotalCount();
+        out.println(String.format("reply %.1f bytes per chat, %.2f SQL statements per chat on the chat DB",
+                chats == 0 ? 0 : (double) replyBytes.sum() / chats, chats == 0 ? 0 : (double) statements / chats));
+        out.println(String.format("errors %d (%.3f%%)", getErrorCount(), getErrorRate() * 100));
+        for (Map.Entry<String, LongAdder> error : new TreeMap<>(errors).entrySet()) {
+            out.println(String.format("  %-30s %d", error.getKey(), error.getValue().sum()));
+        }
+    }
+
+    private static void printLine(PrintStream out, String name, Histogram histogram, double seconds) {
+        out.println(String.format("%-14s %10d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f", name, histogram.getTotalCount(),
+                histogram.getTotalCount() / seconds, millis(histogram, 50), millis(histogram, 90),
+                millis(histogram, 99), millis(histogram, 99.9), histogram.getMaxValue() / 1000.0));
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    /**
+     * Writes the percentile distribution of each kind of chat and of all of them, in microseconds, as .hgrm files that
+     * the HdrHistogram plotter reads.
+     */
+    public void writeHistograms(Path dir, String prefix) throws IOException {
+        Files.createDirectories(dir);
+        for (MessageKind kind : KINDS) {
+            writeHistogram(dir.resolve(prefix + "-" + kind.name().toLowerCase() + ".hgrm"),
+                    histograms[kind.ordinal()]);
+        }
+        writeHistogram(dir.resolve(prefix + "-all.hgrm"), getTotalHistogram());
+    }
+
+    private static void writeHistogram(Path file, Histogram histogram) throws IOException {
+        try (PrintStream out = new PrintStream(new FileOutputStream(file.toFile()), false, "UTF-8")) {
+            histogram.outputPercentileDistribution(out, 1.0);
+        }
+    }
+}
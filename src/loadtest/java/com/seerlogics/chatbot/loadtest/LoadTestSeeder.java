@@ -0,0 +1,134 @@
+package com.seerlogics.chatbot.loadtest;
+
+import com.seerlogics.commons.model.Account;
+import com.seerlogics.commons.model.Bot;
+import com.seerlogics.commons.model.Category;
+import com.seerlogics.commons.model.Intent;
+import com.seerlogics.commons.model.IntentResponse;
+import com.seerlogics.commons.model.IntentUtterance;
+import com.seerlogics.commons.model.LaunchInfo;
+import com.seerlogics.commons.model.TrainedModel;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Seeds the in memory bot admin database with what the bot admin would have saved for one launched bot: the owner
+ * account, the category, the bot, its intents with their responses and utterances, the trained model and the launch
+ * info. Only the properties the chat bot reads are set.
+ * <p>
+ * The entities are in seerlogics-bot-commons, the setters used here are the ones the chat bot's getters imply and have
+ * not been checked against a bot admin database. The self check of {@link ChatLoadTest} fails the run if the seeded
+ * bot can not be loaded or does not answer as seeded.
+ */
+public class LoadTestSeeder {
+
+    public static final String UNIQUE_BOT_ID = "load-test-bot";
+    public static final String ALLOWED_ORIGIN = "http://localhost:3004";
+
+    private static final String OWNER_USER_NAME = "loadtest";
+    private static final String CATEGORY_CODE = "EVENT_BOT";
+    private static final String ENGLISH = "en";
+
+    private static final String INITIATE_INTENT = "Initiate";
+    private static final String DO_NOT_UNDERSTAND_INTENT = "DoNotUnderstandIntent";
+
+    private final EntityManagerFactory botAdminEntityManagerFactory;
+
+    private final LoadTestTrainingData trainingData;
+
+    public LoadTestSeeder(EntityManagerFactory botAdminEntityManagerFactory, LoadTestTrainingData trainingData) {
+        this.botAdminEntityManagerFactory = botAdminEntityManagerFactory;
+        this.trainingData = trainingData;
+    }
+
+    /**
+     * @return the launch info of the seeded bot
+     */
+    public LaunchInfo seed() throws IOException {
+        byte[] intentModel = trainingData.trainIntentModel();
+        EntityManager entityManager = botAdminEntityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+
+            Account owner = new Account();
+            owner.setUserName(OWNER_USER_NAME);
+            entityManager.persist(owner);
+
+            Category category = new Category();
+            category.setCode(CATEGORY_CODE);
+            entityManager.persist(category);
+
+            Bot bot = new Bot();
+            bot.setOwner(owner);
+            bot.setCategory(category);
+            entityManager.persist(bot);
+
+            // an options widget for Initiate and the searches, plain text for the rest
+            entityManager.persist(intent(INITIATE_INTENT, "Hello, I am the load test bot!"
+                    + "|butt=Search events&res=search events|butt=Reservation&res=make a reservation", null,
+                    owner, category));
+            entityManager.persist(intent(DO_NOT_UNDERSTAND_INTENT, "Sorry, I did not get that.", null, owner,
+                    category));
+            for (Map.Entry<String, List<String>> trainedIntent : trainingData.getUtterancesByIntent().entrySet()) {
+                String name = trainedIntent.getKey();
+                String response = name.startsWith("SearchEvents")
+                        ? "Here are the events for " + name + "|butt=Today&res=events today|butt=Quit&res=quit"
+                        : "This is the answer to " + name;
+                entityManager.persist(intent(name, response, trainedIntent.getValue(), owner, category));
+            }
+
+            TrainedModel trainedModel = new TrainedModel();
+            trainedModel.setFile(intentModel);
+            entityManager.persist(trainedModel);
+
+            LaunchInfo launchInfo = new LaunchInfo();
+            launchInfo.setUniqueBotId(UNIQUE_BOT_ID);
+            launchInfo.setAllowedOrigins(ALLOWED_ORIGIN);
+            launchInfo.setTargetBotId(bot.getId());
+            launchInfo.setTrainedModel(trainedModel);
+            entityManager.persist(launchInfo);
+
+            entityManager.getTransaction().commit();
+            return launchInfo;
+        } finally {
+            if (entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            entityManager.close();
+        }
+    }
+
+    private static Intent intent(String name, String response, List<String> utterances, Account owner,
+                                 Category category) {
+        Intent intent = new Intent();
+        intent.setIntent(name);
+        intent.setIntentType(Intent.INTENT_TYPE.CUSTOM.name());
+        intent.setOwner(owner);
+        intent.setCategory(category);
+
+        IntentResponse intentResponse = new IntentResponse();
+        intentResponse.setLocale(ENGLISH);
+        intentResponse.setResponse(response);
+        Set<IntentResponse> responses = new HashSet<>();
+        responses.add(intentResponse);
+        intent.setResponses(responses);
+
+        Set<IntentUtterance> intentUtterances = new HashSet<>();
+        if (utterances != null) {
+            for (String utterance : utterances) {
+                IntentUtterance intentUtterance = new IntentUtterance();
+                intentUtterance.setLocale(ENGLISH);
+                intentUtterance.setUtterance(utterance);
+                intentUtterances.add(intentUtterance);
+            }
+        }
+        intent.setUtterances(intentUtterances);
+        return intent;
+    }
+}
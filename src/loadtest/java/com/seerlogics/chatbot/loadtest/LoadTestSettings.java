@@ -0,0 +1,112 @@
+package com.seerlogics.chatbot.loadtest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The knobs of the load test, read from loadtest.* system properties. The loadtest maven profile passes them on from
+ * the properties of the same name.
+ */
+public class LoadTestSettings {
+
+    public enum Transport {
+        // POST /api/chats with the session cookie
+        POST,
+        // one /api/chats/ws connection per chat session
+        WEBSOCKET
+    }
+
+    // virtual users, each one runs one chat session after the other
+    private final int users;
+
+    private final int durationSeconds;
+
+    // sessions run during the warm up are not recorded
+    private final int warmUpSeconds;
+
+    // pause of a user between two messages of a session
+    private final long thinkTimeMs;
+
+    // share of the sessions that go through a reservation conversation
+    private final double conversationShare;
+
+    // loadtest.transport=both runs post and then websocket against the same bot and compares them
+    private final List<Transport> transports;
+
+    private final long eventsApiDelayMs;
+
+    // the gate on the p99 of all the chats, 0 turns the latency check off
+    private final long maxP99Ms;
+
+    private final double maxErrorRate;
+
+    private final String reportDir;
+
+    private LoadTestSettings() {
+        users = Integer.getInteger("loadtest.users", 50);
+        durationSeconds = Integer.getInteger("loadtest.durationSeconds", 60);
+        warmUpSeconds = Integer.getInteger("loadtest.warmUpSeconds", 15);
+        thinkTimeMs = Long.getLong("loadtest.thinkTimeMs", 0);
+        conversationShare = Double.parseDouble(System.getProperty("loadtest.conversationShare", "0.2"));
+        String transport = System.getProperty("loadtest.transport", "post");
+        transports = "both".equalsIgnoreCase(transport) ? Arrays.asList(Transport.POST, Transport.WEBSOCKET)
+                : Collections.singletonList(Transport.valueOf(transport.toUpperCase()));
+        eventsApiDelayMs = Long.getLong("loadtest.eventsApiDelayMs", 20);
+        maxP99Ms = Long.getLong("loadtest.maxP99Ms", 500);
+        maxErrorRate = Double.parseDouble(System.getProperty("loadtest.maxErrorRate", "0.01"));
+        reportDir = System.getProperty("loadtest.reportDir", "target/loadtest");
+    }
+
+    public static LoadTestSettings fromSystemProperties() {
+        return new LoadTestSettings();
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getWarmUpSeconds() {
+        return warmUpSeconds;
+    }
+
+    public long getThinkTimeMs() {
+        return thinkTimeMs;
+    }
+
+    public double getConversationShare() {
+        return conversationShare;
+    }
+
+    public List<Transport> getTransports() {
+        return transports;
+    }
+
+    public long getEventsApiDelayMs() {
+        return eventsApiDelayMs;
+    }
+
+    public long getMaxP99Ms() {
+        return maxP99Ms;
+    }
+
+    public double getMaxErrorRate() {
+        return maxErrorRate;
+    }
+
+    public String getReportDir() {
+        return reportDir;
+    }
+
+    @Override
+    public String toString() {
+        return "users=" + users + ", durationSeconds=" + durationSeconds + ", warmUpSeconds=" + warmUpSeconds
+                + ", thinkTimeMs=" + thinkTimeMs + ", conversationShare=" + conversationShare
+                + ", transports=" + transports + ", eventsApiDelayMs=" + eventsApiDelayMs
+                + ", threadsMode=" + System.getProperty("seerchat.threads.mode", "platform");
+    }
+}
@@ -0,0 +1,124 @@
+package com.seerlogics.chatbot.loadtest;
+
+import com.seerlogics.chatbot.mutters.CustomOpenNLPTokenizer;
+import com.seerlogics.chatbot.mutters.PooledTokenizer;
+import opennlp.tools.doccat.DoccatFactory;
+import opennlp.tools.doccat.DoccatModel;
+import opennlp.tools.doccat.DocumentCategorizerME;
+import opennlp.tools.doccat.DocumentSample;
+import opennlp.tools.tokenize.TokenizerModel;
+import opennlp.tools.util.ObjectStreamUtils;
+import opennlp.tools.util.TrainingParameters;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The intents of the load test bot: the ones of EventGenieBotIntents.train and the GetReservations intent that starts
+ * the ReservationStateMachine. The intent model is trained like the bot admin trains it, on the tokens as the bot's
+ * tokenizer normalizes them.
+ */
+public final class LoadTestTrainingData {
+
+    public static final String TOKENIZER_MODEL = "nlp/models/standard/en-token.bin";
+    public static final String EVENT_INTENTS = "nlp/models/custom/EventGenieBotIntents.train";
+    public static final String RESERVATION_INTENTS = "loadtest/ReservationIntents.train";
+
+    public static final String RESERVATION_INTENT = "GetReservations";
+
+    private final CustomOpenNLPTokenizer tokenizer;
+
+    // intent -> utterances, in file order
+    private final Map<String, List<String>> utterancesByIntent = new LinkedHashMap<>();
+
+    private final List<String> utterances = new ArrayList<>();
+
+    private final List<String> reservationUtterances = new ArrayList<>();
+
+    public LoadTestTrainingData() throws IOException {
+        try (InputStream in = open(TOKENIZER_MODEL)) {
+            tokenizer = new CustomOpenNLPTokenizer(new PooledTokenizer(new TokenizerModel(in)));
+        }
+        read(EVENT_INTENTS);
+        read(RESERVATION_INTENTS);
+        for (Map.Entry<String, List<String>> intent : utterancesByIntent.entrySet()) {
+            if (RESERVATION_INTENT.equals(intent.getKey())) {
+                reservationUtterances.addAll(intent.getValue());
+            } else {
+                utterances.addAll(intent.getValue());
+            }
+        }
+    }
+
+    private void read(String resource) throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(open(resource), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (StringUtils.isBlank(line)) {
+                    continue;
+                }
+                // "Intent the utterance"
+                utterancesByIntent.computeIfAbsent(StringUtils.substringBefore(line, " "), intent -> new ArrayList<>())
+                        .add(StringUtils.substringAfter(line, " "));
+            }
+        }
+    }
+
+    /**
+     * @return the serialized doccat model of all the intents, as stored in TrainedModel.file
+     */
+    public byte[] trainIntentModel() throws IOException {
+        List<DocumentSample> samples = new ArrayList<>();
+        for (Map.Entry<String, List<String>> intent : utterancesByIntent.entrySet()) {
+            for (String utterance : intent.getValue()) {
+                samples.add(new DocumentSample(intent.getKey(), tokenizer.tokenize(utterance)));
+            }
+        }
+        TrainingParameters trainingParameters = new TrainingParameters();
+        trainingParameters.put(TrainingParameters.ALGORITHM_PARAM, "MAXENT");
+        trainingParameters.put(TrainingParameters.ITERATIONS_PARAM, "500");
+        trainingParameters.put(TrainingParameters.CUTOFF_PARAM, "0");
+        DoccatModel model = DocumentCategorizerME.train("en", ObjectStreamUtils.createObjectStream(samples),
+                trainingParameters, new DoccatFactory());
+        ByteArrayOutputStream modelBytes = new ByteArrayOutputStream();
+        model.serialize(modelBytes);
+        return modelBytes.toByteArray();
+    }
+
+    private static InputStream open(String resource) throws IOException {
+        InputStream in = LoadTestTrainingData.class.getClassLoader().getResourceAsStream(resource);
+        if (in == null) {
+            throw new IOException("Missing " + resource);
+        }
+        return in;
+    }
+
+    public Map<String, List<String>> getUtterancesByIntent() {
+        return Collections.unmodifiableMap(utterancesByIntent);
+    }
+
+    /**
+     * @return the utterances of all the intents that do not start a conversation
+     */
+    public List<String> getUtterances() {
+        return Collections.unmodifiableList(utterances);
+    }
+
+    /**
+     * @return the utterances that start the ReservationStateMachine
+     */
+    public List<String> getReservationUtterances() {
+        return Collections.unmodifiableList(reservationUtterances);
+    }
+}
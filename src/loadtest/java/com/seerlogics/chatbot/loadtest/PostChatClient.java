@@ -0,0 +1,67 @@
+package com.seerlogics.chatbot.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A chat session over POST /api/chats. The connections are shared by all the users, the cookies are the session's own
+ * so that the bot sees one HTTP session per chat session, like it does for the widget.
+ */
+public class PostChatClient implements ChatClient {
+
+    private final CloseableHttpClient httpClient;
+
+    private final String chatsUrl;
+
+    private final ObjectMapper objectMapper;
+
+    private final HttpClientContext context = HttpClientContext.create();
+
+    private int lastReplyBytes;
+
+    public PostChatClient(CloseableHttpClient httpClient, String chatsUrl, ObjectMapper objectMapper) {
+        this.httpClient = httpClient;
+        this.chatsUrl = chatsUrl;
+        this.objectMapper = objectMapper;
+        this.context.setCookieStore(new BasicCookieStore());
+    }
+
+    @Override
+    public JsonNode send(Map<String, Object> chat) throws IOException {
+        HttpPost post = new HttpPost(chatsUrl);
+        post.setHeader("X-Bot-Id", LoadTestSeeder.UNIQUE_BOT_ID);
+        post.setHeader("X-Customer-Origin", LoadTestSeeder.ALLOWED_ORIGIN);
+        post.setEntity(new ByteArrayEntity(objectMapper.writeValueAsBytes(chat), ContentType.APPLICATION_JSON));
+        try (CloseableHttpResponse response = httpClient.execute(post, context)) {
+            // read the body in any case so that the connection goes back to the pool
+            byte[] body = EntityUtils.toByteArray(response.getEntity());
+            lastReplyBytes = body.length;
+            int status = response.getStatusLine().getStatusCode();
+            if (status != 200) {
+                throw new ChatFailure("http " + status);
+            }
+            return objectMapper.readTree(body);
+        }
+    }
+
+    @Override
+    public int getLastReplyBytes() {
+        return lastReplyBytes;
+    }
+
+    @Override
+    public void close() {
+        // nothing to close, the HTTP session expires on the bot
+    }
+}
@@ -0,0 +1,161 @@
+package com.seerlogics.chatbot.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.seerlogics.chatbot.loadtest.LoadTestResults.MessageKind;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Runs chat sessions one after the other until the load test is over. A session starts with Initiate like the widget
+ * does and then either sends a few training utterances or goes through a reservation conversation: lunch or dinner,
+ * the number of guests and the time, sometimes quitting half way. A chat that fails ends the session since the
+ * conversation can not go on without its reply.
+ */
+public class VirtualUser implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualUser.class);
+
+    private static final String[] LUNCH_TIMES = {"12-2", "1-3"};
+    private static final String[] DINNER_TIMES = {"5-7", "6-8", "7-9"};
+
+    private static final int MIN_UTTERANCES = 2;
+    private static final int MAX_UTTERANCES = 6;
+    private static final double QUIT_SHARE = 0.1;
+
+    private final ChatClient.Factory chatClientFactory;
+
+    private final LoadTestTrainingData trainingData;
+
+    private final LoadTestResults results;
+
+    private final LoadTestSettings settings;
+
+    private final Random random;
+
+    private volatile boolean stopped;
+
+    public VirtualUser(ChatClient.Factory chatClientFactory, LoadTestTrainingData trainingData,
+                       LoadTestResults results, LoadTestSettings settings, long seed) {
+        this.chatClientFactory = chatClientFactory;
+        this.trainingData = trainingData;
+        this.results = results;
+        this.settings = settings;
+        this.random = new Random(seed);
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    @Override
+    public void run() {
+        while (!stopped && !Thread.currentThread().isInterrupted()) {
+            try (ChatClient chatClient = chatClientFactory.open()) {
+                new Session(chatClient).run();
+                results.recordSession();
+            } catch (ChatFailure e) {
+                results.recordError(e.getKind());
+            } catch (InterruptedIOException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.debug("Chat session failed", e);
+                results.recordError(e.getClass().getSimpleName());
+            }
+        }
+    }
+
+    private String pick(List<String> values) {
+        return values.get(random.nextInt(values.size()));
+    }
+
+    private String pick(String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private class Session {
+
+        private final ChatClient chatClient;
+
+        private String currentSessionId;
+
+        private String previousChatId;
+
+        Session(ChatClient chatClient) {
+            this.chatClient = chatClient;
+        }
+
+        void run() throws IOException {
+            send(MessageKind.INITIATE, "Initiate");
+            if (random.nextDouble() < settings.getConversationShare()) {
+                reservation();
+            } else {
+                int utterances = MIN_UTTERANCES + random.nextInt(MAX_UTTERANCES - MIN_UTTERANCES + 1);
+                for (int i = 0; i < utterances && !stopped; i++) {
+                    send(MessageKind.UTTERANCE, pick(trainingData.getUtterances()));
+                }
+            }
+        }
+
+        private void reservation() throws IOException {
+            JsonNode reply = send(MessageKind.CONVERSATION, pick(trainingData.getReservationUtterances()));
+            // the first state of the ReservationStateMachine asks for lunch or dinner
+            boolean started = StringUtils.containsIgnoreCase(reply.path("response").asText(), "lunch");
+            results.recordConversation(started);
+            if (!started) {
+                return;
+            }
+            boolean lunch = random.nextBoolean();
+            List<String> steps = Arrays.asList(lunch ? "lunch" : "dinner",
+                    String.valueOf(1 + random.nextInt(8)), pick(lunch ? LUNCH_TIMES : DINNER_TIMES));
+            // the users that quit do it at any of the steps
+            int quitAt = random.nextDouble() < QUIT_SHARE ? random.nextInt(steps.size()) : -1;
+            for (int i = 0; i < steps.size() && !stopped; i++) {
+                send(MessageKind.CONVERSATION, i == quitAt ? "quit" : steps.get(i));
+                if (i == quitAt) {
+                    return;
+                }
+            }
+        }
+
+        private JsonNode send(MessageKind kind, String message) throws IOException {
+            think();
+            Map<String, Object> chat = new HashMap<>();
+            chat.put("message", message);
+            chat.put("authCode", LoadTestSeeder.UNIQUE_BOT_ID);
+            chat.put("currentSessionId", currentSessionId);
+            chat.put("chatSessionId", currentSessionId);
+            chat.put("previousChatId", previousChatId);
+            long start = System.nanoTime();
+            JsonNode reply = chatClient.send(chat);
+            results.recordReply(kind, System.nanoTime() - start, chatClient.getLastReplyBytes());
+            if (reply.hasNonNull("currentSessionId")) {
+                currentSessionId = reply.get("currentSessionId").asText();
+            }
+            if (reply.hasNonNull("previousChatId")) {
+                previousChatId = reply.get("previousChatId").asText();
+            }
+            return reply;
+        }
+
+        private void think() throws InterruptedIOException {
+            if (settings.getThinkTimeMs() <= 0) {
+                return;
+            }
+            try {
+                Thread.sleep(settings.getThinkTimeMs());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
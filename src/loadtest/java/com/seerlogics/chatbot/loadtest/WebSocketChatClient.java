@@ -0,0 +1,108 @@
+package com.seerlogics.chatbot.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A chat session over its own /api/chats/ws connection. The bot replies to the messages of a connection in order, so
+ * a message is sent and the next reply on the connection is its reply.
+ */
+public class WebSocketChatClient extends TextWebSocketHandler implements ChatClient {
+
+    // put on the queue when the connection drops so that a user waiting for a reply does not wait for the timeout
+    private static final String CLOSED = "";
+
+    private final ObjectMapper objectMapper;
+
+    private final long replyTimeoutMs;
+
+    private final BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+
+    private final WebSocketSession session;
+
+    private int lastReplyBytes;
+
+    public WebSocketChatClient(WebSocketClient webSocketClient, String chatsWsUrl, ObjectMapper objectMapper,
+                               long replyTimeoutMs) throws IOException {
+        this.objectMapper = objectMapper;
+        this.replyTimeoutMs = replyTimeoutMs;
+        WebSocketHttpHeaders headers = new WebSocketHttpHeaders();
+        headers.add("X-Bot-Id", LoadTestSeeder.UNIQUE_BOT_ID);
+        headers.add("X-Customer-Origin", LoadTestSeeder.ALLOWED_ORIGIN);
+        try {
+            this.session = webSocketClient.doHandshake(this, headers, URI.create(chatsWsUrl))
+                    .get(replyTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new ChatFailure("ws handshake failed", e.getCause());
+        } catch (TimeoutException e) {
+            throw new ChatFailure("ws handshake timeout", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        replies.add(message.getPayload());
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        replies.add(CLOSED);
+    }
+
+    @Override
+    public JsonNode send(Map<String, Object> chat) throws IOException {
+        session.sendMessage(new TextMessage(objectMapper.writeValueAsString(chat)));
+        String reply;
+        try {
+            reply = replies.poll(replyTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (reply == null) {
+            throw new ChatFailure("ws timeout");
+        } else if (CLOSED.equals(reply)) {
+            throw new ChatFailure("ws closed");
+        }
+        lastReplyBytes = reply.getBytes(StandardCharsets.UTF_8).length;
+        JsonNode response = objectMapper.readTree(reply);
+        if (response.has("overloaded")) {
+            throw new ChatFailure("ws overloaded");
+        } else if (response.has("error")) {
+            throw new ChatFailure("ws error");
+        }
+        return response;
+    }
+
+    @Override
+    public int getLastReplyBytes() {
+        return lastReplyBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (session.isOpen()) {
+            session.close();
+        }
+    }
+}
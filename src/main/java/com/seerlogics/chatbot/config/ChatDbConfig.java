@@ -3,6 +3,7 @@ package com.seerlogics.chatbot.config;
 import com.seerlogics.commons.config.HibernateConfig;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.jdbc.DataSourceBuilder;
 import org.springframework.boot.orm.jpa.EntityManagerFactoryBuilder;
@@ -37,6 +38,9 @@ public class ChatDbConfig {
     @Autowired
     private HibernateConfig hibernateConfig;
 
+    @Value("${seerchat.writeBehind.batchSize:200}")
+    private String jdbcBatchSize;
+
     @Primary
     @Bean(name = "chatBotDataSource")
     @ConfigurationProperties(prefix = "chatbot.datasource")
@@ -57,6 +61,9 @@ public class ChatDbConfig {
         properties.put("hibernate.show_sql", this.hibernateConfig.getChatBotHibernateShowSQL());
         properties.put("hibernate.physical_naming_strategy", this.hibernateConfig.getChatBotNamingStrategy());
         properties.put("hibernate.dialect", this.hibernateConfig.getChatBotHibernateDialect());
+        // the write behind batches of chats and transactions are sent to the DB as JDBC batches
+        properties.put("hibernate.jdbc.batch_size", this.jdbcBatchSize);
+        properties.put("hibernate.order_inserts", "true");
 
         return builder
                 .dataSource(dataSource)
@@ -0,0 +1,66 @@
+package com.seerlogics.chatbot.config;
+
+import com.seerlogics.chatbot.controller.ChatHandshakeInterceptor;
+import com.seerlogics.chatbot.controller.ChatWebSocketHandler;
+import com.seerlogics.chatbot.noggin.StateMachinePool;
+import com.seerlogics.chatbot.service.ChatNLPService;
+import com.seerlogics.chatbot.service.ChatRateLimiter;
+import com.seerlogics.chatbot.service.ChatSessionStateService;
+import com.seerlogics.chatbot.service.NlpExecutor;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+/**
+ * Registers the chat WebSocket at /api/chats/ws?botId=[uniqueBotId], with &sessionToken=[resumeToken] to go on with an
+ * earlier chat session. The origin is checked against the LaunchInfo of the bot by the
+ * {@link ChatHandshakeInterceptor}, so any origin is let through to it here.
+ */
+@Configuration
+@EnableWebSocket
+public class ChatWebSocketConfig implements WebSocketConfigurer {
+
+    private final ChatNLPService chatNLPService;
+
+    private final ChatSessionStateService chatSessionStateService;
+
+    private final StateMachinePool stateMachinePool;
+
+    private final NlpExecutor nlpExecutor;
+
+    private final ChatRateLimiter chatRateLimiter;
+
+    private final MeterRegistry meterRegistry;
+
+    private final int maxInFlight;
+
+    public ChatWebSocketConfig(ChatNLPService chatNLPService, ChatSessionStateService chatSessionStateService,
+                               StateMachinePool stateMachinePool, NlpExecutor nlpExecutor,
+                               ChatRateLimiter chatRateLimiter, MeterRegistry meterRegistry,
+                               @Value("${seerchat.websocket.maxInFlight:16}") int maxInFlight) {
+        this.chatNLPService = chatNLPService;
+        this.chatSessionStateService = chatSessionStateService;
+        this.stateMachinePool = stateMachinePool;
+        this.nlpExecutor = nlpExecutor;
+        this.chatRateLimiter = chatRateLimiter;
+        this.meterRegistry = meterRegistry;
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Bean
+    public ChatWebSocketHandler chatWebSocketHandler() {
+        return new ChatWebSocketHandler(chatNLPService, chatSessionStateService, stateMachinePool, nlpExecutor,
+                chatRateLimiter, meterRegistry, maxInFlight);
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(chatWebSocketHandler(), "/api/chats/ws")
+                .addInterceptors(new ChatHandshakeInterceptor(chatNLPService))
+                .setAllowedOrigins("*");
+    }
+}
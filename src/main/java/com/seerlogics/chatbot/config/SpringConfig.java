@@ -7,6 +7,7 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.velocity.app.VelocityEngine;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.MessageSource;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
@@ -35,6 +36,13 @@ public class SpringConfig implements WebMvcConfigurer {
     public static final String UTF_8 = "UTF-8";
     private final StartUpConfiguration startUpConfiguration;
 
+    /**
+     * Connections to the events API. With seerchat.threads.mode=virtual this, not the Tomcat threads, bounds the
+     * number of concurrent calls.
+     */
+    @Value("${seerchat.restClient.maxConnections:20}")
+    private int restClientMaxConnections;
+
     public SpringConfig(StartUpConfiguration startUpConfiguration) {
         this.startUpConfiguration = startUpConfiguration;
     }
@@ -55,8 +63,8 @@ public class SpringConfig implements WebMvcConfigurer {
 
     private ClientHttpRequestFactory createRequestFactory() {
         PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
-        connectionManager.setMaxTotal(20);
-        connectionManager.setDefaultMaxPerRoute(20);
+        connectionManager.setMaxTotal(restClientMaxConnections);
+        connectionManager.setDefaultMaxPerRoute(restClientMaxConnections);
 
         RequestConfig config = RequestConfig.custom().setConnectTimeout(100000).build();
         CloseableHttpClient httpClient = HttpClientBuilder.create().setConnectionManager(connectionManager)
@@ -0,0 +1,61 @@
+package com.seerlogics.chatbot.config;
+
+import com.lingoace.exception.config.ConfigurationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Opt in mode, --seerchat.threads.mode=virtual, where Tomcat runs every request on its own virtual thread instead of
+ * a thread of its bounded worker pool. What blocks on the request thread itself then only holds its DB connection:
+ * the bot configuration loaded for the header check on a cache miss, the chat history pages and export, and the
+ * batch endpoint, which waits for its sessions and saves them on the request thread.
+ * <p>
+ * The chats of POST /api/chats and of the websocket run on virtual threads of this executor too, the NlpExecutor
+ * uses it instead of its platform threads, so the JPA save and the RestTemplate calls of ChatDataFetchService made
+ * there only hold their connections while they wait. The NlpExecutor still takes at most its threads plus its
+ * queueCapacity chats at a time. The OpenNLP tokenizers and categorizers are not thread safe and are borrowed from an
+ * NlpInstancePool, which works the same on both kinds of threads. Locks held around IO on the request path are
+ * ReentrantLocks rather than monitors so they do not pin the carrier threads.
+ * <p>
+ * The project is compiled for Java 8, the virtual thread executor is looked up at runtime and this mode fails at
+ * startup on a JVM older than 21. Only the embedded Tomcat is customized, a war deployment keeps the container's
+ * threads. No load test comparing the two modes has been run yet, use the loadtest profile with
+ * -Dloadtest.threadsMode=virtual before turning it on.
+ */
+@Configuration
+@ConditionalOnProperty(name = "seerchat.threads.mode", havingValue = "virtual")
+public class VirtualThreadConfig {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadConfig.class);
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService virtualThreadExecutor() {
+        try {
+            Method newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService executorService = (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+            LOGGER.info("Requests and chats will run on virtual threads");
+            return executorService;
+        } catch (NoSuchMethodException e) {
+            throw new ConfigurationException("seerchat.threads.mode=virtual needs Java 21 or newer, this is Java "
+                    + System.getProperty("java.version"));
+        } catch (ReflectiveOperationException e) {
+            throw new ConfigurationException("Unable to create the virtual thread executor: " + e);
+        }
+    }
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadTomcatCustomizer(
+            ExecutorService virtualThreadExecutor) {
+        return factory -> factory.addConnectorCustomizers(
+                connector -> connector.getProtocolHandler().setExecutor(virtualThreadExecutor));
+    }
+}
@@ -0,0 +1,81 @@
+package com.seerlogics.chatbot.controller;
+
+import com.seerlogics.chatbot.service.ChatRateLimiter;
+import com.seerlogics.chatbot.service.ChatSessionStateService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control in front of the chat endpoints. A POST to /api/chats or /api/chats/batch takes a token from the
+ * bucket of its X-Bot-Id and of its chat session, see {@link ChatRateLimiter}. When either is empty the chat gets a
+ * 429 with a Retry-After header here, before the DispatcherServlet, so nothing about the bot is looked up for it.
+ * <p>
+ * The session bucket is keyed on the session of the X-Chat-Session-Token header, only when this server signed the
+ * token for the bot. The session cookie and the ids in the body are the client's to choose, a new one for every chat
+ * would get a full bucket every time. A chat without a valid token, the first one of a session or one with a made up
+ * token, takes from the bucket of its remote address instead, so clients behind one proxy share that bucket until
+ * they have their tokens. Behind a reverse proxy set server.forward-headers-strategy for the address to be the
+ * client's.
+ */
+@Component
+public class ChatAdmissionFilter extends OncePerRequestFilter {
+
+    private static final String CHATS_PATH = "/api/chats";
+
+    private final ChatRateLimiter chatRateLimiter;
+
+    private final ChatSessionStateService chatSessionStateService;
+
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+    public ChatAdmissionFilter(ChatRateLimiter chatRateLimiter, ChatSessionStateService chatSessionStateService) {
+        this.chatRateLimiter = chatRateLimiter;
+        this.chatSessionStateService = chatSessionStateService;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!"POST".equals(request.getMethod())) {
+            return true;
+        }
+        String path = urlPathHelper.getPathWithinApplication(request);
+        return !(CHATS_PATH.equals(path) || path.startsWith(CHATS_PATH + "/"));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String uniqueBotId = request.getHeader("X-Bot-Id");
+        long waitNanos = chatRateLimiter.tryAcquire(uniqueBotId, sessionKey(request, uniqueBotId));
+        if (waitNanos > 0) {
+            long retryAfterSeconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1)
+                    / TimeUnit.SECONDS.toNanos(1));
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.getWriter().write("{\"rateLimited\":true}");
+            return;
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    /**
+     * @return the session of a token this server signed for the bot, else the remote address
+     */
+    String sessionKey(HttpServletRequest request, String uniqueBotId) {
+        String sessionId = chatSessionStateService.verifiedSessionId(
+                request.getHeader(ChatController.SESSION_TOKEN_HEADER), uniqueBotId);
+        return sessionId != null ? "session:" + sessionId : "address:" + request.getRemoteAddr();
+    }
+}
@@ -3,21 +3,32 @@ package com.seerlogics.chatbot.controller;
 import com.lingoace.spring.controller.BaseController;
 import com.seerlogics.chatbot.model.ChatData;
 import com.seerlogics.chatbot.noggin.ChatSession;
+import com.seerlogics.chatbot.service.ChatBatchService;
+import com.seerlogics.chatbot.service.ChatHistoryService;
 import com.seerlogics.chatbot.service.ChatNLPService;
-import com.seerlogics.commons.model.LaunchInfo;
+import com.seerlogics.chatbot.service.ChatSessionStateService;
+import com.seerlogics.chatbot.service.NlpExecutor;
+import com.seerlogics.chatbot.view.ChatBatchRequest;
+import com.seerlogics.chatbot.view.ChatBatchResponse;
+import com.seerlogics.chatbot.view.ChatResponse;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.aop.scope.ScopedObject;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Created by bkane on 5/4/18.
@@ -28,19 +39,44 @@ public class ChatController extends BaseController {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ChatController.class);
     public static final String AUTH_CODE = "2478360d-530d-4435-bf49-bf07c0e7e35b";
+    // the resumeToken of an earlier reply, see ChatSessionStateService
+    public static final String SESSION_TOKEN_HEADER = "X-Chat-Session-Token";
 
     private final ChatSession chatSession;
 
     private final ChatNLPService chatNLPService;
 
-    public ChatController(ChatSession chatSession, ChatNLPService chatNLPService) {
+    private final ChatSessionStateService chatSessionStateService;
+
+    private final ChatBatchService chatBatchService;
+
+    private final NlpExecutor nlpExecutor;
+
+    private final ChatHistoryService chatHistoryService;
+
+    public ChatController(ChatSession chatSession, ChatNLPService chatNLPService,
+                          ChatSessionStateService chatSessionStateService, ChatBatchService chatBatchService,
+                          NlpExecutor nlpExecutor, ChatHistoryService chatHistoryService) {
         this.chatSession = chatSession;
         this.chatNLPService = chatNLPService;
+        this.chatSessionStateService = chatSessionStateService;
+        this.chatBatchService = chatBatchService;
+        this.nlpExecutor = nlpExecutor;
+        this.chatHistoryService = chatHistoryService;
     }
 
+    /**
+     * One page of the chats of the bot's owner, oldest first. Pass the nextCursor of a page as the cursor to get the
+     * next one. from and to are ISO-8601 instants.
+     */
     @GetMapping("/chats")
-    public ResponseEntity getChatHistory(HttpServletRequest request) {
-        LOGGER.debug("Getting all chats now ----->>>>>>");
+    public ResponseEntity getChatHistory(@RequestParam(required = false) String chatSessionId,
+                                         @RequestParam(required = false) String from,
+                                         @RequestParam(required = false) String to,
+                                         @RequestParam(required = false) String cursor,
+                                         @RequestParam(defaultValue = "100") int limit,
+                                         HttpServletRequest request) {
+        LOGGER.debug("Getting a page of chats now ----->>>>>>");
 
         if (!this.isContainsValidHeaders(request)) {
             Map<String, Boolean> errorResponse = new HashMap<>();
@@ -48,15 +84,36 @@ public class ChatController extends BaseController {
             return new ResponseEntity<>(errorResponse, HttpStatus.BAD_REQUEST);
         }
 
-        List<ChatData> chatDataList = chatNLPService.findAll();
-        return new ResponseEntity<>(chatDataList, HttpStatus.OK);
+        String ownerAccountId = getOwnerAccountId(request);
+        StreamingResponseBody page = chatHistoryService.page(ownerAccountId, chatSessionId, from, to, cursor, limit);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(page);
+    }
+
+    /**
+     * All the chats of the bot's owner in the time range as one JSON array, written as they are read. This is written
+     * on the servlet thread rather than as an async StreamingResponseBody so a long export is not cut off by
+     * spring.mvc.async.request-timeout.
+     */
+    @GetMapping("/chats/export")
+    public void exportChatHistory(@RequestParam(required = false) String from,
+                                  @RequestParam(required = false) String to,
+                                  HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        if (!this.isContainsValidHeaders(request)) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            response.getWriter().write("{\"invalidAccess\":true}");
+            return;
+        }
+
+        StreamingResponseBody chats = chatHistoryService.all(getOwnerAccountId(request), null, from, to);
+        chats.writeTo(response.getOutputStream());
     }
 
     @GetMapping("/chats/{chatSessionId}")
     public ResponseEntity getChatsByChatSessionId(@PathVariable String chatSessionId, HttpServletRequest request) {
         // get the AUTH from the JWT token.
-        List<ChatData> chatDataList = chatNLPService.findByChatSessionId(chatSessionId);
-        return new ResponseEntity<>(chatDataList, HttpStatus.OK);
+        StreamingResponseBody chats = chatHistoryService.all(null, chatSessionId, null, null);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(chats);
     }
 
     @GetMapping("/invalidateCache/{authCode}")
@@ -69,38 +126,85 @@ public class ChatController extends BaseController {
         }
     }
 
+    /**
+     * The headers, the session and the cookie are handled on the servlet thread. The NLP work runs on the
+     * {@link NlpExecutor} and the servlet thread is given back to Tomcat until it is done. A full NLP queue is a 503.
+     * The chats of a session run one after the other. A chat that is still waiting for an NLP thread after
+     * spring.mvc.async.request-timeout gets a 503 and is not run anymore.
+     */
     @PostMapping("/chats")
-    public ResponseEntity chatMessage(@RequestBody ChatData incomingChatData, HttpServletRequest request,
-                                      HttpServletResponse response) {
+    public DeferredResult<ResponseEntity> chatMessage(@RequestBody ChatData incomingChatData,
+                                                      HttpServletRequest request, HttpServletResponse response) {
         LOGGER.debug(">>>> current session object = {} ", request.getSession());
 
+        DeferredResult<ResponseEntity> deferredResult = new DeferredResult<>();
         if (!this.isContainsValidHeaders(request)) {
             Map<String, Boolean> errorResponse = new HashMap<>();
             errorResponse.put("invalidAccess", true);
-            return new ResponseEntity<>(errorResponse, HttpStatus.BAD_REQUEST);
+            deferredResult.setResult(new ResponseEntity<>(errorResponse, HttpStatus.BAD_REQUEST));
+            return deferredResult;
         }
 
-        if (StringUtils.isBlank(chatSession.getCurrentSessionId())) {
+        // the session scoped proxy only resolves on the request thread, the NLP thread gets the session itself
+        ChatSession currentChatSession = (ChatSession) ((ScopedObject) chatSession).getTargetObject();
+
+        // a conversation started on another node, or in an expired HTTP session, is picked up from the session store.
+        // Only with a token this server signed, the session ids in the body are not proof of anything.
+        chatSessionStateService.resume(currentChatSession, request.getHeader(SESSION_TOKEN_HEADER),
+                incomingChatData.getAuthCode());
+
+        if (StringUtils.isBlank(currentChatSession.getCurrentSessionId())) {
             final Cookie cookie = createCookie(request);
             // add cookie to the response
             response.addCookie(cookie);
-            chatSession.setAuthCode(incomingChatData.getAuthCode());
-            chatSession.setCurrentSessionId(cookie.getValue());
+            currentChatSession.setAuthCode(incomingChatData.getAuthCode());
+            currentChatSession.setCurrentSessionId(cookie.getValue());
         }
 
-        if ("Initiate".equals(incomingChatData.getMessage())) {
-            ChatData initiateResponse = chatNLPService.generateInitiateChatResponse(incomingChatData, chatSession);
-            initiateResponse.setCurrentSessionId(chatSession.getCurrentSessionId());
-            initiateResponse.setChatSessionId(chatSession.getCurrentSessionId());
-            //initiateResponse.setResponse(initiateResponse.getResponse().replace('"', '\"'));
-            return new ResponseEntity<>(initiateResponse, HttpStatus.OK);
+        CompletableFuture<ResponseEntity> reply = nlpExecutor.submit(currentChatSession.getCurrentSessionId(), () -> {
+            if ("Initiate".equals(incomingChatData.getMessage())) {
+                ChatData initiateResponse = chatNLPService.generateInitiateChatResponse(incomingChatData,
+                        currentChatSession);
+                initiateResponse.setCurrentSessionId(currentChatSession.getCurrentSessionId());
+                initiateResponse.setChatSessionId(currentChatSession.getCurrentSessionId());
+                //initiateResponse.setResponse(initiateResponse.getResponse().replace('"', '\"'));
+                chatSessionStateService.save(currentChatSession);
+                return new ResponseEntity<>(toChatResponse(initiateResponse, currentChatSession), HttpStatus.OK);
+            }
+
+            ChatData chatResponse = chatNLPService.generateChatBotResponse(incomingChatData, currentChatSession);
+            chatResponse.setCurrentSessionId(currentChatSession.getCurrentSessionId());
+            chatResponse.setChatSessionId(currentChatSession.getCurrentSessionId());
+            LOGGER.debug(">>>> Response Object = {}", chatResponse);
+            chatSessionStateService.save(currentChatSession);
+            return new ResponseEntity<>(toChatResponse(chatResponse, currentChatSession), HttpStatus.OK);
+        });
+        // no result is set on timeout, so it is still an AsyncRequestTimeoutException, a 503
+        deferredResult.onTimeout(() -> reply.cancel(false));
+        reply.whenComplete((responseEntity, e) -> {
+            if (e != null) {
+                deferredResult.setErrorResult(e);
+            } else {
+                deferredResult.setResult(responseEntity);
+            }
+        });
+        return deferredResult;
+    }
+
+    /**
+     * Processes many messages in one request, see {@link ChatBatchService}. The headers are checked once for the
+     * whole batch and the messages are for the bot in X-Bot-Id.
+     */
+    @PostMapping("/chats/batch")
+    public ResponseEntity chatBatch(@RequestBody ChatBatchRequest chatBatchRequest, HttpServletRequest request) {
+        if (!this.isContainsValidHeaders(request)) {
+            Map<String, Boolean> errorResponse = new HashMap<>();
+            errorResponse.put("invalidAccess", true);
+            return new ResponseEntity<>(errorResponse, HttpStatus.BAD_REQUEST);
         }
 
-        ChatData chatResponse = chatNLPService.generateChatBotResponse(incomingChatData, chatSession);
-        chatResponse.setCurrentSessionId(chatSession.getCurrentSessionId());
-        chatResponse.setChatSessionId(chatSession.getCurrentSessionId());
-        LOGGER.debug(">>>> Response Object = {}", chatResponse);
-        return new ResponseEntity<>(chatResponse, HttpStatus.OK);
+        ChatBatchResponse chatBatchResponse = chatBatchService.process(request.getHeader("X-Bot-Id"), chatBatchRequest);
+        return new ResponseEntity<>(chatBatchResponse, HttpStatus.OK);
     }
 
     @GetMapping("/chats/re-init/{authCode}/{uniqueBotId}")
@@ -113,24 +217,19 @@ public class ChatController extends BaseController {
         }
     }
 
-    private boolean isContainsValidHeaders(HttpServletRequest request) {
-        String xBotId = request.getHeader("X-Bot-Id");
-        String xCustomerOrigin = request.getHeader("X-Customer-Origin");
+    private ChatResponse toChatResponse(ChatData chatData, ChatSession currentChatSession) {
+        ChatResponse chatResponse = ChatResponse.from(chatData);
+        chatResponse.setResumeToken(chatSessionStateService.resumeToken(currentChatSession));
+        return chatResponse;
+    }
 
-        if (StringUtils.isBlank(xBotId) || StringUtils.isBlank(xCustomerOrigin)) {
-            LOGGER.error("Either X-Bot-Id or X-Customer-Origin is invalid");
-            return false;
-        }
+    private String getOwnerAccountId(HttpServletRequest request) {
+        return this.chatNLPService.getSeerBotConfiguration(request.getHeader("X-Bot-Id")).getOwnerUserName();
+    }
 
-        LaunchInfo launchInfo = this.chatNLPService.getSeerBotConfiguration(xBotId).getLaunchInfo();
-        boolean allValid = launchInfo.getUniqueBotId().equals(xBotId) &&
-                xCustomerOrigin.equals(launchInfo.getAllowedOrigins());
-        if (!allValid) {
-            LOGGER.error("Invalid access: incoming xBotId = {} , actual botId = {} , xCustomerOrigin = {} "
-                            + ", Actual Origin = {} ", xBotId, launchInfo.getUniqueBotId(),
-                    xCustomerOrigin, launchInfo.getAllowedOrigins());
-        }
-        return allValid;
+    private boolean isContainsValidHeaders(HttpServletRequest request) {
+        return this.chatNLPService.isValidBotAccess(request.getHeader("X-Bot-Id"),
+                request.getHeader("X-Customer-Origin"));
     }
 
     private Cookie createCookie(HttpServletRequest request) {
@@ -0,0 +1,60 @@
+package com.seerlogics.chatbot.controller;
+
+import com.seerlogics.chatbot.service.ChatNLPService;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.util.Map;
+
+/**
+ * Checks the bot and the origin once, when the chat WebSocket is opened, instead of on every message.
+ * <p>
+ * Browsers can not set headers on a WebSocket handshake so the bot comes from the "botId" query parameter and the
+ * origin from the Origin header the browser sets. Other clients can send X-Bot-Id and X-Customer-Origin like they do
+ * for POST /api/chats.
+ */
+public class ChatHandshakeInterceptor implements HandshakeInterceptor {
+
+    public static final String UNIQUE_BOT_ID = "uniqueBotId";
+    // the resumeToken of an earlier reply, see ChatSessionStateService
+    public static final String SESSION_TOKEN = "sessionToken";
+
+    private final ChatNLPService chatNLPService;
+
+    public ChatHandshakeInterceptor(ChatNLPService chatNLPService) {
+        this.chatNLPService = chatNLPService;
+    }
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler,
+                                   Map<String, Object> attributes) {
+        Map<String, String> queryParams = UriComponentsBuilder.fromUri(request.getURI()).build()
+                .getQueryParams().toSingleValueMap();
+        String xBotId = StringUtils.defaultIfBlank(request.getHeaders().getFirst("X-Bot-Id"),
+                queryParams.get("botId"));
+        String customerOrigin = StringUtils.defaultIfBlank(request.getHeaders().getFirst("X-Customer-Origin"),
+                request.getHeaders().getOrigin());
+
+        if (!chatNLPService.isValidBotAccess(xBotId, customerOrigin)) {
+            response.setStatusCode(HttpStatus.BAD_REQUEST);
+            return false;
+        }
+        attributes.put(UNIQUE_BOT_ID, xBotId);
+        // to pick up a conversation that was started over HTTP or on another connection
+        if (StringUtils.isNotBlank(queryParams.get(SESSION_TOKEN))) {
+            attributes.put(SESSION_TOKEN, queryParams.get(SESSION_TOKEN));
+        }
+        return true;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler,
+                               Exception exception) {
+        // nothing to do
+    }
+}
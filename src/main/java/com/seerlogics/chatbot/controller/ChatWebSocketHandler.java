@@ -0,0 +1,233 @@
+package com.seerlogics.chatbot.controller;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.seerlogics.chatbot.exception.ChatOverloadedException;
+import com.seerlogics.chatbot.model.ChatData;
+import com.seerlogics.chatbot.noggin.ChatSession;
+import com.seerlogics.chatbot.noggin.StateMachinePool;
+import com.seerlogics.chatbot.service.ChatNLPService;
+import com.seerlogics.chatbot.service.ChatRateLimiter;
+import com.seerlogics.chatbot.service.ChatSessionStateService;
+import com.seerlogics.chatbot.service.NlpExecutor;
+import com.seerlogics.chatbot.view.ChatResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chat over a WebSocket at /api/chats/ws. The bot and the origin were checked by the {@link ChatHandshakeInterceptor}
+ * so a message is only the ChatData JSON that would be POSTed to /api/chats and the reply is the same ChatResponse
+ * JSON that endpoint returns.
+ * <p>
+ * The ChatSession lives as long as the connection. Its messages run on the {@link NlpExecutor} one after the other,
+ * in the order they arrived. A message that the {@link ChatRateLimiter} turns away gets {"rateLimited":true,...}
+ * back and one that finds the NLP queue full gets {"overloaded":true,...}. A message that is not ChatData JSON gets
+ * {"error":true,"invalidMessage":true} in its turn and the connection stays open. A client that sends more than
+ * seerchat.websocket.maxInFlight messages without waiting for their replies is disconnected.
+ * <p>
+ * The session state is saved after every message so the chat can go on over HTTP or on another node if the
+ * connection drops, with the resumeToken of the last reply.
+ */
+public class ChatWebSocketHandler extends TextWebSocketHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChatWebSocketHandler.class);
+
+    private static final String CONNECTION = "chatConnection";
+
+    private static final int SEND_TIME_LIMIT_MS = 10000;
+    private static final int SEND_BUFFER_SIZE_LIMIT = 512 * 1024;
+
+    private final ChatNLPService chatNLPService;
+
+    private final ChatSessionStateService chatSessionStateService;
+
+    private final StateMachinePool stateMachinePool;
+
+    private final NlpExecutor nlpExecutor;
+
+    private final ChatRateLimiter chatRateLimiter;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+
+    private final Counter messagesCounter;
+
+    private final Counter tooManyInFlightCounter;
+
+    // messages of one connection received and not replied to yet
+    private final int maxInFlight;
+
+    public ChatWebSocketHandler(ChatNLPService chatNLPService, ChatSessionStateService chatSessionStateService,
+                                StateMachinePool stateMachinePool, NlpExecutor nlpExecutor,
+                                ChatRateLimiter chatRateLimiter, MeterRegistry meterRegistry, int maxInFlight) {
+        this.chatNLPService = chatNLPService;
+        this.chatSessionStateService = chatSessionStateService;
+        this.stateMachinePool = stateMachinePool;
+        this.nlpExecutor = nlpExecutor;
+        this.chatRateLimiter = chatRateLimiter;
+        this.messagesCounter = meterRegistry.counter("seerchat.websocket.messages");
+        this.tooManyInFlightCounter = meterRegistry.counter("seerchat.websocket.tooManyInFlight");
+        this.maxInFlight = maxInFlight;
+        meterRegistry.gauge("seerchat.websocket.connections", openConnections);
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        String uniqueBotId = (String) session.getAttributes().get(ChatHandshakeInterceptor.UNIQUE_BOT_ID);
+        String sessionToken = (String) session.getAttributes().get(ChatHandshakeInterceptor.SESSION_TOKEN);
+
+        ChatSession chatSession = new ChatSession(stateMachinePool);
+        chatSessionStateService.resume(chatSession, sessionToken, uniqueBotId);
+        if (chatSession.getCurrentSessionId() == null) {
+            chatSession.setAuthCode(uniqueBotId);
+            chatSession.setCurrentSessionId(session.getId());
+        }
+        // replies can be sent from the NLP threads while the container is still writing the previous one
+        session.getAttributes().put(CONNECTION, new Connection(chatSession,
+                new ConcurrentWebSocketSessionDecorator(session, SEND_TIME_LIMIT_MS, SEND_BUFFER_SIZE_LIMIT)));
+        openConnections.incrementAndGet();
+        LOGGER.debug("Chat connection {} opened for bot {} , chat session {}", session.getId(), uniqueBotId,
+                chatSession.getCurrentSessionId());
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws IOException {
+        Connection connection = (Connection) session.getAttributes().get(CONNECTION);
+        messagesCounter.increment();
+        if (connection.inFlight.incrementAndGet() > maxInFlight) {
+            // the replies of a connection are chained, without a limit a client that does not read them would queue
+            // chats and memory without end
+            tooManyInFlightCounter.increment();
+            LOGGER.warn("Closing chat connection {}, more than {} messages wait for a reply", session.getId(),
+                    maxInFlight);
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("Too many messages waiting for a reply"));
+            return;
+        }
+        long waitNanos = chatRateLimiter.tryAcquire(connection.chatSession.getAuthCode(), session.getId());
+        if (waitNanos > 0) {
+            connection.inFlight.decrementAndGet();
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("rateLimited", true);
+            errorResponse.put("retryAfterSeconds", Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos)));
+            send(connection, errorResponse);
+            return;
+        }
+        ChatData incomingChatData = read(connection, message);
+        // a message can start or move a conversation that the next message depends on, keep them in order
+        connection.lastReply = connection.lastReply
+                .handle((previous, previousError) -> null)
+                .thenCompose(ignored -> incomingChatData != null
+                        ? nlpExecutor.submit(() -> (Object) reply(connection, incomingChatData))
+                        : CompletableFuture.completedFuture(invalidMessageResponse()))
+                .thenAccept(payload -> send(connection, payload))
+                .exceptionally(e -> {
+                    sendError(connection, e instanceof CompletionException ? e.getCause() : e);
+                    return null;
+                })
+                .whenComplete((ignored, e) -> connection.inFlight.decrementAndGet());
+    }
+
+    /**
+     * @return null when the message is not ChatData JSON
+     */
+    private ChatData read(Connection connection, TextMessage message) {
+        try {
+            return objectMapper.readValue(message.getPayload(), ChatData.class);
+        } catch (IOException e) {
+            LOGGER.debug("Invalid message on chat connection " + connection.session.getId(), e);
+            return null;
+        }
+    }
+
+    private static Object invalidMessageResponse() {
+        Map<String, Object> errorResponse = new HashMap<>();
+        errorResponse.put("error", true);
+        errorResponse.put("invalidMessage", true);
+        return errorResponse;
+    }
+
+    private ChatResponse reply(Connection connection, ChatData incomingChatData) {
+        ChatSession chatSession = connection.chatSession;
+        // the bot is the one of the handshake, not whatever the message says
+        incomingChatData.setAuthCode(chatSession.getAuthCode());
+        ChatData chatResponse;
+        if ("Initiate".equals(incomingChatData.getMessage())) {
+            chatResponse = chatNLPService.generateInitiateChatResponse(incomingChatData, chatSession);
+        } else {
+            chatResponse = chatNLPService.generateChatBotResponse(incomingChatData, chatSession);
+        }
+        chatResponse.setCurrentSessionId(chatSession.getCurrentSessionId());
+        chatResponse.setChatSessionId(chatSession.getCurrentSessionId());
+        chatSessionStateService.save(chatSession);
+        ChatResponse reply = ChatResponse.from(chatResponse);
+        reply.setResumeToken(chatSessionStateService.resumeToken(chatSession));
+        return reply;
+    }
+
+    private void send(Connection connection, Object payload) {
+        try {
+            connection.session.sendMessage(new TextMessage(objectMapper.writeValueAsString(payload)));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Unable to send to chat connection " + connection.session.getId(), e);
+        }
+    }
+
+    private void sendError(Connection connection, Throwable e) {
+        Map<String, Object> errorResponse = new HashMap<>();
+        if (e instanceof ChatOverloadedException) {
+            errorResponse.put("overloaded", true);
+            errorResponse.put("retryAfterSeconds", ((ChatOverloadedException) e).getRetryAfterSeconds());
+        } else {
+            LOGGER.error("Chat on connection " + connection.session.getId() + " failed", e);
+            errorResponse.put("error", true);
+        }
+        send(connection, errorResponse);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        Connection connection = (Connection) session.getAttributes().remove(CONNECTION);
+        if (connection == null) {
+            return;
+        }
+        openConnections.decrementAndGet();
+        // after the messages still in flight, give the state machine of an unfinished conversation back. The
+        // conversation itself is in the session store and can be resumed.
+        connection.lastReply.whenComplete((ignored, error) -> {
+            if (connection.chatSession.isConversationActive()) {
+                connection.chatSession.endCurrentConversation();
+            }
+        });
+        LOGGER.debug("Chat connection {} closed with {}", session.getId(), status);
+    }
+
+    private static class Connection {
+        private final ChatSession chatSession;
+        private final WebSocketSession session;
+        // reply to the last message received. The container calls the handler for one connection at a time.
+        private volatile CompletableFuture<Void> lastReply = CompletableFuture.completedFuture(null);
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private Connection(ChatSession chatSession, WebSocketSession session) {
+            this.chatSession = chatSession;
+            this.session = session;
+        }
+    }
+}
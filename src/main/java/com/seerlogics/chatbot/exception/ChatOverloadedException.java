@@ -0,0 +1,19 @@
+package com.seerlogics.chatbot.exception;
+
+/**
+ * Thrown when there is no room left to process a chat. It is turned into a 503 with a Retry-After header so the
+ * client backs off instead of waiting on a request that would time out anyway.
+ */
+public class ChatOverloadedException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public ChatOverloadedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
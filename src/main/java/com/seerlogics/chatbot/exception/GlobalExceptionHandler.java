@@ -6,10 +6,12 @@ import com.seerlogics.commons.exception.UIDisplayException;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.MessageSource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
 
 import javax.servlet.http.HttpServletRequest;
 import java.util.HashMap;
@@ -33,6 +35,19 @@ public class GlobalExceptionHandler extends com.lingoace.common.GlobalExceptionH
         return new ResponseEntity<>(exceptionModel, HttpStatus.BAD_REQUEST);
     }
 
+    /**
+     * The chat was rejected, or timed out, because the NLP threads can not keep up.
+     */
+    @ExceptionHandler({ChatOverloadedException.class, AsyncRequestTimeoutException.class})
+    public ResponseEntity<Map<String, Boolean>> handleOverload(Exception ex) {
+        long retryAfterSeconds = ex instanceof ChatOverloadedException ?
+                ((ChatOverloadedException) ex).getRetryAfterSeconds() : 1;
+        Map<String, Boolean> errorResponse = new HashMap<>();
+        errorResponse.put("overloaded", true);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds)).body(errorResponse);
+    }
+
     // define the catch all here!!!
     @Override
     @ExceptionHandler(Exception.class)
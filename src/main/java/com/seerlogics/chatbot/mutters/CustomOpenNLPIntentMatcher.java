@@ -1,6 +1,11 @@
 package com.seerlogics.chatbot.mutters;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.rabidgremlin.mutters.core.Context;
 import com.rabidgremlin.mutters.core.Intent;
+import com.rabidgremlin.mutters.core.IntentMatch;
 import com.rabidgremlin.mutters.core.SlotMatcher;
 import com.rabidgremlin.mutters.core.Tokenizer;
 import com.rabidgremlin.mutters.core.ml.AbstractMachineLearningIntentMatcher;
@@ -11,9 +16,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.TreeMap;
 
 /**
  * Created by bkane on 9/2/18.
@@ -27,6 +36,30 @@ public class CustomOpenNLPIntentMatcher extends AbstractMachineLearningIntentMat
      */
     private DoccatModel model;
 
+    /**
+     * DocumentCategorizerME is not thread safe. Rather than creating a new one for every utterance they are borrowed
+     * from a pool bound to this bot's model, which goes away with the matcher.
+     */
+    private final NlpInstancePool<DocumentCategorizerME> intentCategorizers =
+            new NlpInstancePool<>(() -> new DocumentCategorizerME(model), NlpInstancePool.DEFAULT_MAX_IDLE);
+
+    /**
+     * Scores of the normalized tokens of an utterance. The scores depend only on the tokens and the model so they can
+     * be shared by all users of the bot. Slot matching, which can depend on the context, is still done per utterance
+     * by the matcher. Null when the cache is turned off.
+     */
+    private final Cache<String, SortedMap<Double, Set<String>>> scoreCache;
+
+    /**
+     * When the scoring of the current match started and ended on this thread. The superclass tokenizes right before
+     * scoring and matches the slots right after, so these split the match into its stages without wrapping the
+     * shared tokenizer and slot matcher. Shared by all the matchers since a thread runs one match at a time, so a
+     * thread never holds more than one of them whatever the number of bots.
+     */
+    private static final ThreadLocal<long[]> SCORE_STAMPS = ThreadLocal.withInitial(() -> new long[2]);
+
+    private volatile MatchStageListener matchStageListener;
+
     private HashMap<String, Intent> intentsCopy = new HashMap<>();
 
     /**
@@ -55,23 +88,134 @@ public class CustomOpenNLPIntentMatcher extends AbstractMachineLearningIntentMat
      */
     CustomOpenNLPIntentMatcher(byte[] categorizerModelBytes, Tokenizer tokenizer, SlotMatcher slotMatcher,
                                       float minMatchScore, float maybeMatchScore) {
+        this(new ByteArrayInputStream(categorizerModelBytes), tokenizer, slotMatcher, minMatchScore, maybeMatchScore,
+                0);
+    }
+
+    /**
+     * Constructor. Sets up the matcher to use the model read from the stream and specifies the minimum and maybe match
+     * score.
+     *
+     * @param categorizerModelStream Stream over the document categorizer model file to load.
+     * @param minMatchScore          The minimum match score for an intent match to be considered good.
+     * @param maybeMatchScore        The maybe match score. Use -1 to disable maybe matching.
+     * @param tokenizer              The tokenizer to use when tokenizing an utterance.
+     * @param slotMatcher            The slot matcher to use to extract slots from the utterance.
+     * @param scoreCacheSize         Max number of token sequences whose scores are cached. Use 0 to disable.
+     */
+    CustomOpenNLPIntentMatcher(InputStream categorizerModelStream, Tokenizer tokenizer, SlotMatcher slotMatcher,
+                               float minMatchScore, float maybeMatchScore, long scoreCacheSize) {
         super(tokenizer, slotMatcher, minMatchScore, maybeMatchScore);
 
+        this.scoreCache = scoreCacheSize > 0 ?
+                CacheBuilder.newBuilder().maximumSize(scoreCacheSize).recordStats().build() : null;
+
         try {
-            model = new DoccatModel(new ByteArrayInputStream(categorizerModelBytes));
+            model = new DoccatModel(categorizerModelStream);
         } catch (Exception e) {
             throw new IllegalArgumentException("Unable to load intent model", e);
         }
     }
 
+    /**
+     * @param matchStageListener told the time of each stage of every match, null to stop timing them
+     */
+    public void setMatchStageListener(MatchStageListener matchStageListener) {
+        this.matchStageListener = matchStageListener;
+    }
+
+    @Override
+    public IntentMatch match(String utterance, Context context, Set<String> expectedIntents,
+                             HashMap<String, Object> debugValues) {
+        MatchStageListener listener = this.matchStageListener;
+        if (listener == null) {
+            return super.match(utterance, context, expectedIntents, debugValues);
+        }
+        long[] stamps = SCORE_STAMPS.get();
+        long start = System.nanoTime();
+        // left before start when the utterance is not scored, e.g. it has no tokens
+        stamps[1] = start - 1;
+        IntentMatch intentMatch = super.match(utterance, context, expectedIntents, debugValues);
+        long end = System.nanoTime();
+        if (stamps[1] >= start) {
+            listener.matched(stamps[0] - start, stamps[1] - stamps[0], end - stamps[1], intentMatch != null);
+        }
+        return intentMatch;
+    }
+
+    /**
+     * Scores the tokens only once and builds the sorted score map from that outcome. This is the same map that
+     * DocumentCategorizerME.sortedScoreMap() returns but without evaluating the model a second time.
+     */
     @Override
     protected SortedMap<Double, Set<String>> generateSortedScoreMap(String[] utteranceTokens) {
-        DocumentCategorizerME intentCategorizer = new DocumentCategorizerME(model);
+        if (matchStageListener == null) {
+            return scoreTokensOrGetCached(utteranceTokens);
+        }
+        long[] stamps = SCORE_STAMPS.get();
+        stamps[0] = System.nanoTime();
+        SortedMap<Double, Set<String>> sortedBestMatches = scoreTokensOrGetCached(utteranceTokens);
+        stamps[1] = System.nanoTime();
+        return sortedBestMatches;
+    }
+
+    private SortedMap<Double, Set<String>> scoreTokensOrGetCached(String[] utteranceTokens) {
+        if (scoreCache == null) {
+            return scoreTokens(utteranceTokens);
+        }
+        String tokensKey = StringUtils.join(utteranceTokens, ' ');
+        SortedMap<Double, Set<String>> sortedBestMatches = scoreCache.getIfPresent(tokensKey);
+        if (sortedBestMatches == null) {
+            // two threads may score the same tokens at the same time, they get the same result.
+            sortedBestMatches = Collections.unmodifiableSortedMap(scoreTokens(utteranceTokens));
+            scoreCache.put(tokensKey, sortedBestMatches);
+        }
+        return sortedBestMatches;
+    }
+
+    private SortedMap<Double, Set<String>> scoreTokens(String[] utteranceTokens) {
+        DocumentCategorizerME intentCategorizer = intentCategorizers.borrow();
+        try {
+            return scoreTokens(intentCategorizer, utteranceTokens);
+        } finally {
+            intentCategorizers.giveBack(intentCategorizer);
+        }
+    }
+
+    private SortedMap<Double, Set<String>> scoreTokens(DocumentCategorizerME intentCategorizer,
+                                                       String[] utteranceTokens) {
         double[] outcome = intentCategorizer.categorize(utteranceTokens);
-        LOGGER.debug("Utterance = " + StringUtils.join(utteranceTokens));
-        LOGGER.debug("Best Category matched = " + intentCategorizer.getBestCategory(outcome));
-        SortedMap<Double, Set<String>> sortedBestMatches = intentCategorizer.sortedScoreMap(utteranceTokens);
-        LOGGER.debug("Sorted best matches = " + sortedBestMatches);
+        SortedMap<Double, Set<String>> sortedBestMatches = new TreeMap<>();
+        for (int i = 0, numberOfCategories = intentCategorizer.getNumberOfCategories(); i < numberOfCategories; i++) {
+            sortedBestMatches.computeIfAbsent(outcome[i], score -> new HashSet<>())
+                    .add(intentCategorizer.getCategory(i));
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Utterance = " + StringUtils.join(utteranceTokens));
+            LOGGER.debug("Best Category matched = " + intentCategorizer.getBestCategory(outcome));
+            LOGGER.debug("Sorted best matches = " + sortedBestMatches);
+        }
         return sortedBestMatches;
     }
+
+    /**
+     * Drops the pooled categorizers and the cached scores, called when the configuration of the bot is released.
+     */
+    public void release() {
+        intentCategorizers.clear();
+        if (scoreCache != null) {
+            scoreCache.invalidateAll();
+        }
+    }
+
+    /**
+     * @return the stats of the score cache, empty when the cache is turned off.
+     */
+    public CacheStats getScoreCacheStats() {
+        return scoreCache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : scoreCache.stats();
+    }
+
+    public long getScoreCacheSize() {
+        return scoreCache == null ? 0 : scoreCache.size();
+    }
 }
@@ -1,34 +1,27 @@
 package com.seerlogics.chatbot.mutters;
 
-import com.seerlogics.chatbot.noggin.StopWords;
-import com.seerlogics.chatbot.noggin.SynonymHelper;
+import com.seerlogics.chatbot.noggin.TokenNormalizer;
 import com.rabidgremlin.mutters.opennlp.intent.OpenNLPTokenizer;
 import opennlp.tools.tokenize.Tokenizer;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * Created by bkane on 5/15/18.
  */
 public class CustomOpenNLPTokenizer extends OpenNLPTokenizer {
-    private SynonymHelper synonymHelper;
+    private final TokenNormalizer tokenNormalizer;
+
     public CustomOpenNLPTokenizer(Tokenizer tokenizer) {
+        this(tokenizer, TokenNormalizer.getDefault());
+    }
+
+    public CustomOpenNLPTokenizer(Tokenizer tokenizer, TokenNormalizer tokenNormalizer) {
         super(tokenizer);
-        synonymHelper = new SynonymHelper();
+        this.tokenNormalizer = tokenNormalizer;
     }
 
     @Override
     public String[] tokenize(String text) {
-        String[] tokens = super.tokenize(text);
-        StopWords stopWords = StopWords.getInstance();
-        List<String> noStopWordsTokens = new ArrayList<>();
-        for (String token : tokens) {
-            if (!stopWords.isStopWord(token)) noStopWordsTokens.add(token.toLowerCase());
-        }
-        tokens = new String[noStopWordsTokens.size()];
-        noStopWordsTokens.toArray(tokens);
-        tokens = synonymHelper.replaceSynonyms(tokens);
-        return tokens;
+        // stop words, lower case and synonyms in one pass over the array the tokenizer gives us
+        return tokenNormalizer.normalize(super.tokenize(text));
     }
 }
@@ -0,0 +1,75 @@
+package com.seerlogics.chatbot.mutters;
+
+import com.google.common.collect.ImmutableMap;
+import com.rabidgremlin.mutters.core.IntentMatch;
+import com.seerlogics.commons.model.IntentUtterance;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the utterances of a bot's custom intents to the intent. Button clicks and canned phrases are exactly one
+ * of the trained utterances, so they are matched here without scoring the maxent model.
+ * <p>
+ * The key is the utterance lower cased with its whitespace collapsed, not the tokens the categorizer gets: those drop
+ * the stop words and replace the synonyms, so different utterances would share a key and be matched with full
+ * confidence. The same utterance trained for different intents is left out of the index and goes to the categorizer
+ * as before. The custom intents have no slots so no slot matching is skipped.
+ */
+public class ExactUtteranceIndex {
+
+    private final Map<String, Intent> utteranceToIntent;
+
+    /**
+     * @param intents     the custom intents added to the intent matcher, by name
+     * @param dbIntents   the intents of the bot along with their utterances
+     */
+    public ExactUtteranceIndex(Map<String, Intent> intents, List<com.seerlogics.commons.model.Intent> dbIntents) {
+        Map<String, Intent> index = new HashMap<>();
+        Set<String> ambiguousUtterances = new HashSet<>();
+        for (com.seerlogics.commons.model.Intent dbIntent : dbIntents) {
+            Intent intent = intents.get(dbIntent.getIntent());
+            if (intent == null || dbIntent.getUtterances() == null) {
+                // only the intents the matcher can return
+                continue;
+            }
+            for (IntentUtterance intentUtterance : dbIntent.getUtterances()) {
+                String key = normalize(intentUtterance.getUtterance());
+                if (key.isEmpty() || ambiguousUtterances.contains(key)) {
+                    continue;
+                }
+                Intent existing = index.putIfAbsent(key, intent);
+                if (existing != null && existing != intent) {
+                    index.remove(key);
+                    ambiguousUtterances.add(key);
+                }
+            }
+        }
+        this.utteranceToIntent = ImmutableMap.copyOf(index);
+    }
+
+    /**
+     * @param utterance what the user said
+     * @return a match with the intent the utterance was trained for or null if it is not one of the utterances.
+     */
+    public IntentMatch match(String utterance) {
+        String key = normalize(utterance);
+        Intent intent = key.isEmpty() ? null : utteranceToIntent.get(key);
+        return intent == null ? null : new IntentMatch(intent, null, utterance);
+    }
+
+    private static String normalize(String utterance) {
+        if (StringUtils.isBlank(utterance)) {
+            return "";
+        }
+        return StringUtils.normalizeSpace(utterance).toLowerCase();
+    }
+
+    public int size() {
+        return utteranceToIntent.size();
+    }
+}
@@ -1,9 +1,13 @@
 
 package com.seerlogics.chatbot.mutters;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class GlobalIntent {
     private String intentName;
     private String knotName;
+    private List<String> keywords = new ArrayList<>();
 
     public String getIntentName() {
         return intentName;
@@ -21,4 +25,12 @@ public class GlobalIntent {
         this.knotName = knotName;
     }
 
+    public List<String> getKeywords() {
+        return keywords;
+    }
+
+    public void setKeywords(List<String> keywords) {
+        this.keywords = keywords;
+    }
+
 }
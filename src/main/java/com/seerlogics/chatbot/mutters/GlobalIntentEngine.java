@@ -0,0 +1,125 @@
+package com.seerlogics.chatbot.mutters;
+
+import com.rabidgremlin.mutters.core.IntentMatch;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches the global intents that are defined in the globalIntents section of botConfig.json before the utterance
+ * goes to the intent model. The shipped botConfig.json has rules for greetings (Hi), thanks (ThankYou), goodbye
+ * (Goodbye) and help (Help). A rule is only used for a bot that has an intent of that name, so a bot without a
+ * ThankYou intent answers "thanks" through its model as before. The hits are counted per rule in
+ * seerchat.intent.globalRule.
+ * <p>
+ * A message matches a global intent when it is made up of nothing but the keywords of that intent, so "hi" and
+ * "hello hi!" are greetings but "hi, find events near me" is not. Keywords can be phrases like "thank you". The
+ * keywords of all the rules are compiled into one map of phrase to the rules it belongs to and the message is
+ * checked against all the rules in a single pass over its words. When more than one rule matches the one defined
+ * first wins.
+ */
+public class GlobalIntentEngine {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GlobalIntentEngine.class);
+
+    // one bit per rule in a long
+    private static final int MAX_RULES = Long.SIZE;
+
+    private static final String[] PUNCTUATION = new String[]{"!", "?", "'", "\"", ".", ","};
+    private static final String[] NO_PUNCTUATION = new String[]{"", "", "", "", "", ""};
+
+    // rule number -> intent of the rule
+    private final List<com.rabidgremlin.mutters.core.Intent> ruleIntents = new ArrayList<>();
+
+    // upper case keyword phrase -> bits of the rules it belongs to
+    private final Map<String, Long> phraseToRules = new HashMap<>();
+
+    private final long allRules;
+
+    private final int longestPhrase;
+
+    /**
+     * @param globalIntents the global intents of botConfig.json
+     * @param intents       the intents of the bot by upper case name. Rules for intents the bot does not have are
+     *                      skipped.
+     */
+    public GlobalIntentEngine(List<GlobalIntent> globalIntents, Map<String, com.rabidgremlin.mutters.core.Intent> intents) {
+        int longest = 0;
+        for (GlobalIntent globalIntent : globalIntents) {
+            com.rabidgremlin.mutters.core.Intent intent = intents.get(globalIntent.getIntentName().toUpperCase());
+            if (intent == null) {
+                LOGGER.debug("Bot has no intent {}, global intent rule skipped", globalIntent.getIntentName());
+                continue;
+            }
+            if (ruleIntents.size() == MAX_RULES) {
+                LOGGER.warn("Only {} global intents are supported, {} is skipped", MAX_RULES,
+                        globalIntent.getIntentName());
+                continue;
+            }
+            long ruleBit = 1L << ruleIntents.size();
+            ruleIntents.add(intent);
+            for (String keyword : globalIntent.getKeywords()) {
+                String[] words = toWords(keyword);
+                if (words.length == 0) {
+                    continue;
+                }
+                phraseToRules.merge(StringUtils.join(words, ' '), ruleBit, (rules, rule) -> rules | rule);
+                longest = Math.max(longest, words.length);
+            }
+        }
+        this.allRules = ruleIntents.size() == MAX_RULES ? -1L : (1L << ruleIntents.size()) - 1;
+        this.longestPhrase = longest;
+    }
+
+    /**
+     * @param message what the user said
+     * @return match of the first global intent whose keywords make up the whole message or null.
+     */
+    public IntentMatch match(String message) {
+        if (ruleIntents.isEmpty() || StringUtils.isBlank(message)) {
+            return null;
+        }
+        String[] words = toWords(message);
+        if (words.length == 0) {
+            return null;
+        }
+        // rulesUpTo[i] has the rules whose keywords make up exactly the first i words of the message
+        long[] rulesUpTo = new long[words.length + 1];
+        rulesUpTo[0] = allRules;
+        StringBuilder phrase = new StringBuilder(message.length());
+        for (int start = 0; start < words.length; start++) {
+            if (rulesUpTo[start] == 0) {
+                continue;
+            }
+            phrase.setLength(0);
+            for (int end = start; end < words.length && end - start < longestPhrase; end++) {
+                if (end > start) {
+                    phrase.append(' ');
+                }
+                phrase.append(words[end]);
+                Long rules = phraseToRules.get(phrase.toString());
+                if (rules != null) {
+                    rulesUpTo[end + 1] |= rulesUpTo[start] & rules;
+                }
+            }
+        }
+        long matchingRules = rulesUpTo[words.length];
+        if (matchingRules == 0) {
+            return null;
+        }
+        return new IntentMatch(ruleIntents.get(Long.numberOfTrailingZeros(matchingRules)), null, message);
+    }
+
+    private static String[] toWords(String text) {
+        return StringUtils.split(StringUtils.replaceEach(text.toUpperCase(), PUNCTUATION, NO_PUNCTUATION));
+    }
+
+    public int size() {
+        return ruleIntents.size();
+    }
+}
@@ -0,0 +1,111 @@
+package com.seerlogics.chatbot.mutters;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.seerlogics.chatbot.exception.ConversationException;
+import com.seerlogics.commons.model.IntentResponse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable index of intent id and intent name -> locale -> responses of all the intents of a bot. A matched intent
+ * is looked up by its id, so two intents with the same name never get each other's response, the intents the
+ * conversation refers to by name, like Initiate or a MayBe intent, by name. It is built once when the
+ * SeerBotConfiguration is loaded so that replying to a chat does not have to go to the bot admin DB. Since it lives
+ * in the configuration it is refreshed whenever the configuration is rebuilt.
+ */
+public class IntentResponseIndex {
+
+    private final Map<String, ImmutableListMultimap<String, String>> intentToResponses;
+
+    private final Map<Long, ImmutableListMultimap<String, String>> intentIdToResponses;
+
+    // intent names defined more than once for the bot
+    private final Set<String> duplicateIntents;
+
+    public IntentResponseIndex(List<com.seerlogics.commons.model.Intent> dbIntents) {
+        Map<String, ImmutableListMultimap<String, String>> responses = new HashMap<>();
+        Map<Long, ImmutableListMultimap<String, String>> responsesById = new HashMap<>();
+        Set<String> duplicates = new HashSet<>();
+        for (com.seerlogics.commons.model.Intent dbIntent : dbIntents) {
+            ImmutableListMultimap.Builder<String, String> localeToResponses = ImmutableListMultimap.builder();
+            for (IntentResponse intentResponse : dbIntent.getResponses()) {
+                localeToResponses.put(intentResponse.getLocale(), intentResponse.getResponse());
+            }
+            ImmutableListMultimap<String, String> intentResponses = localeToResponses.build();
+            if (dbIntent.getId() != null) {
+                responsesById.put(dbIntent.getId(), intentResponses);
+            }
+            if (responses.put(dbIntent.getIntent(), intentResponses) != null) {
+                duplicates.add(dbIntent.getIntent());
+            }
+        }
+        this.intentToResponses = ImmutableMap.copyOf(responses);
+        this.intentIdToResponses = ImmutableMap.copyOf(responsesById);
+        this.duplicateIntents = ImmutableSet.copyOf(duplicates);
+    }
+
+    public boolean containsIntent(String intentName) {
+        return intentToResponses.containsKey(intentName);
+    }
+
+    public boolean isDuplicateIntent(String intentName) {
+        return duplicateIntents.contains(intentName);
+    }
+
+    /**
+     * @param intentName name of the intent
+     * @param language   language the locale of the response should contain, like "en"
+     * @return the one response of the intent for the language or null if the intent has none.
+     */
+    public String getResponse(String intentName, String language) {
+        return getResponse(intentToResponses.get(intentName), language);
+    }
+
+    /**
+     * @param intentId DB id of the intent
+     * @param language language the locale of the response should contain, like "en"
+     * @return the one response of the intent for the language or null if the intent has none.
+     */
+    public String getResponse(Long intentId, String language) {
+        return getResponse(intentIdToResponses.get(intentId), language);
+    }
+
+    private static String getResponse(ImmutableListMultimap<String, String> localeToResponses, String language) {
+        if (localeToResponses == null) {
+            return null;
+        }
+        List<String> matchingResponses = new ArrayList<>(1);
+        for (Map.Entry<String, String> localeToResponse : localeToResponses.entries()) {
+            if (localeToResponse.getKey().contains(language)) {
+                matchingResponses.add(localeToResponse.getValue());
+            }
+        }
+        if (matchingResponses.size() > 1) {
+            throw new ConversationException("Multiple responses found...");
+        }
+        return matchingResponses.isEmpty() ? null : matchingResponses.get(0);
+    }
+
+    /**
+     * @param intentName name of the intent
+     * @return the first response of the intent in any locale or null if the intent has none.
+     */
+    public String getFirstResponse(String intentName) {
+        ImmutableListMultimap<String, String> localeToResponses = intentToResponses.get(intentName);
+        if (localeToResponses == null || localeToResponses.isEmpty()) {
+            return null;
+        }
+        return localeToResponses.values().iterator().next();
+    }
+
+    public int size() {
+        return intentToResponses.size();
+    }
+}
@@ -0,0 +1,16 @@
+package com.seerlogics.chatbot.mutters;
+
+/**
+ * Told how long each stage of a {@link CustomOpenNLPIntentMatcher} match took. It is called on the matching thread
+ * for every utterance scored by the intent model so it should not block or allocate.
+ */
+public interface MatchStageListener {
+
+    /**
+     * @param tokenizeNanos  time to tokenize the utterance
+     * @param scoreNanos     time to score the tokens with the model, or to find them in the score cache
+     * @param slotMatchNanos time to pick the best intent and match its slots
+     * @param matched        true if an intent matched
+     */
+    void matched(long tokenizeNanos, long scoreNanos, long slotMatchNanos, boolean matched);
+}
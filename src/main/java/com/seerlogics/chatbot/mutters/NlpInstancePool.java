@@ -0,0 +1,49 @@
+package com.seerlogics.chatbot.mutters;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of the OpenNLP classes that are not thread safe, like TokenizerME and DocumentCategorizerME, built on
+ * top of a model that is. Unlike a ThreadLocal the instances are only referenced by the pool, so they and their model
+ * go away with the bot that owns the pool instead of staying in the ThreadLocalMap of every thread that used them.
+ * <p>
+ * A thread borrows an instance for one call and gives it back. When the pool is empty a new instance is built, and
+ * one given back to a full pool is dropped, so there are never more than maxIdle idle instances.
+ */
+public final class NlpInstancePool<T> {
+
+    // enough for the NLP threads of a node (seerchat.nlpExecutor.threadsPerCore), more threads than that only build a
+    // few extra instances
+    public static final int DEFAULT_MAX_IDLE = Runtime.getRuntime().availableProcessors() * 4;
+
+    private final Supplier<T> factory;
+
+    private final BlockingQueue<T> idle;
+
+    public NlpInstancePool(Supplier<T> factory, int maxIdle) {
+        this.factory = factory;
+        this.idle = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    public T borrow() {
+        T instance = idle.poll();
+        return instance != null ? instance : factory.get();
+    }
+
+    public void giveBack(T instance) {
+        idle.offer(instance);
+    }
+
+    /**
+     * Drops the idle instances, called when the owner of the pool is released.
+     */
+    public void clear() {
+        idle.clear();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+}
@@ -0,0 +1,281 @@
+package com.seerlogics.chatbot.mutters;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.lingoace.common.NLPProcessingException;
+import com.seerlogics.chatbot.exception.ConversationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.info.Info;
+import org.springframework.boot.actuate.info.InfoContributor;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Process wide registry for the immutable NLP models (sentence, tokenizer, NER) that are the same for every bot.
+ * Every SeerBotConfiguration acquires the models it needs from here instead of parsing its own copy. Models are
+ * keyed by "classpath path@sha256 of the content" and reference counted; when the last configuration using a
+ * model releases it, the model is dropped from the registry and becomes eligible for GC.
+ * <p>
+ * The footprint reported is the size of the serialized model artifact. The in-heap size of an OpenNLP model is
+ * roughly proportional to that, so it is good enough to see how much the registry is holding.
+ */
+@Component
+public class NlpModelRegistry implements InfoContributor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NlpModelRegistry.class);
+
+    public static final String BOT_CONFIG = "bot/config/botConfig.json";
+
+    /**
+     * Loads a model from the raw bytes of the model artifact.
+     */
+    public interface ModelLoader<T> {
+        T load(InputStream inputStream) throws IOException;
+    }
+
+    // guards the entries. Not a monitor since models are loaded while it is held, which would pin a virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    // classpath resources do not change for the life of the class loader so the digest is computed only once.
+    private final Map<String, ResourceDigest> resourceDigests = new ConcurrentHashMap<>();
+
+    private volatile BotConfiguration botConfiguration;
+
+    /**
+     * The bot/config/botConfig.json is the same for all the bots. Parse it once and share it.
+     *
+     * @return the parsed bot configuration
+     */
+    public BotConfiguration getBotConfiguration() {
+        if (botConfiguration == null) {
+            lock.lock();
+            try {
+                if (botConfiguration == null) {
+                    ObjectMapper mapper = new ObjectMapper();
+                    URL botConfigURL = Thread.currentThread().getContextClassLoader().getResource(BOT_CONFIG);
+                    try {
+                        BotConfiguration parsedConfiguration = mapper.readValue(botConfigURL, BotConfiguration.class);
+                        LOGGER.debug("The configuration is = {} ", mapper.writeValueAsString(parsedConfiguration));
+                        botConfiguration = parsedConfiguration;
+                    } catch (IOException e) {
+                        throw new ConversationException("Error reading bot configuration", e,
+                                ConversationException.Type.ERROR_READING_BOT_CONFIG);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return botConfiguration;
+    }
+
+    /**
+     * Returns the registry key for the classpath resource which is its path plus the sha256 of its content.
+     *
+     * @param resourcePath classpath path of the model
+     * @return key for the model
+     */
+    public String keyFor(String resourcePath) {
+        return digestOf(resourcePath).key;
+    }
+
+    /**
+     * @param resourcePath classpath path of the model
+     * @return size in bytes of the model artifact
+     */
+    public long footprintOf(String resourcePath) {
+        return digestOf(resourcePath).size;
+    }
+
+    private ResourceDigest digestOf(String resourcePath) {
+        return resourceDigests.computeIfAbsent(resourcePath, path -> {
+            byte[] resourceBytes = readResource(path);
+            return new ResourceDigest(path + "@" + Hashing.sha256().hashBytes(resourceBytes).toString(),
+                    resourceBytes.length);
+        });
+    }
+
+    /**
+     * Gets the shared instance of the model at the classpath path. The model is loaded the first time it is asked
+     * for. Each call must be paired with a {@link #release(String)} of the returned key.
+     *
+     * @param resourcePath classpath path of the model
+     * @param loader       creates the model from the artifact bytes
+     * @return the key the model was registered with
+     */
+    public String acquireModel(String resourcePath, ModelLoader<?> loader) {
+        lock.lock();
+        try {
+            String key = keyFor(resourcePath);
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                byte[] modelBytes = readResource(resourcePath);
+                try {
+                    long start = System.currentTimeMillis();
+                    entry = new Entry(loader.load(new ByteArrayInputStream(modelBytes)), modelBytes.length);
+                    LOGGER.info("Loaded shared model {} ({} bytes) in {} ms", key, modelBytes.length,
+                            System.currentTimeMillis() - start);
+                } catch (IOException e) {
+                    throw new NLPProcessingException(e);
+                }
+                entries.put(key, entry);
+            }
+            entry.refCount++;
+            return key;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets a shared component that is derived from one or more models, for example a slot matcher built on top of
+     * the NER models. The key must contain the keys of all the models the component is built from so that a change
+     * in any of them results in a new component.
+     *
+     * @param key            key of the component
+     * @param footprintBytes size of the models the component holds
+     * @param factory        creates the component
+     * @return the key the component was registered with
+     */
+    public String acquireComponent(String key, long footprintBytes, Callable<?> factory) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                try {
+                    entry = new Entry(factory.call(), footprintBytes);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new NLPProcessingException(e);
+                }
+                entries.put(key, entry);
+                LOGGER.info("Created shared component {} ({} bytes)", key, footprintBytes);
+            }
+            entry.refCount++;
+            return key;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                throw new NLPProcessingException("Model '" + key + "' is not loaded!");
+            }
+            return (T) entry.model;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(String key) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return;
+            }
+            if (--entry.refCount <= 0) {
+                entries.remove(key);
+                LOGGER.info("Released shared model {} ({} bytes)", key, entry.footprintBytes);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getFootprintBytes() {
+        lock.lock();
+        try {
+            long footprint = 0;
+            for (Entry entry : entries.values()) {
+                footprint += entry.footprintBytes;
+            }
+            return footprint;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return key -> (refCount, footprintBytes) of all the models currently loaded.
+     */
+    public Map<String, Map<String, Long>> getLoadedModels() {
+        lock.lock();
+        try {
+            Map<String, Map<String, Long>> loadedModels = new LinkedHashMap<>();
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Map<String, Long> details = new LinkedHashMap<>();
+                details.put("refCount", (long) entry.getValue().refCount);
+                details.put("footprintBytes", entry.getValue().footprintBytes);
+                loadedModels.put(entry.getKey(), details);
+            }
+            return loadedModels;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Exposes the registry under actuator/info.
+     */
+    @Override
+    public void contribute(Info.Builder builder) {
+        Map<String, Object> details = new LinkedHashMap<>();
+        details.put("footprintBytes", getFootprintBytes());
+        details.put("models", getLoadedModels());
+        builder.withDetail("nlpModelRegistry", details);
+    }
+
+    private byte[] readResource(String resourcePath) {
+        try (InputStream inputStream =
+                     Thread.currentThread().getContextClassLoader().getResourceAsStream(resourcePath)) {
+            if (inputStream == null) {
+                throw new NLPProcessingException("'" + resourcePath + "' not found!");
+            }
+            return ByteStreams.toByteArray(inputStream);
+        } catch (IOException e) {
+            throw new NLPProcessingException(e);
+        }
+    }
+
+    private static class Entry {
+        private final Object model;
+        private final long footprintBytes;
+        private int refCount;
+
+        private Entry(Object model, long footprintBytes) {
+            this.model = model;
+            this.footprintBytes = footprintBytes;
+        }
+    }
+
+    private static class ResourceDigest {
+        private final String key;
+        private final long size;
+
+        private ResourceDigest(String key, long size) {
+            this.key = key;
+            this.size = size;
+        }
+    }
+}
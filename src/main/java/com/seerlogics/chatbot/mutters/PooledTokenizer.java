@@ -0,0 +1,40 @@
+package com.seerlogics.chatbot.mutters;
+
+import opennlp.tools.tokenize.Tokenizer;
+import opennlp.tools.tokenize.TokenizerME;
+import opennlp.tools.tokenize.TokenizerModel;
+import opennlp.tools.util.Span;
+
+/**
+ * TokenizerME is not thread safe but the TokenizerModel is. This borrows a TokenizerME from a pool on top of a
+ * shared TokenizerModel for each call so that a single tokenizer can be shared by all the bots and requests.
+ */
+public class PooledTokenizer implements Tokenizer {
+
+    private final NlpInstancePool<TokenizerME> tokenizers;
+
+    public PooledTokenizer(TokenizerModel tokenizerModel) {
+        this.tokenizers = new NlpInstancePool<>(() -> new TokenizerME(tokenizerModel),
+                NlpInstancePool.DEFAULT_MAX_IDLE);
+    }
+
+    @Override
+    public String[] tokenize(String s) {
+        TokenizerME tokenizer = tokenizers.borrow();
+        try {
+            return tokenizer.tokenize(s);
+        } finally {
+            tokenizers.giveBack(tokenizer);
+        }
+    }
+
+    @Override
+    public Span[] tokenizePos(String s) {
+        TokenizerME tokenizer = tokenizers.borrow();
+        try {
+            return tokenizer.tokenizePos(s);
+        } finally {
+            tokenizers.giveBack(tokenizer);
+        }
+    }
+}
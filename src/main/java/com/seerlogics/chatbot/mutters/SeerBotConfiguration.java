@@ -1,11 +1,12 @@
 package com.seerlogics.chatbot.mutters;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.CacheStats;
 import com.lingoace.common.NLPProcessingException;
 import com.rabidgremlin.mutters.core.IntentMatcher;
 import com.rabidgremlin.mutters.opennlp.intent.OpenNLPTokenizer;
 import com.rabidgremlin.mutters.opennlp.ner.OpenNLPSlotMatcher;
 import com.seerlogics.chatbot.exception.ConversationException;
+import com.seerlogics.commons.dto.SearchIntents;
 import com.seerlogics.commons.model.Bot;
 import com.seerlogics.commons.model.LaunchInfo;
 import com.seerlogics.commons.model.TrainedModel;
@@ -14,16 +15,16 @@ import com.seerlogics.commons.repository.IntentRepository;
 import com.seerlogics.commons.repository.LaunchInfoRepository;
 import opennlp.tools.sentdetect.SentenceDetectorME;
 import opennlp.tools.sentdetect.SentenceModel;
-import opennlp.tools.tokenize.Tokenizer;
-import opennlp.tools.tokenize.TokenizerME;
 import opennlp.tools.tokenize.TokenizerModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by bkane on 5/10/18.
@@ -32,7 +33,7 @@ public class SeerBotConfiguration {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SeerBotConfiguration.class);
 
-    private IntentMatcher intentMatcher;
+    private CustomOpenNLPIntentMatcher intentMatcher;
 
     private SentenceDetectorME sentenceDetectorME;
 
@@ -42,6 +43,21 @@ public class SeerBotConfiguration {
 
     private List<GlobalIntent> globalIntents = new ArrayList<>();
 
+    private NlpModelRegistry nlpModelRegistry;
+
+    private IntentResponseIndex intentResponseIndex;
+
+    private ExactUtteranceIndex exactUtteranceIndex;
+
+    private GlobalIntentEngine globalIntentEngine;
+
+    private String ownerUserName;
+
+    // keys of the shared models acquired from the NlpModelRegistry
+    private final List<String> sharedModelKeys = new ArrayList<>();
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
     public LaunchInfo getLaunchInfo() {
         return this.launchInfo;
     }
@@ -52,93 +68,96 @@ public class SeerBotConfiguration {
 
     public SeerBotConfiguration(String uniqueBotId,
                                 IntentRepository intentRepository, LaunchInfoRepository launchInfoRepository,
-                                BotRepository botRepository) {
+                                BotRepository botRepository, NlpModelRegistry nlpModelRegistry,
+                                TrainedModelStore trainedModelStore, long intentScoreCacheSize) {
 
         this.launchInfo = launchInfoRepository.findByUniqueBotId(uniqueBotId);
         if (this.launchInfo == null) {
             throw new ConversationException("Launch info not found", ConversationException.Type.LAUNCH_INFO_NOT_FOUND);
         }
         this.targetBot = botRepository.getOne(this.launchInfo.getTargetBotId());
+        this.nlpModelRegistry = nlpModelRegistry;
 
-        ObjectMapper mapper = new ObjectMapper();
-        URL botConfigURL = Thread.currentThread().getContextClassLoader().getResource("bot/config/botConfig.json");
-        BotConfiguration botJsonConfiguration = null;
+        // botConfig.json is the same for all the bots so the registry parses it only once.
+        BotConfiguration botJsonConfiguration = nlpModelRegistry.getBotConfiguration();
 
         try {
-            botJsonConfiguration = mapper.readValue(botConfigURL, BotConfiguration.class);
-            LOGGER.debug("The configuration is = {} ", mapper.writeValueAsString(botJsonConfiguration));
-        } catch (IOException e) {
-            throw new ConversationException("Error reading bot configuration", e,
-                    ConversationException.Type.ERROR_READING_BOT_CONFIG);
-        }
-
-        //Loading sentence detector model
-        String sentModel = botJsonConfiguration.getSentenceDetectModel();
-        if (sentModel != null) {
-            try {
+            //Loading sentence detector model
+            String sentModel = botJsonConfiguration.getSentenceDetectModel();
+            if (sentModel != null) {
                 // https://www.tutorialspoint.com/opennlp/opennlp_sentence_detection.htm
-                URL enSentenceDetectModelUrl = Thread.currentThread().getContextClassLoader().
-                        getResource(sentModel);
-                if (enSentenceDetectModelUrl != null) {
-                    SentenceModel sentenceDetectModel = new SentenceModel(enSentenceDetectModelUrl);
-                    //Instantiating the SentenceDetectorME class
-                    sentenceDetectorME = new SentenceDetectorME(sentenceDetectModel);
-                } else {
-                    throw new NLPProcessingException("'nlp/models/standard/en-sent.bin' not found!");
-                }
-            } catch (IOException e) {
-                throw new NLPProcessingException(e);
+                String sentenceModelKey = this.acquireModel(sentModel, SentenceModel::new);
+                SentenceModel sentenceDetectModel = nlpModelRegistry.get(sentenceModelKey);
+                //Instantiating the SentenceDetectorME class
+                sentenceDetectorME = new SentenceDetectorME(sentenceDetectModel);
             }
-        }
 
-        this.loadSupportingModelsAndUtils(botJsonConfiguration, intentRepository);
+            this.loadSupportingModelsAndUtils(botJsonConfiguration, intentRepository, trainedModelStore,
+                    intentScoreCacheSize);
+        } catch (RuntimeException e) {
+            // do not leak the references acquired so far
+            this.release();
+            throw e;
+        }
     }
 
     private void loadSupportingModelsAndUtils(BotConfiguration botJsonConfiguration,
-                                                                        IntentRepository intentRepository) {
+                                              IntentRepository intentRepository,
+                                              TrainedModelStore trainedModelStore, long intentScoreCacheSize) {
         LOGGER.debug("\n*********Set up tokenizer\n");
 
-        OpenNLPTokenizer openNLPTokenizer = null;
         String tokenizerModel = botJsonConfiguration.getTokenizerModel();
-        if (tokenizerModel != null) {
-
-            // model was built with OpenNLP whitespace tokenizer
-            URL enTokenModelUrl = Thread.currentThread().getContextClassLoader().getResource(tokenizerModel);
-            TokenizerModel model = null;
-            try {
-                if (enTokenModelUrl != null) {
-                    model = new TokenizerModel(enTokenModelUrl);
-                } else {
-                    throw new NLPProcessingException("'" + tokenizerModel + "' not found!");
-                }
-            } catch (IOException e) {
-                throw new NLPProcessingException(e);
-            }
-            Tokenizer tokenBasedTokenizer = new TokenizerME(model);
-            openNLPTokenizer = new CustomOpenNLPTokenizer(tokenBasedTokenizer);
-        } else {
+        if (tokenizerModel == null) {
             throw new NLPProcessingException("Config Error: No Tokenizer model defined");
         }
 
+        // model was built with OpenNLP whitespace tokenizer
+        String tokenizerModelKey = this.acquireModel(tokenizerModel, TokenizerModel::new);
+        String tokenizerKey = this.acquireComponent("tokenizer[" + tokenizerModelKey + "]", 0, () -> {
+            TokenizerModel model = nlpModelRegistry.get(tokenizerModelKey);
+            return new CustomOpenNLPTokenizer(new PooledTokenizer(model));
+        });
+        OpenNLPTokenizer openNLPTokenizer = nlpModelRegistry.get(tokenizerKey);
+
         LOGGER.debug("\n*********Set getSlotMatcherModels\n");
 
-        // use OpenNLP NER for slot matching
+        /**
+         * use OpenNLP NER for slot matching. The NER models are the same for all the bots so the slot matcher built
+         * on top of them is shared as well.
+         */
         List<SlotMatcherModel> slotMatcherModels = botJsonConfiguration.getSlotMatcherModels();
-        OpenNLPSlotMatcher slotMatcher = new OpenNLPSlotMatcher(openNLPTokenizer);
+        StringBuilder slotMatcherKey = new StringBuilder("slotMatcher[").append(tokenizerKey);
+        long slotMatcherFootprint = 0;
         for (SlotMatcherModel slotMatcherModel : slotMatcherModels) {
-            slotMatcher.addSlotModel(slotMatcherModel.getType(), slotMatcherModel.getModel());
+            slotMatcherKey.append(",").append(slotMatcherModel.getType()).append("=")
+                    .append(nlpModelRegistry.keyFor(slotMatcherModel.getModel()));
+            slotMatcherFootprint += nlpModelRegistry.footprintOf(slotMatcherModel.getModel());
         }
+        slotMatcherKey.append("]");
+        String sharedSlotMatcherKey = this.acquireComponent(slotMatcherKey.toString(), slotMatcherFootprint, () -> {
+            OpenNLPSlotMatcher sharedSlotMatcher = new OpenNLPSlotMatcher(openNLPTokenizer);
+            for (SlotMatcherModel slotMatcherModel : slotMatcherModels) {
+                sharedSlotMatcher.addSlotModel(slotMatcherModel.getType(), slotMatcherModel.getModel());
+            }
+            return sharedSlotMatcher;
+        });
+        OpenNLPSlotMatcher slotMatcher = nlpModelRegistry.get(sharedSlotMatcherKey);
 
         /**
          * create intent matcher
          * I have created the matcher with min score of 0.20f so that we can get some kind of match with intents when
          * the conversation is close to what we think it is.
+         * The trained model is read from the local model store so the blob is only fetched from the DB when the
+         * bot is launched with a different trained model.
+         * The scores of repeated utterances are cached in the matcher. Since the matcher belongs to this
+         * configuration the cache goes away with it when the configuration or the trained model is replaced.
          */
         TrainedModel trainedModel = this.launchInfo.getTrainedModel();
         CustomOpenNLPIntentMatcher matcher =
-                new CustomOpenNLPIntentMatcher(trainedModel.getFile(), openNLPTokenizer,
+                new CustomOpenNLPIntentMatcher(trainedModelStore.openModel(trainedModel), openNLPTokenizer,
                         slotMatcher, Float.parseFloat(botJsonConfiguration.getNlpIntentMatcher().getMinMatchScore()),
-                        Float.parseFloat(botJsonConfiguration.getNlpIntentMatcher().getMaybeMatchScore()));
+                        Float.parseFloat(botJsonConfiguration.getNlpIntentMatcher().getMaybeMatchScore()),
+                        intentScoreCacheSize);
 
         LOGGER.debug("\n*********get customIntentUtterances\n");
 
@@ -146,17 +165,64 @@ public class SeerBotConfiguration {
                 intentRepository.findIntentsByCodeTypeAndOwnerId(this.targetBot.getCategory().getCode(),
                         com.seerlogics.commons.model.Intent.INTENT_TYPE.CUSTOM.name(),
                         this.targetBot.getOwner().getId());
+        Map<String, Intent> customIntents = new HashMap<>();
         for (com.seerlogics.commons.model.Intent customIntentUtterance : customIntentUtterances) {
             Intent currentIntent = new Intent(customIntentUtterance.getIntent(), customIntentUtterance);
             matcher.addIntent(currentIntent);
             matcher.addIntentCopy(currentIntent);
+            customIntents.put(currentIntent.getName(), currentIntent);
         }
 
+        this.globalIntents = botJsonConfiguration.getGlobalIntents();
+        this.globalIntentEngine = new GlobalIntentEngine(this.globalIntents, matcher.getIntentsCopy());
+
+        LOGGER.debug("\n*********build intent response and utterance index\n");
+
+        // all the intents of the bot, not just the custom ones, since the MayBe and DoNotUnderstand replies need them.
+        SearchIntents searchIntents = new SearchIntents();
+        searchIntents.setCategory(this.targetBot.getCategory());
+        searchIntents.setOwnerAccount(this.targetBot.getOwner());
+        List<com.seerlogics.commons.model.Intent> allIntents = intentRepository.findIntentsAndUtterances(searchIntents);
+        this.intentResponseIndex = new IntentResponseIndex(allIntents);
+        this.exactUtteranceIndex = new ExactUtteranceIndex(customIntents, allIntents);
+        this.ownerUserName = this.targetBot.getOwner().getUserName();
+
         LOGGER.debug("\n*********Done******\n");
 
         this.intentMatcher = matcher;
     }
 
+    private String acquireModel(String resourcePath, NlpModelRegistry.ModelLoader<?> loader) {
+        String key = nlpModelRegistry.acquireModel(resourcePath, loader);
+        this.sharedModelKeys.add(key);
+        return key;
+    }
+
+    private String acquireComponent(String key, long footprintBytes, Callable<?> factory) {
+        String acquiredKey = nlpModelRegistry.acquireComponent(key, footprintBytes, factory);
+        this.sharedModelKeys.add(acquiredKey);
+        return acquiredKey;
+    }
+
+    /**
+     * Gives back the shared models to the registry. This is called when the configuration is evicted from the cache.
+     * Requests that are still holding on to this configuration are not affected since the models are only dropped
+     * from the registry, never closed.
+     */
+    public void release() {
+        // only the first call gives the models back, without holding a monitor while waiting on the registry lock
+        if (!released.compareAndSet(false, true)) {
+            return;
+        }
+        for (String sharedModelKey : this.sharedModelKeys) {
+            nlpModelRegistry.release(sharedModelKey);
+        }
+        this.sharedModelKeys.clear();
+        if (this.intentMatcher != null) {
+            this.intentMatcher.release();
+        }
+    }
+
     public SentenceDetectorME getSentenceDetector() {
         return sentenceDetectorME;
     }
@@ -165,6 +231,34 @@ public class SeerBotConfiguration {
         return intentMatcher;
     }
 
+    public void setMatchStageListener(MatchStageListener matchStageListener) {
+        intentMatcher.setMatchStageListener(matchStageListener);
+    }
+
+    public CacheStats getIntentScoreCacheStats() {
+        return intentMatcher.getScoreCacheStats();
+    }
+
+    public long getIntentScoreCacheSize() {
+        return intentMatcher.getScoreCacheSize();
+    }
+
+    public IntentResponseIndex getIntentResponseIndex() {
+        return intentResponseIndex;
+    }
+
+    public ExactUtteranceIndex getExactUtteranceIndex() {
+        return exactUtteranceIndex;
+    }
+
+    public String getOwnerUserName() {
+        return ownerUserName;
+    }
+
+    public GlobalIntentEngine getGlobalIntentEngine() {
+        return globalIntentEngine;
+    }
+
     public List<GlobalIntent> getGlobalIntents() {
         return globalIntents;
     }
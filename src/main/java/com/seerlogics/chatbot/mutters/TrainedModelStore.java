@@ -0,0 +1,241 @@
+package com.seerlogics.chatbot.mutters;
+
+import com.google.common.hash.Hashing;
+import com.seerlogics.commons.model.TrainedModel;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Local, content addressed store for the trained intent models.
+ * <p>
+ * The first time a trained model is needed its bytes are fetched from the bot admin DB and written to
+ * "[sha256].bin". An index file "trainedModel-[id]-[revision].sha256" maps the trained model to that artifact. The
+ * revision is derived from the VERSION and LAST_UPDATE_DATE of the TrainedModel row, so a model that is trained
+ * again in place gets a new index file instead of the stale artifact. As long as the LaunchInfo points to the same
+ * revision of the trained model the blob is not fetched from the DB again, even after a cache eviction or a restart.
+ * The artifact is read through a memory mapped file and its hash is checked before it is used; a missing or corrupt
+ * artifact is simply fetched again.
+ * <p>
+ * Index files of older revisions are deleted when a new revision is stored, and artifacts no index file refers to
+ * are deleted at start up and after each store, so the directory does not grow with every re-training.
+ * <p>
+ * The blob is only kept out of memory when TrainedModel.file is lazily fetched (it is mapped as a lazy basic
+ * attribute in bot-commons); getFile() is called here only when the artifact is not in the store.
+ * <p>
+ * The store is only an optimization. Any IO problem falls back to the bytes from the DB.
+ */
+@Component
+public class TrainedModelStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrainedModelStore.class);
+
+    private static final String INDEX_PREFIX = "trainedModel-";
+
+    private static final String INDEX_SUFFIX = ".sha256";
+
+    private static final String ARTIFACT_SUFFIX = ".bin";
+
+    /**
+     * This can be provided as a Java arg like "--seerchat.modelStore.dir=/var/seerbot/models". Defaults to
+     * [java.io.tmpdir]/seerbot/models
+     */
+    @Value("${seerchat.modelStore.dir:}")
+    private String storeDir;
+
+    private Path storeRoot;
+
+    @PostConstruct
+    private void init() {
+        storeRoot = StringUtils.isBlank(storeDir) ?
+                Paths.get(System.getProperty("java.io.tmpdir"), "seerbot", "models") : Paths.get(storeDir.trim());
+        try {
+            Files.createDirectories(storeRoot);
+            LOGGER.info("Trained model store is at {}", storeRoot.toAbsolutePath());
+            pruneArtifacts();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to create trained model store at " + storeRoot + ". Models will be read from the DB.",
+                    e);
+            storeRoot = null;
+        }
+    }
+
+    /**
+     * @param trainedModel the trained model of the bot
+     * @return stream over the trained model, backed by the memory mapped artifact when possible.
+     */
+    public InputStream openModel(TrainedModel trainedModel) {
+        if (storeRoot == null) {
+            return new ByteArrayInputStream(trainedModel.getFile());
+        }
+
+        String indexPrefix = INDEX_PREFIX + trainedModel.getId() + "-";
+        Path indexFile = storeRoot.resolve(indexPrefix + revisionOf(trainedModel) + INDEX_SUFFIX);
+        String contentHash = readIndex(indexFile);
+        if (contentHash != null) {
+            ByteBuffer artifact = mapArtifact(contentHash);
+            if (artifact != null) {
+                LOGGER.debug("Trained model {} loaded from local artifact {}", trainedModel.getId(), contentHash);
+                return new ByteBufferInputStream(artifact);
+            }
+        }
+
+        // not in the store or the artifact is corrupt. Get it from the DB.
+        byte[] modelBytes = trainedModel.getFile();
+        contentHash = Hashing.sha256().hashBytes(modelBytes).toString();
+        try {
+            Path artifactFile = storeRoot.resolve(contentHash + ARTIFACT_SUFFIX);
+            if (!Files.exists(artifactFile)) {
+                writeAtomically(artifactFile, modelBytes);
+            }
+            writeAtomically(indexFile, contentHash.getBytes(StandardCharsets.UTF_8));
+            LOGGER.info("Trained model {} ({} bytes) stored as {}", trainedModel.getId(), modelBytes.length,
+                    contentHash);
+            deleteOlderRevisions(trainedModel, indexPrefix, indexFile);
+            pruneArtifacts();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to store trained model " + trainedModel.getId(), e);
+        }
+        return new ByteArrayInputStream(modelBytes);
+    }
+
+    /**
+     * Short hash of the VERSION and LAST_UPDATE_DATE of the trained model. Either of them changes when the row is
+     * updated, the id does not.
+     */
+    static String revisionOf(TrainedModel trainedModel) {
+        String revision = trainedModel.getVersion() + "|" + trainedModel.getLastUpdateDate();
+        return Hashing.sha256().hashString(revision, StandardCharsets.UTF_8).toString().substring(0, 16);
+    }
+
+    private void deleteOlderRevisions(TrainedModel trainedModel, String indexPrefix, Path currentIndexFile)
+            throws IOException {
+        // index file written before the revision was part of the name
+        Files.deleteIfExists(storeRoot.resolve(INDEX_PREFIX + trainedModel.getId() + INDEX_SUFFIX));
+        try (DirectoryStream<Path> indexFiles = Files.newDirectoryStream(storeRoot, indexPrefix + "*" + INDEX_SUFFIX)) {
+            for (Path indexFile : indexFiles) {
+                if (!indexFile.getFileName().equals(currentIndexFile.getFileName())) {
+                    Files.deleteIfExists(indexFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the artifacts no index file refers to. An artifact already mapped by a matcher stays readable after
+     * its file is deleted.
+     */
+    synchronized void pruneArtifacts() {
+        Set<String> referenced = new HashSet<>();
+        try {
+            try (DirectoryStream<Path> indexFiles =
+                         Files.newDirectoryStream(storeRoot, INDEX_PREFIX + "*" + INDEX_SUFFIX)) {
+                for (Path indexFile : indexFiles) {
+                    String contentHash = readIndex(indexFile);
+                    if (contentHash != null) {
+                        referenced.add(contentHash + ARTIFACT_SUFFIX);
+                    }
+                }
+            }
+            try (DirectoryStream<Path> artifacts = Files.newDirectoryStream(storeRoot, "*" + ARTIFACT_SUFFIX)) {
+                for (Path artifact : artifacts) {
+                    if (!referenced.contains(artifact.getFileName().toString())) {
+                        Files.deleteIfExists(artifact);
+                        LOGGER.info("Deleted trained model artifact {}, no trained model refers to it", artifact);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to prune the trained model store " + storeRoot, e);
+        }
+    }
+
+    private String readIndex(Path indexFile) {
+        if (!Files.exists(indexFile)) {
+            return null;
+        }
+        try {
+            String contentHash = new String(Files.readAllBytes(indexFile), StandardCharsets.UTF_8).trim();
+            return StringUtils.isBlank(contentHash) ? null : contentHash;
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read trained model index " + indexFile, e);
+            return null;
+        }
+    }
+
+    private ByteBuffer mapArtifact(String contentHash) {
+        Path artifactFile = storeRoot.resolve(contentHash + ARTIFACT_SUFFIX);
+        if (!Files.exists(artifactFile)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(artifactFile, StandardOpenOption.READ)) {
+            ByteBuffer artifact = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            String actualHash = Hashing.sha256().newHasher().putBytes(artifact.duplicate()).hash().toString();
+            if (!contentHash.equals(actualHash)) {
+                LOGGER.warn("Trained model artifact {} is corrupt, it will be fetched again", artifactFile);
+                Files.deleteIfExists(artifactFile);
+                return null;
+            }
+            return artifact;
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read trained model artifact " + artifactFile, e);
+            return null;
+        }
+    }
+
+    private void writeAtomically(Path target, byte[] content) throws IOException {
+        Path tempFile = Files.createTempFile(storeRoot, target.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tempFile, content);
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int toRead = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, toRead);
+            return toRead;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -5,17 +5,16 @@ import com.rabidgremlin.mutters.core.session.Session;
 import com.seerlogics.chatbot.exception.ConversationException;
 import com.seerlogics.chatbot.model.ChatData;
 import com.seerlogics.chatbot.statemachine.StateMachineHandler;
-import com.seerlogics.chatbot.statemachine.exception.StateMachineException;
 import com.seerlogics.chatbot.statemachine.util.StateMachineConstants;
-import org.apache.commons.lang3.StringUtils;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Scope;
 import org.springframework.context.annotation.ScopedProxyMode;
 import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.access.StateMachineAccess;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
 import org.springframework.stereotype.Component;
 import org.springframework.web.context.WebApplicationContext;
 
-import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.*;
 
 /**
@@ -26,35 +25,38 @@ import java.util.*;
 public class ChatSession extends Session {
     private final String NONE = "NONE";
     private String currentConversationId = NONE;
+    // intent that started the current conversation
+    private String currentConversationIntent;
     private StateMachineHandler currentStateMachineHandler;
     private Map<String, Object> attributes = new HashMap<>();
-    private Map<String, StateMachine> conversationToStateMachineMap = new HashMap<>();
+    // state machine of the current conversation, borrowed from the pool
+    private StateMachine currentStateMachine;
     private List<String> currentChatContext = new ArrayList<>();
     private String currentSessionId;
-    private ChatData previousChat;
+    // id of the last chat of the session that was saved, the previous chat of the next one whatever previousChatId
+    // the client sends. Only the id so the session never holds on to a chain of chat entities
+    private String previousChatId;
     private Context context = new Context();
     // this can be used to pass the authentication key to the session such a JWT/oAuth token
     private String authCode;
 
-    @Value("${seerchat.intentToStateMachine}")
-    private String intentToStateMachine;
-
-    @PostConstruct
-    private void init() {
-        String[] intentToStateMachines = StringUtils.split(intentToStateMachine, ",");
-        for (String toStateMachine : intentToStateMachines) {
-            String[] intentToStateMachinesItem = StringUtils.split(toStateMachine, "=");
-            conversationToStateMachineMap.put(intentToStateMachinesItem[0], createUberStateMachine(intentToStateMachinesItem[1]));
-        }
+    /**
+     * The state machines are only taken from the pool when a conversation starts, a session that never starts one
+     * does not build any.
+     */
+    private final StateMachinePool stateMachinePool;
 
+    public ChatSession(StateMachinePool stateMachinePool) {
+        this.stateMachinePool = stateMachinePool;
     }
 
-    private StateMachine createUberStateMachine(String stateMachineClass) {
-        try {
-            Class<?> c = Class.forName(stateMachineClass);
-            return (StateMachine) c.getMethod("createStateMachine").invoke(c.newInstance());
-        } catch (Exception e) {
-            throw new StateMachineException(e);
+    /**
+     * Gives the state machine back when the HTTP session ends in the middle of a conversation.
+     */
+    @PreDestroy
+    private void destroy() {
+        if (isConversationActive()) {
+            endCurrentConversation();
         }
     }
 
@@ -76,7 +78,7 @@ public class ChatSession extends Session {
     }
 
     public boolean isIntentConversationStarter(String intent) {
-        return conversationToStateMachineMap.keySet().contains(intent);
+        return stateMachinePool.isConversationStarter(intent);
     }
 
     public String getCurrentConversationId() {
@@ -92,12 +94,16 @@ public class ChatSession extends Session {
     }
 
     public void endCurrentConversation() {
-        this.currentConversationId = NONE;
         this.currentStateMachineHandler.stopStateMachine();
+        stateMachinePool.release(currentConversationIntent, currentStateMachine);
+        this.currentConversationId = NONE;
+        this.currentConversationIntent = null;
+        this.currentStateMachine = null;
     }
 
     public void endCurrentConversationIfEndStateReached() {
-        if (currentStateMachineHandler.isStopStateMachine()) {
+        // the machine of an ended conversation is back in the pool and may belong to another session by now
+        if (isConversationActive() && currentStateMachineHandler.isStopStateMachine()) {
             this.endCurrentConversation();
         }
     }
@@ -105,7 +111,9 @@ public class ChatSession extends Session {
     public void startConversation(String triggerIntent) {
         if (!isConversationActive()) {
             this.currentConversationId = triggerIntent + "_" + UUID.randomUUID();
-            this.currentStateMachineHandler = new StateMachineHandler(conversationToStateMachineMap.get(triggerIntent));
+            this.currentConversationIntent = triggerIntent;
+            this.currentStateMachine = stateMachinePool.borrow(triggerIntent);
+            this.currentStateMachineHandler = new StateMachineHandler(currentStateMachine);
             this.currentStateMachineHandler.getVariables().put(StateMachineConstants.CONVERSATION_ATTRIBUTES, attributes);
         } else {
             throw new ConversationException("ERROR: There is an active convseration with ID = " + currentConversationId);
@@ -125,6 +133,60 @@ public class ChatSession extends Session {
         return responseKey;
     }
 
+    /**
+     * @return what is needed to resume this session on another node, see {@link ChatSessionCodec}.
+     */
+    public ChatSessionState toState() {
+        ChatSessionState state = new ChatSessionState();
+        state.setCurrentSessionId(currentSessionId);
+        state.setAuthCode(authCode);
+        state.setPreviousChatId(previousChatId);
+        if (isConversationActive()) {
+            state.setConversationIntent(currentConversationIntent);
+            state.setConversationId(currentConversationId);
+            state.setStateMachineState(currentStateMachineHandler.getCurrentState());
+        }
+        state.setAttributes(attributes);
+        state.setCurrentChatContext(currentChatContext);
+        return state;
+    }
+
+    /**
+     * Resumes a session that was started on another node or in an expired HTTP session. The state machine of the
+     * active conversation is put back in the state it was in.
+     */
+    public void restoreState(ChatSessionState state) {
+        this.currentSessionId = state.getCurrentSessionId();
+        this.authCode = state.getAuthCode();
+        this.previousChatId = state.getPreviousChatId();
+        // the state machine handlers hold on to this map so keep the same instance
+        this.attributes.clear();
+        this.attributes.putAll(state.getAttributes());
+        this.currentChatContext = state.getCurrentChatContext();
+
+        String conversationIntent = state.getConversationIntent();
+        if (conversationIntent != null && isIntentConversationStarter(conversationIntent)) {
+            if (isConversationActive()) {
+                endCurrentConversation();
+            }
+            this.currentConversationId = state.getConversationId();
+            this.currentConversationIntent = conversationIntent;
+            this.currentStateMachine = stateMachinePool.borrow(conversationIntent);
+            this.currentStateMachineHandler = new StateMachineHandler(currentStateMachine);
+            this.currentStateMachineHandler.getVariables().put(StateMachineConstants.CONVERSATION_ATTRIBUTES, attributes);
+            resetStateMachine(currentStateMachine, state.getStateMachineState());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resetStateMachine(StateMachine stateMachine, String stateMachineState) {
+        stateMachine.stop();
+        stateMachine.getStateMachineAccessor().doWithAllRegions(access ->
+                ((StateMachineAccess) access).resetStateMachine(new DefaultStateMachineContext(stateMachineState,
+                        null, null, stateMachine.getExtendedState())));
+        stateMachine.start();
+    }
+
     public void setCurrentSessionId(String currentSessionId) {
         this.currentSessionId = currentSessionId;
     }
@@ -157,12 +219,12 @@ public class ChatSession extends Session {
         return currentSessionId;
     }
 
-    public ChatData getPreviousChat() {
-        return previousChat;
+    public String getPreviousChatId() {
+        return previousChatId;
     }
 
-    public void setPreviousChat(ChatData previousChat) {
-        this.previousChat = previousChat;
+    public void setPreviousChatId(String previousChatId) {
+        this.previousChatId = previousChatId;
     }
 
     @Override
@@ -170,7 +232,7 @@ public class ChatSession extends Session {
         return "ChatSession{" +
                 "currentChatContext=" + currentChatContext +
                 ", currentSessionId='" + currentSessionId + '\'' +
-                ", previousChat=" + previousChat +
+                ", previousChatId='" + previousChatId + '\'' +
                 '}';
     }
 }
@@ -0,0 +1,202 @@
+package com.seerlogics.chatbot.noggin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary form of a {@link ChatSessionState}. Strings are UTF-8 with a variable length prefix and each
+ * attribute value has a one byte type tag. Only the value types the state machines and the velocity responses use
+ * (String, Boolean, Integer, Long and Double) are written. Attributes of any other type are left out and logged,
+ * which also means nothing is ever read back with Java deserialization.
+ * <p>
+ * Layout (version 2): version, currentSessionId, authCode, conversationIntent, conversationId, stateMachineState,
+ * previousChatId, attribute count, (name, tag, value)*, chat context count, (entry)*
+ * <p>
+ * Version 1 is the same without previousChatId and is still read.
+ */
+public final class ChatSessionCodec {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChatSessionCodec.class);
+
+    private static final byte VERSION = 2;
+
+    private static final byte VERSION_WITHOUT_PREVIOUS_CHAT = 1;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte BOOLEAN = 2;
+    private static final byte INTEGER = 3;
+    private static final byte LONG = 4;
+    private static final byte DOUBLE = 5;
+
+    private ChatSessionCodec() {
+    }
+
+    public static byte[] encode(ChatSessionState state) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            writeString(out, state.getCurrentSessionId());
+            writeString(out, state.getAuthCode());
+            writeString(out, state.getConversationIntent());
+            writeString(out, state.getConversationId());
+            writeString(out, state.getStateMachineState());
+            writeString(out, state.getPreviousChatId());
+
+            List<Map.Entry<String, Object>> attributes = new ArrayList<>(state.getAttributes().size());
+            for (Map.Entry<String, Object> attribute : state.getAttributes().entrySet()) {
+                if (isSupported(attribute.getValue())) {
+                    attributes.add(attribute);
+                } else {
+                    LOGGER.warn("Session attribute {} of type {} is not kept in the session store", attribute.getKey(),
+                            attribute.getValue().getClass().getName());
+                }
+            }
+            writeVarInt(out, attributes.size());
+            for (Map.Entry<String, Object> attribute : attributes) {
+                writeString(out, attribute.getKey());
+                writeValue(out, attribute.getValue());
+            }
+
+            writeVarInt(out, state.getCurrentChatContext().size());
+            for (String chatContext : state.getCurrentChatContext()) {
+                writeString(out, chatContext);
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static ChatSessionState decode(byte[] encoded) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        byte version = in.readByte();
+        if (version != VERSION && version != VERSION_WITHOUT_PREVIOUS_CHAT) {
+            throw new IOException("Unknown chat session state version " + version);
+        }
+        ChatSessionState state = new ChatSessionState();
+        state.setCurrentSessionId(readString(in));
+        state.setAuthCode(readString(in));
+        state.setConversationIntent(readString(in));
+        state.setConversationId(readString(in));
+        state.setStateMachineState(readString(in));
+        if (version >= VERSION) {
+            state.setPreviousChatId(readString(in));
+        }
+
+        int attributeCount = readVarInt(in);
+        Map<String, Object> attributes = new LinkedHashMap<>(attributeCount * 2);
+        for (int i = 0; i < attributeCount; i++) {
+            attributes.put(readString(in), readValue(in));
+        }
+        state.setAttributes(attributes);
+
+        int chatContextCount = readVarInt(in);
+        List<String> currentChatContext = new ArrayList<>(chatContextCount);
+        for (int i = 0; i < chatContextCount; i++) {
+            currentChatContext.add(readString(in));
+        }
+        state.setCurrentChatContext(currentChatContext);
+        return state;
+    }
+
+    private static boolean isSupported(Object value) {
+        return value == null || value instanceof String || value instanceof Boolean || value instanceof Integer
+                || value instanceof Long || value instanceof Double;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case BOOLEAN:
+                return in.readBoolean();
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            default:
+                throw new IOException("Unknown attribute type " + tag);
+        }
+    }
+
+    // null is written as length 0, an empty string as length 1
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, utf8.length + 1);
+        out.write(utf8);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = readVarInt(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[length - 1];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed length");
+    }
+}
@@ -0,0 +1,88 @@
+package com.seerlogics.chatbot.noggin;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The part of a {@link ChatSession} that is needed to resume the conversation on any node: the active conversation,
+ * the state its state machine is in, the conversation attributes and the id of the previous chat. The state machines
+ * themselves and the mutters context are not part of it, they are rebuilt when the session is resumed.
+ */
+public class ChatSessionState {
+
+    private String currentSessionId;
+    private String authCode;
+    private String previousChatId;
+    // intent that started the active conversation, null when there is none
+    private String conversationIntent;
+    private String conversationId;
+    private String stateMachineState;
+    private Map<String, Object> attributes = new LinkedHashMap<>();
+    private List<String> currentChatContext = new ArrayList<>();
+
+    public String getCurrentSessionId() {
+        return currentSessionId;
+    }
+
+    public void setCurrentSessionId(String currentSessionId) {
+        this.currentSessionId = currentSessionId;
+    }
+
+    public String getAuthCode() {
+        return authCode;
+    }
+
+    public void setAuthCode(String authCode) {
+        this.authCode = authCode;
+    }
+
+    public String getPreviousChatId() {
+        return previousChatId;
+    }
+
+    public void setPreviousChatId(String previousChatId) {
+        this.previousChatId = previousChatId;
+    }
+
+    public String getConversationIntent() {
+        return conversationIntent;
+    }
+
+    public void setConversationIntent(String conversationIntent) {
+        this.conversationIntent = conversationIntent;
+    }
+
+    public String getConversationId() {
+        return conversationId;
+    }
+
+    public void setConversationId(String conversationId) {
+        this.conversationId = conversationId;
+    }
+
+    public String getStateMachineState() {
+        return stateMachineState;
+    }
+
+    public void setStateMachineState(String stateMachineState) {
+        this.stateMachineState = stateMachineState;
+    }
+
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    public void setAttributes(Map<String, Object> attributes) {
+        this.attributes = attributes;
+    }
+
+    public List<String> getCurrentChatContext() {
+        return currentChatContext;
+    }
+
+    public void setCurrentChatContext(List<String> currentChatContext) {
+        this.currentChatContext = currentChatContext;
+    }
+}
@@ -0,0 +1,26 @@
+package com.seerlogics.chatbot.noggin;
+
+/**
+ * Keeps the encoded {@link ChatSessionState} of the chat sessions so that a conversation can be resumed on any node.
+ * The implementation is picked with seerchat.sessionStore.type, "memory" (default) or "file".
+ */
+public interface ChatSessionStore {
+
+    /**
+     * @param sessionId    the chat session id the widget sends back with every chat
+     * @param encodedState the state as written by {@link ChatSessionCodec}
+     */
+    void save(String sessionId, byte[] encodedState);
+
+    /**
+     * @return the encoded state of the session or null if the session is not known or has expired.
+     */
+    byte[] load(String sessionId);
+
+    void remove(String sessionId);
+
+    /**
+     * @return number of sessions in the store
+     */
+    long size();
+}
@@ -0,0 +1,131 @@
+package com.seerlogics.chatbot.noggin;
+
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps each session in its own file, named after the sha256 of the session id so that the id sent by the widget
+ * can never point outside the store. Point seerchat.sessionStore.dir to a disk the nodes share to let any node resume
+ * any conversation. Sessions not written for seerchat.sessionStore.ttlMinutes are expired when they are read and at
+ * startup.
+ */
+@Component
+@ConditionalOnProperty(name = "seerchat.sessionStore.type", havingValue = "file")
+public class FileChatSessionStore implements ChatSessionStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileChatSessionStore.class);
+
+    private static final String SESSION_FILE_SUFFIX = ".session";
+
+    /**
+     * This can be provided as a Java arg like "--seerchat.sessionStore.dir=/var/seerbot/sessions". Defaults to
+     * [java.io.tmpdir]/seerbot/sessions
+     */
+    @Value("${seerchat.sessionStore.dir:}")
+    private String storeDir;
+
+    @Value("${seerchat.sessionStore.ttlMinutes:30}")
+    private long ttlMinutes;
+
+    private Path storeRoot;
+
+    @PostConstruct
+    private void init() throws IOException {
+        storeRoot = StringUtils.isBlank(storeDir) ?
+                Paths.get(System.getProperty("java.io.tmpdir"), "seerbot", "sessions") : Paths.get(storeDir.trim());
+        Files.createDirectories(storeRoot);
+        int expired = 0;
+        try (DirectoryStream<Path> sessionFiles = Files.newDirectoryStream(storeRoot, "*" + SESSION_FILE_SUFFIX)) {
+            for (Path sessionFile : sessionFiles) {
+                if (isExpired(sessionFile)) {
+                    Files.deleteIfExists(sessionFile);
+                    expired++;
+                }
+            }
+        }
+        LOGGER.info("Chat session store is at {}, {} expired sessions removed", storeRoot.toAbsolutePath(), expired);
+    }
+
+    @Override
+    public void save(String sessionId, byte[] encodedState) {
+        Path sessionFile = sessionFile(sessionId);
+        try {
+            Path tempFile = Files.createTempFile(storeRoot, sessionFile.getFileName().toString(), ".tmp");
+            try {
+                Files.write(tempFile, encodedState);
+                Files.move(tempFile, sessionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to store chat session " + sessionId, e);
+        }
+    }
+
+    @Override
+    public byte[] load(String sessionId) {
+        Path sessionFile = sessionFile(sessionId);
+        try {
+            if (isExpired(sessionFile)) {
+                Files.deleteIfExists(sessionFile);
+                return null;
+            }
+            return Files.readAllBytes(sessionFile);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read chat session " + sessionId, e);
+        }
+    }
+
+    @Override
+    public void remove(String sessionId) {
+        try {
+            Files.deleteIfExists(sessionFile(sessionId));
+        } catch (IOException e) {
+            LOGGER.warn("Unable to remove chat session " + sessionId, e);
+        }
+    }
+
+    @Override
+    public long size() {
+        try (DirectoryStream<Path> sessionFiles = Files.newDirectoryStream(storeRoot, "*" + SESSION_FILE_SUFFIX)) {
+            long size = 0;
+            for (Path ignored : sessionFiles) {
+                size++;
+            }
+            return size;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private Path sessionFile(String sessionId) {
+        return storeRoot.resolve(Hashing.sha256().hashString(sessionId, StandardCharsets.UTF_8).toString()
+                + SESSION_FILE_SUFFIX);
+    }
+
+    private boolean isExpired(Path sessionFile) throws IOException {
+        if (!Files.exists(sessionFile)) {
+            return false;
+        }
+        long age = System.currentTimeMillis() - Files.getLastModifiedTime(sessionFile).toMillis();
+        return age > TimeUnit.MINUTES.toMillis(ttlMinutes);
+    }
+}
@@ -0,0 +1,46 @@
+package com.seerlogics.chatbot.noggin;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the sessions in this JVM. Sessions survive the HTTP session but not the node, use the file store when the
+ * nodes share a disk.
+ */
+@Component
+@ConditionalOnProperty(name = "seerchat.sessionStore.type", havingValue = "memory", matchIfMissing = true)
+public class InMemoryChatSessionStore implements ChatSessionStore {
+
+    private final Cache<String, byte[]> sessions;
+
+    public InMemoryChatSessionStore(@Value("${seerchat.sessionStore.ttlMinutes:30}") long ttlMinutes,
+                                    @Value("${seerchat.sessionStore.maximumSize:100000}") long maximumSize) {
+        this.sessions = CacheBuilder.newBuilder().expireAfterAccess(ttlMinutes, TimeUnit.MINUTES)
+                .maximumSize(maximumSize).build();
+    }
+
+    @Override
+    public void save(String sessionId, byte[] encodedState) {
+        sessions.put(sessionId, encodedState);
+    }
+
+    @Override
+    public byte[] load(String sessionId) {
+        return sessions.getIfPresent(sessionId);
+    }
+
+    @Override
+    public void remove(String sessionId) {
+        sessions.invalidate(sessionId);
+    }
+
+    @Override
+    public long size() {
+        return sessions.size();
+    }
+}
@@ -0,0 +1,155 @@
+package com.seerlogics.chatbot.noggin;
+
+import com.seerlogics.chatbot.statemachine.exception.StateMachineException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of the conversation state machines listed in seerchat.intentToStateMachine, one pool per conversation
+ * intent. A chat session only borrows a state machine when a conversation starts and gives it back when the
+ * conversation ends, so sessions that never start a conversation never build one. A returned machine is stopped and
+ * its extended state cleared; starting it again puts it back in its initial state.
+ * <p>
+ * seerchat.stateMachine.created counts the machines built and seerchat.stateMachine.borrowed the conversations
+ * started, per intent. seerchat.stateMachine.create times a build and seerchat.stateMachine.idle is the pool size.
+ */
+@Component
+public class StateMachinePool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StateMachinePool.class);
+
+    @Value("${seerchat.intentToStateMachine}")
+    private String intentToStateMachine;
+
+    /**
+     * Max number of idle state machines kept per conversation intent. Machines returned to a full pool are dropped.
+     */
+    @Value("${seerchat.stateMachinePool.maxIdlePerType:50}")
+    private int maxIdlePerType;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Timer createTimer;
+
+    // conversation intent -> pool of that intent's state machine
+    private final Map<String, TypePool> pools = new HashMap<>();
+
+    public StateMachinePool(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.createTimer = Timer.builder("seerchat.stateMachine.create")
+                .description("Time to build a conversation state machine").register(meterRegistry);
+    }
+
+    @PostConstruct
+    private void init() {
+        // resolved once, a wrong class name fails the startup instead of the first chat session
+        for (String toStateMachine : StringUtils.split(intentToStateMachine, ",")) {
+            String[] intentToStateMachinesItem = StringUtils.split(toStateMachine, "=");
+            String intent = intentToStateMachinesItem[0];
+            pools.put(intent, new TypePool(intent, intentToStateMachinesItem[1]));
+        }
+        LOGGER.info("State machine pools for conversations {}", pools.keySet());
+    }
+
+    public boolean isConversationStarter(String intent) {
+        return pools.containsKey(intent);
+    }
+
+    public Set<String> getConversationIntents() {
+        return Collections.unmodifiableSet(pools.keySet());
+    }
+
+    /**
+     * @param intent the intent that starts the conversation
+     * @return a state machine for the conversation, it belongs to the caller until it is released.
+     */
+    public StateMachine borrow(String intent) {
+        TypePool typePool = pools.get(intent);
+        if (typePool == null) {
+            throw new StateMachineException(new IllegalArgumentException("No state machine for intent " + intent));
+        }
+        typePool.borrowed.increment();
+        StateMachine stateMachine = typePool.idle.pollFirst();
+        if (stateMachine != null) {
+            typePool.idleCount.decrementAndGet();
+            return stateMachine;
+        }
+        return typePool.create();
+    }
+
+    /**
+     * Gives back a state machine borrowed for the intent. Do not use it after this call.
+     */
+    public void release(String intent, StateMachine stateMachine) {
+        TypePool typePool = pools.get(intent);
+        if (typePool == null || stateMachine == null) {
+            return;
+        }
+        try {
+            stateMachine.stop();
+            stateMachine.getExtendedState().getVariables().clear();
+        } catch (RuntimeException e) {
+            LOGGER.warn("State machine for " + intent + " could not be reset, it is dropped", e);
+            return;
+        }
+        if (typePool.idleCount.incrementAndGet() <= maxIdlePerType) {
+            typePool.idle.offerFirst(stateMachine);
+        } else {
+            typePool.idleCount.decrementAndGet();
+        }
+    }
+
+    private class TypePool {
+        private final Class<?> stateMachineClass;
+        private final Method createStateMachine;
+        private final ConcurrentLinkedDeque<StateMachine> idle = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger idleCount = new AtomicInteger();
+        private final Counter created;
+        private final Counter borrowed;
+
+        private TypePool(String intent, String stateMachineClassName) {
+            try {
+                this.stateMachineClass = Class.forName(stateMachineClassName);
+                this.createStateMachine = stateMachineClass.getMethod("createStateMachine");
+            } catch (Exception e) {
+                throw new StateMachineException(e);
+            }
+            this.created = Counter.builder("seerchat.stateMachine.created").tag("intent", intent)
+                    .register(meterRegistry);
+            this.borrowed = Counter.builder("seerchat.stateMachine.borrowed").tag("intent", intent)
+                    .register(meterRegistry);
+            Gauge.builder("seerchat.stateMachine.idle", idleCount, AtomicInteger::get).tag("intent", intent)
+                    .register(meterRegistry);
+        }
+
+        private StateMachine create() {
+            long start = System.nanoTime();
+            try {
+                return (StateMachine) createStateMachine.invoke(stateMachineClass.newInstance());
+            } catch (Exception e) {
+                throw new StateMachineException(e);
+            } finally {
+                createTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                created.increment();
+            }
+        }
+    }
+}
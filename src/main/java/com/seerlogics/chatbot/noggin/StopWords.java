@@ -1,16 +1,20 @@
 package com.seerlogics.chatbot.noggin;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Created by bkane on 4/17/18.
  * https://github.com/apache/opennlp-sandbox/blob/master/summarizer/src/main/java/opennlp/summarization/preprocess/StopWords.java
  */
 public class StopWords {
-    private List<String> stopWords = new ArrayList<>();
+    private Set<String> stopWords = new HashSet<>();
     private List<String> salutations = new ArrayList<>();
-    private static StopWords instance;
+    // created eagerly so that threads tokenizing at the same time all get the same, fully built instance
+    private static final StopWords instance = new StopWords();
 
     private StopWords() {
         stopWords.add("0");
@@ -208,15 +212,14 @@ public class StopWords {
     }
 
     public boolean isStopWord(String s) {
-        boolean ret = stopWords.contains(s.toLowerCase());
-        if (s.length() == 1) ret = true;
-        return ret;
+        return s.length() == 1 || stopWords.contains(s.toLowerCase());
+    }
+
+    public Set<String> getStopWords() {
+        return Collections.unmodifiableSet(stopWords);
     }
 
     public static StopWords getInstance() {
-        if (instance == null) {
-            instance = new StopWords();
-        }
         return instance;
     }
 
@@ -19,6 +19,10 @@ public class SynonymHelper {
         this.synonymMap.put("28277|regex", Arrays.asList("^\\d{5}(?:[-\\s]\\d{4})?$"));
     }
 
+    public Map<String, List<String>> getSynonymMap() {
+        return Collections.unmodifiableMap(synonymMap);
+    }
+
     public String findSynonym(String input) {
         Set<String> allKeys = synonymMap.keySet();
         boolean foundSynonym = false;
@@ -0,0 +1,128 @@
+package com.seerlogics.chatbot.noggin;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled form of the {@link StopWords} and {@link SynonymHelper} vocabulary. It removes the stop words, lower
+ * cases the tokens and replaces the synonyms in one pass over the tokens.
+ * <p>
+ * The result is the same as StopWords.isStopWord followed by SynonymHelper.replaceSynonyms: a token is replaced when
+ * it contains a synonym, checked in the same order SynonymHelper checks them, or matches one of the regex rules.
+ * Tokens that are exactly a synonym, the common case, are found with one hash lookup and the regex rules are
+ * compiled once. It is immutable so one instance is shared by all the threads and bots.
+ */
+public final class TokenNormalizer {
+
+    private static final TokenNormalizer DEFAULT = new TokenNormalizer(StopWords.getInstance(), new SynonymHelper());
+
+    private final Set<String> stopWords;
+
+    // token that is exactly a synonym -> the replacement the scan below would find for it
+    private final Map<String, String> exactSynonyms;
+
+    // lower case synonym and its replacement, in the order SynonymHelper checks them
+    private final String[] synonyms;
+    private final String[] synonymReplacements;
+
+    private final Pattern[] patterns;
+    private final String[] patternReplacements;
+
+    public TokenNormalizer(StopWords stopWords, SynonymHelper synonymHelper) {
+        this.stopWords = ImmutableSet.copyOf(stopWords.getStopWords());
+
+        List<String> synonymList = new ArrayList<>();
+        List<String> synonymReplacementList = new ArrayList<>();
+        List<Pattern> patternList = new ArrayList<>();
+        List<String> patternReplacementList = new ArrayList<>();
+        for (Map.Entry<String, List<String>> synonymEntry : synonymHelper.getSynonymMap().entrySet()) {
+            String key = synonymEntry.getKey();
+            if (key.contains("regex")) {
+                // like "28277|regex", the part before the | replaces the matching token
+                String replacement = StringUtils.split(key, "|")[0];
+                for (String regex : synonymEntry.getValue()) {
+                    patternList.add(Pattern.compile(regex));
+                    patternReplacementList.add(replacement);
+                }
+            } else {
+                for (String synonym : synonymEntry.getValue()) {
+                    synonymList.add(synonym.toLowerCase());
+                    synonymReplacementList.add(key);
+                }
+            }
+        }
+        this.synonyms = synonymList.toArray(new String[0]);
+        this.synonymReplacements = synonymReplacementList.toArray(new String[0]);
+        this.patterns = patternList.toArray(new Pattern[0]);
+        this.patternReplacements = patternReplacementList.toArray(new String[0]);
+
+        Map<String, String> exactSynonymMap = new HashMap<>();
+        for (String synonym : this.synonyms) {
+            exactSynonymMap.putIfAbsent(synonym, scanForSynonym(synonym));
+        }
+        this.exactSynonyms = ImmutableMap.copyOf(exactSynonymMap);
+    }
+
+    public static TokenNormalizer getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Removes the stop words, lower cases and replaces the synonyms of the tokens. The given array is reused for the
+     * result, so do not use it after this call.
+     *
+     * @param tokens tokens of an utterance
+     * @return the normalized tokens
+     */
+    public String[] normalize(String[] tokens) {
+        int kept = 0;
+        for (String token : tokens) {
+            // single characters are stop words
+            if (token.length() == 1) {
+                continue;
+            }
+            String lowerCaseToken = token.toLowerCase();
+            if (stopWords.contains(lowerCaseToken)) {
+                continue;
+            }
+            tokens[kept++] = findSynonym(lowerCaseToken);
+        }
+        return kept == tokens.length ? tokens : Arrays.copyOf(tokens, kept);
+    }
+
+    public boolean isStopWord(String token) {
+        return token.length() == 1 || stopWords.contains(token.toLowerCase());
+    }
+
+    /**
+     * @param lowerCaseToken a lower cased token
+     * @return the replacement of the token or the token if it has no synonym
+     */
+    public String findSynonym(String lowerCaseToken) {
+        String replacement = exactSynonyms.get(lowerCaseToken);
+        return replacement != null ? replacement : scanForSynonym(lowerCaseToken);
+    }
+
+    private String scanForSynonym(String lowerCaseToken) {
+        for (int i = 0; i < synonyms.length; i++) {
+            if (lowerCaseToken.contains(synonyms[i])) {
+                return synonymReplacements[i];
+            }
+        }
+        for (int i = 0; i < patterns.length; i++) {
+            if (patterns[i].matcher(lowerCaseToken).matches()) {
+                return patternReplacements[i];
+            }
+        }
+        return lowerCaseToken;
+    }
+}
@@ -0,0 +1,167 @@
+package com.seerlogics.chatbot.service;
+
+import com.seerlogics.commons.model.LaunchInfo;
+import com.seerlogics.commons.repository.LaunchInfoRepository;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the SeerBotConfiguration of all the launched bots when the application starts so that the first chat with
+ * a bot does not pay for the LaunchInfo lookup, the trained model fetch and parse and the intent registration.
+ * <p>
+ * This is off by default. Turn it on with --seerchat.warmUp.enabled=true. Until the warm up is done, or
+ * seerchat.warmUp.deadlineSeconds have passed, the "botWarmUpService" health indicator reports OUT_OF_SERVICE so
+ * actuator/health tells the load balancer not to send traffic to this node yet.
+ */
+@Service
+public class BotWarmUpService implements HealthIndicator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BotWarmUpService.class);
+
+    private final ChatNLPService chatNLPService;
+
+    private final LaunchInfoRepository launchInfoRepository;
+
+    private final TransactionTemplate botAdminTransactionTemplate;
+
+    @Value("${seerchat.warmUp.enabled:false}")
+    private boolean enabled;
+
+    @Value("${seerchat.warmUp.threads:4}")
+    private int threads;
+
+    @Value("${seerchat.warmUp.deadlineSeconds:120}")
+    private long deadlineSeconds;
+
+    private volatile boolean warmUpDone;
+
+    private volatile int botsToLoad;
+
+    // uniqueBotId -> time in ms it took to build the configuration
+    private final Map<String, Long> loadTimes = new ConcurrentHashMap<>();
+
+    // uniqueBotId -> reason the configuration could not be built
+    private final Map<String, String> failures = new ConcurrentHashMap<>();
+
+    public BotWarmUpService(ChatNLPService chatNLPService, LaunchInfoRepository launchInfoRepository,
+                            @Qualifier("botAdminTransactionManager") PlatformTransactionManager transactionManager) {
+        this.chatNLPService = chatNLPService;
+        this.launchInfoRepository = launchInfoRepository;
+        this.botAdminTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.botAdminTransactionTemplate.setReadOnly(true);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!enabled) {
+            return;
+        }
+        Thread warmUpThread = new Thread(this::loadAllLaunchedBots, "bot-warm-up");
+        warmUpThread.setDaemon(true);
+        warmUpThread.start();
+    }
+
+    private void loadAllLaunchedBots() {
+        long start = System.currentTimeMillis();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads, new WarmUpThreadFactory());
+        try {
+            List<String> uniqueBotIds = new ArrayList<>();
+            for (LaunchInfo launchInfo : launchInfoRepository.findAll()) {
+                if (StringUtils.isNotBlank(launchInfo.getUniqueBotId())) {
+                    uniqueBotIds.add(launchInfo.getUniqueBotId());
+                }
+            }
+            botsToLoad = uniqueBotIds.size();
+            LOGGER.info("Warming up {} bots with {} threads", botsToLoad, threads);
+
+            CountDownLatch allLoaded = new CountDownLatch(uniqueBotIds.size());
+            for (String uniqueBotId : uniqueBotIds) {
+                executorService.execute(() -> {
+                    try {
+                        loadBot(uniqueBotId);
+                    } finally {
+                        allLoaded.countDown();
+                    }
+                });
+            }
+            if (!allLoaded.await(deadlineSeconds, TimeUnit.SECONDS)) {
+                LOGGER.warn("Warm up deadline of {} s passed, {} of {} bots loaded. The rest will load in the "
+                        + "background.", deadlineSeconds, loadTimes.size(), botsToLoad);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.error("Bot warm up failed", e);
+        } finally {
+            // running builds are allowed to finish, they go in the cache just like a normal request would.
+            executorService.shutdown();
+            warmUpDone = true;
+            LOGGER.info("Warm up done in {} ms. Loaded = {} , failed = {} , load times (ms) = {}",
+                    System.currentTimeMillis() - start, loadTimes.size(), failures.size(), loadTimes);
+        }
+    }
+
+    private void loadBot(String uniqueBotId) {
+        long start = System.currentTimeMillis();
+        try {
+            // keep the bot admin session open while the configuration reads the lazy parts of LaunchInfo and Bot
+            botAdminTransactionTemplate.execute(status -> chatNLPService.getSeerBotConfiguration(uniqueBotId));
+            loadTimes.put(uniqueBotId, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            LOGGER.error("Unable to warm up bot " + uniqueBotId, e);
+            failures.put(uniqueBotId, String.valueOf(e.getMessage()));
+        }
+    }
+
+    public boolean isReady() {
+        return !enabled || warmUpDone;
+    }
+
+    public Map<String, Long> getLoadTimes() {
+        return new TreeMap<>(loadTimes);
+    }
+
+    @Override
+    public Health health() {
+        Health.Builder builder = isReady() ? Health.up() : Health.outOfService();
+        if (enabled) {
+            builder.withDetail("botsToLoad", botsToLoad)
+                    .withDetail("loadTimesMs", getLoadTimes())
+                    .withDetail("failures", new TreeMap<>(failures));
+        }
+        return builder.build();
+    }
+
+    private static class WarmUpThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "bot-warm-up-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
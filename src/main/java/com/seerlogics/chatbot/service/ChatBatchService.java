@@ -0,0 +1,282 @@
+package com.seerlogics.chatbot.service;
+
+import com.google.common.base.Throwables;
+import com.seerlogics.chatbot.exception.ChatOverloadedException;
+import com.seerlogics.chatbot.exception.ConversationException;
+import com.seerlogics.chatbot.model.ChatData;
+import com.seerlogics.chatbot.model.Transaction;
+import com.seerlogics.chatbot.mutters.SeerBotConfiguration;
+import com.seerlogics.chatbot.noggin.ChatSession;
+import com.seerlogics.chatbot.noggin.StateMachinePool;
+import com.seerlogics.chatbot.repository.ChatRepository;
+import com.seerlogics.chatbot.repository.TransactionRepository;
+import com.seerlogics.chatbot.view.ChatBatchRequest;
+import com.seerlogics.chatbot.view.ChatBatchResponse;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes POST /api/chats/batch. Each session of the batch gets its own ChatSession and its messages are matched
+ * in order, since a message can start or move a conversation that the next one depends on. The sessions do not
+ * depend on each other so they are matched in parallel on a pool of seerchat.batch.threads threads. Nothing is
+ * saved while matching; once all the sessions are done the incoming chats, the replies and the transactions of the
+ * whole batch are saved in one transaction with batched inserts.
+ * <p>
+ * A batch costs the bot one rate limit token per message, like the messages would one by one. At most
+ * seerchat.batch.queueCapacity sessions wait for a thread, a batch that does not fit is rejected with a
+ * {@link ChatOverloadedException}.
+ */
+@Service
+public class ChatBatchService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChatBatchService.class);
+
+    private final ChatNLPService chatNLPService;
+
+    private final StateMachinePool stateMachinePool;
+
+    private final ChatRepository chatRepository;
+
+    private final TransactionRepository transactionRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ChatRateLimiter chatRateLimiter;
+
+    /**
+     * Max number of messages, across all the sessions, in one batch.
+     */
+    @Value("${seerchat.batch.maxMessages:5000}")
+    private int maxMessages;
+
+    /**
+     * Threads matching the sessions of the batches. Defaults to the number of cores.
+     */
+    @Value("${seerchat.batch.threads:0}")
+    private int threads;
+
+    /**
+     * Max number of sessions, across all the batches, waiting for a thread.
+     */
+    @Value("${seerchat.batch.queueCapacity:5000}")
+    private int queueCapacity;
+
+    @Value("${seerchat.batch.retryAfterSeconds:5}")
+    private long retryAfterSeconds;
+
+    private ThreadPoolExecutor executorService;
+
+    public ChatBatchService(ChatNLPService chatNLPService, StateMachinePool stateMachinePool,
+                            ChatRepository chatRepository, TransactionRepository transactionRepository,
+                            @Qualifier("transactionManager") PlatformTransactionManager transactionManager,
+                            ChatRateLimiter chatRateLimiter) {
+        this.chatNLPService = chatNLPService;
+        this.stateMachinePool = stateMachinePool;
+        this.chatRepository = chatRepository;
+        this.transactionRepository = transactionRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chatRateLimiter = chatRateLimiter;
+    }
+
+    @PostConstruct
+    private void init() {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        // AbortPolicy, a full queue throws RejectedExecutionException in the caller
+        executorService = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new BatchThreadFactory());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executorService.shutdownNow();
+    }
+
+    /**
+     * @param uniqueBotId       the bot, already validated by the caller
+     * @param chatBatchRequest  the sessions and their messages
+     * @return a result per message with the time it took
+     */
+    public ChatBatchResponse process(String uniqueBotId, ChatBatchRequest chatBatchRequest) {
+        int messageCount = validate(chatBatchRequest);
+        // the admission filter already took one token for the request
+        chatRateLimiter.charge(uniqueBotId, messageCount - 1);
+
+        long start = System.nanoTime();
+        SeerBotConfiguration seerBotConfiguration = chatNLPService.getSeerBotConfiguration(uniqueBotId);
+        List<Future<SessionResult>> futures = new ArrayList<>(chatBatchRequest.getSessions().size());
+        List<SessionResult> sessionResults = new ArrayList<>(chatBatchRequest.getSessions().size());
+        try {
+            for (ChatBatchRequest.Session session : chatBatchRequest.getSessions()) {
+                futures.add(executorService.submit(() -> processSession(uniqueBotId, session, seerBotConfiguration)));
+            }
+            for (Future<SessionResult> future : futures) {
+                sessionResults.add(future.get());
+            }
+        } catch (RejectedExecutionException e) {
+            throw new ChatOverloadedException("Batch queue is full", retryAfterSeconds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConversationException("Batch interrupted");
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            LOGGER.error("Batch for bot " + uniqueBotId + " failed", e.getCause());
+            throw new ConversationException("Batch failed: " + e.getCause().getMessage());
+        } finally {
+            for (Future<SessionResult> future : futures) {
+                future.cancel(true);
+            }
+        }
+        long matched = System.nanoTime();
+
+        persist(sessionResults);
+        long persisted = System.nanoTime();
+
+        ChatBatchResponse chatBatchResponse = new ChatBatchResponse();
+        for (SessionResult sessionResult : sessionResults) {
+            chatBatchResponse.getSessions().add(sessionResult.response);
+        }
+        chatBatchResponse.setMatchMs(TimeUnit.NANOSECONDS.toMillis(matched - start));
+        chatBatchResponse.setPersistMs(TimeUnit.NANOSECONDS.toMillis(persisted - matched));
+        chatBatchResponse.setTotalMs(TimeUnit.NANOSECONDS.toMillis(persisted - start));
+        LOGGER.info("Batch of {} messages in {} sessions for bot {} done in {} ms (match {} ms, persist {} ms)",
+                messageCount, sessionResults.size(), uniqueBotId, chatBatchResponse.getTotalMs(),
+                chatBatchResponse.getMatchMs(), chatBatchResponse.getPersistMs());
+        return chatBatchResponse;
+    }
+
+    /**
+     * @return the number of messages in the batch
+     * @throws ConversationException, a 400, when the batch is too big or a session has no list of messages
+     */
+    private int validate(ChatBatchRequest chatBatchRequest) {
+        if (chatBatchRequest.getSessions() == null || chatBatchRequest.getSessions().isEmpty()) {
+            throw new ConversationException("Batch has no sessions");
+        }
+        int messageCount = 0;
+        for (int i = 0; i < chatBatchRequest.getSessions().size(); i++) {
+            ChatBatchRequest.Session session = chatBatchRequest.getSessions().get(i);
+            if (session == null || session.getMessages() == null || session.getMessages().contains(null)) {
+                throw new ConversationException("Session " + i + " of the batch has no messages or a null message");
+            }
+            messageCount += session.getMessages().size();
+        }
+        if (messageCount > maxMessages || chatBatchRequest.getSessions().size() > maxMessages) {
+            throw new ConversationException("Batch has " + messageCount + " messages, the max is " + maxMessages);
+        }
+        return messageCount;
+    }
+
+    private SessionResult processSession(String uniqueBotId, ChatBatchRequest.Session session,
+                                         SeerBotConfiguration seerBotConfiguration) {
+        String chatSessionId = StringUtils.isNotBlank(session.getChatSessionId()) ?
+                session.getChatSessionId() : UUID.randomUUID().toString();
+        ChatSession chatSession = new ChatSession(stateMachinePool);
+        chatSession.setCurrentSessionId(chatSessionId);
+        chatSession.setAuthCode(uniqueBotId);
+
+        SessionResult sessionResult = new SessionResult();
+        sessionResult.response.setChatSessionId(chatSessionId);
+        ChatData previousInputChat = null;
+        try {
+            for (String message : session.getMessages()) {
+                long start = System.nanoTime();
+                ChatData inputChat = new ChatData();
+                inputChat.setMessage(message);
+                inputChat.setAuthCode(uniqueBotId);
+                inputChat.setChatSessionId(chatSessionId);
+                inputChat.setCurrentSessionId(chatSessionId);
+                // the ids are only known once the batch is saved, so within a batch the chats are linked in memory
+                inputChat.setPreviousChat(previousInputChat);
+                chatNLPService.prepareInputChat(inputChat, seerBotConfiguration);
+
+                ChatBatchResponse.Item item = new ChatBatchResponse.Item();
+                item.setMessage(message);
+                ChatNLPService.ChatReply chatReply = null;
+                try {
+                    chatReply = chatNLPService.generateReply(inputChat, chatSession, seerBotConfiguration);
+                    item.setResponse(chatReply.getReply().getResponse());
+                    item.setIntent(chatReply.getTransaction().getIntent());
+                } catch (RuntimeException e) {
+                    // the rest of the session still runs, like it would if the messages came one by one
+                    LOGGER.warn("Batch message '" + message + "' of session " + chatSessionId + " failed", e);
+                    item.setError(e.getMessage());
+                }
+                item.setElapsedMs((System.nanoTime() - start) / 1_000_000.0);
+                sessionResult.response.getItems().add(item);
+                sessionResult.inputChats.add(inputChat);
+                sessionResult.chatReplies.add(chatReply);
+                previousInputChat = inputChat;
+            }
+        } finally {
+            // give the state machine of an unfinished conversation back to the pool
+            if (chatSession.isConversationActive()) {
+                chatSession.endCurrentConversation();
+            }
+        }
+        return sessionResult;
+    }
+
+    private void persist(List<SessionResult> sessionResults) {
+        List<ChatData> inputChats = new ArrayList<>();
+        for (SessionResult sessionResult : sessionResults) {
+            inputChats.addAll(sessionResult.inputChats);
+        }
+        transactionTemplate.execute(status -> {
+            // in request order, so a chat's previous chat is always saved before it
+            chatRepository.saveAll(inputChats);
+            List<ChatData> replies = new ArrayList<>(inputChats.size());
+            List<Transaction> transactions = new ArrayList<>(inputChats.size());
+            for (SessionResult sessionResult : sessionResults) {
+                for (int i = 0; i < sessionResult.inputChats.size(); i++) {
+                    ChatNLPService.ChatReply chatReply = sessionResult.chatReplies.get(i);
+                    if (chatReply != null) {
+                        chatNLPService.linkReplyToInputChat(chatReply.getReply(), sessionResult.inputChats.get(i));
+                        replies.add(chatReply.getReply());
+                        transactions.add(chatReply.getTransaction());
+                    }
+                }
+            }
+            chatRepository.saveAll(replies);
+            transactionRepository.saveAll(transactions);
+            return null;
+        });
+    }
+
+    private static class SessionResult {
+        private final ChatBatchResponse.Session response = new ChatBatchResponse.Session();
+        private final List<ChatData> inputChats = new ArrayList<>();
+        // null for the messages that failed
+        private final List<ChatNLPService.ChatReply> chatReplies = new ArrayList<>();
+    }
+
+    private static class BatchThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "chat-batch-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
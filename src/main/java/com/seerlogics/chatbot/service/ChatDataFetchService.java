@@ -6,6 +6,7 @@ import com.seerlogics.chatbot.noggin.ChatSession;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.VelocityEngine;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -29,6 +30,10 @@ public class ChatDataFetchService {
     @Autowired
     private ChatSession chatSession;
 
+    // base url of the events API, the event id is appended to it
+    @Value("${seerchat.eventsApi.url:http://localhost:8080/webflow/api/event/v1/}")
+    private String eventsApiUrl;
+
     public String getNearbyEvents(String addressOrZip) {
         // http://localhost:8080/webflow/api/event/v1/nearbyevents?lat=35.0535496&lng=-80.82116959999999&radius=20000
         /*ObjectMapper mapper = new ObjectMapper();
@@ -49,7 +54,7 @@ public class ChatDataFetchService {
 
     public boolean performEventDelete(Session session, String eventId) {
         ChatSession chatSession = (ChatSession) session;
-        String url = "http://localhost:8080/webflow/api/event/v1/" + eventId;
+        String url = eventsApiUrl + eventId;
         ResponseEntity<Boolean> responseMessage = null;
         try {
             HttpHeaders headers = new HttpHeaders();
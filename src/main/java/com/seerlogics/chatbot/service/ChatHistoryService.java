@@ -0,0 +1,344 @@
+package com.seerlogics.chatbot.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.seerlogics.chatbot.exception.ConversationException;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the chat history straight from the CHAT table and writes it to the response as it is read, so the memory
+ * used does not depend on how many chats match. The rows are read with a forward only, read only cursor in chunks of
+ * seerchat.history.fetchSize and each row is written with a streaming JSON generator; no entity is created.
+ * <p>
+ * Pages are keyset paginated on (CREATION_DATE, ID): the cursor is the key of the last chat of the page, so asking
+ * for the next page is the same index range scan no matter how deep into the history it is. The queries need an
+ * index on CHAT(OWNER_ACCOUNT_ID, CREATION_DATE, ID), which Hibernate does not create for the entity: it is created
+ * at startup when the CHAT table has no index starting with those columns.
+ */
+@Service
+@DependsOn("chatBotEntityManagerFactory")
+public class ChatHistoryService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChatHistoryService.class);
+
+    static final String HISTORY_INDEX = "IDX_CHAT_OWNER_HISTORY";
+
+    static final List<String> HISTORY_INDEX_COLUMNS = Arrays.asList("OWNER_ACCOUNT_ID", "CREATION_DATE", "ID");
+
+    private static final int DEFAULT_FETCH_SIZE = 500;
+
+    // MySQL Connector/J only streams the rows of a forward only, read only statement with this fetch size
+    private static final int MYSQL_STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+
+    private static final String SELECT_CHATS = "SELECT ID, CREATION_DATE, CHATSESSIONID, PREVIOUS_CHAT_ID, MESSAGE, "
+            + "RESPONSE, ACCOUNT_ID, OWNER_ACCOUNT_ID FROM CHAT";
+
+    private static final String ORDER_BY_KEY = " ORDER BY CREATION_DATE, ID";
+
+    private static final int FLUSH_EVERY_ROWS = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    /**
+     * Rows fetched from the DB at a time. 0 picks it for the DB: Integer.MIN_VALUE on MySQL, where any other value has
+     * the driver read all the rows in memory before the first one is returned, and 500 on the others.
+     */
+    @Value("${seerchat.history.fetchSize:0}")
+    private int fetchSize;
+
+    @Value("${seerchat.history.maxPageSize:500}")
+    private int maxPageSize;
+
+    public ChatHistoryService(@Qualifier("chatBotDataSource") DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @PostConstruct
+    private void init() {
+        String databaseProductName = jdbcTemplate.execute(
+                (ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+        if (fetchSize == 0) {
+            fetchSize = StringUtils.containsIgnoreCase(databaseProductName, "MySQL") ? MYSQL_STREAMING_FETCH_SIZE
+                    : DEFAULT_FETCH_SIZE;
+        }
+        LOGGER.info("Chat history is read from {} with a fetch size of {}", databaseProductName, fetchSize);
+        createHistoryIndex();
+    }
+
+    /**
+     * Creates the index the history pages are read with, unless the CHAT table already has an index that starts with
+     * its columns. Without one every page is a scan and sort of all the chats of the owner.
+     */
+    private void createHistoryIndex() {
+        try {
+            if (hasHistoryIndex()) {
+                return;
+            }
+            jdbcTemplate.execute("CREATE INDEX " + HISTORY_INDEX + " ON CHAT ("
+                    + String.join(", ", HISTORY_INDEX_COLUMNS) + ")");
+            LOGGER.info("Created the chat history index {}", HISTORY_INDEX);
+        } catch (RuntimeException e) {
+            LOGGER.error("Unable to create the index " + HISTORY_INDEX + " on CHAT(" + String.join(", ",
+                    HISTORY_INDEX_COLUMNS) + "), the chat history pages will scan the chats of the owner", e);
+        }
+    }
+
+    boolean hasHistoryIndex() {
+        return jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+            DatabaseMetaData metaData = connection.getMetaData();
+            // the table name is stored in upper or lower case depending on the DB
+            for (String table : new String[]{"CHAT", "chat"}) {
+                // index name -> its columns in order
+                Map<String, List<String>> indexColumns = new HashMap<>();
+                try (ResultSet indexInfo = metaData.getIndexInfo(connection.getCatalog(), null, table, false,
+                        true)) {
+                    while (indexInfo.next()) {
+                        String indexName = indexInfo.getString("INDEX_NAME");
+                        String columnName = indexInfo.getString("COLUMN_NAME");
+                        if (indexName == null || columnName == null) {
+                            continue;
+                        }
+                        List<String> columns = indexColumns.computeIfAbsent(indexName, name -> new ArrayList<>());
+                        int position = indexInfo.getShort("ORDINAL_POSITION");
+                        while (columns.size() < position) {
+                            columns.add(null);
+                        }
+                        columns.set(position - 1, columnName.toUpperCase());
+                    }
+                }
+                for (List<String> columns : indexColumns.values()) {
+                    if (columns.size() >= HISTORY_INDEX_COLUMNS.size()
+                            && columns.subList(0, HISTORY_INDEX_COLUMNS.size()).equals(HISTORY_INDEX_COLUMNS)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Body of {"items":[chat,...],"nextCursor":"..."} with at most pageSize chats of the owner, oldest first.
+     * nextCursor is null on the last page. The arguments are checked here, the chats are read when the body is
+     * written.
+     *
+     * @param ownerAccountId owner of the bot the chats are for
+     * @param chatSessionId  only the chats of this session, optional
+     * @param from           ISO-8601 instant, inclusive, optional
+     * @param to             ISO-8601 instant, exclusive, optional
+     * @param cursor         nextCursor of the previous page, null for the first page
+     */
+    public StreamingResponseBody page(String ownerAccountId, String chatSessionId, String from, String to,
+                                      String cursor, int pageSize) {
+        int limit = Math.max(1, Math.min(pageSize, maxPageSize));
+        List<Object> params = new ArrayList<>();
+        StringBuilder sql = new StringBuilder(SELECT_CHATS);
+        appendFilters(sql, params, ownerAccountId, chatSessionId, from, to);
+        if (StringUtils.isNotBlank(cursor)) {
+            ChatKey after = ChatKey.decode(cursor);
+            sql.append(" AND (CREATION_DATE > ? OR (CREATION_DATE = ? AND ID > ?))");
+            params.add(after.creationDate);
+            params.add(after.creationDate);
+            params.add(after.id);
+        }
+        // one more than the page to know if there is a next page
+        sql.append(ORDER_BY_KEY).append(" LIMIT ").append(limit + 1);
+
+        return outputStream -> write(outputStream, generator -> {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("items");
+            ChatKey[] lastKey = new ChatKey[1];
+            boolean[] hasMore = new boolean[1];
+            int[] written = new int[1];
+            query(sql.toString(), params, resultSet -> {
+                if (written[0] == limit) {
+                    hasMore[0] = true;
+                    return;
+                }
+                lastKey[0] = writeChat(generator, resultSet);
+                written[0]++;
+            });
+            generator.writeEndArray();
+            generator.writeStringField("nextCursor", hasMore[0] ? lastKey[0].encode() : null);
+            generator.writeEndObject();
+        });
+    }
+
+    /**
+     * Body with all the chats that match as one JSON array, oldest first. Either the owner or the chat session must
+     * be given.
+     */
+    public StreamingResponseBody all(String ownerAccountId, String chatSessionId, String from, String to) {
+        if (StringUtils.isBlank(ownerAccountId) && StringUtils.isBlank(chatSessionId)) {
+            throw new ConversationException("The owner account or the chat session is needed to read chats");
+        }
+        List<Object> params = new ArrayList<>();
+        StringBuilder sql = new StringBuilder(SELECT_CHATS);
+        appendFilters(sql, params, ownerAccountId, chatSessionId, from, to);
+        sql.append(ORDER_BY_KEY);
+
+        return outputStream -> write(outputStream, generator -> {
+            generator.writeStartArray();
+            int[] written = new int[1];
+            query(sql.toString(), params, resultSet -> {
+                writeChat(generator, resultSet);
+                if (++written[0] % FLUSH_EVERY_ROWS == 0) {
+                    generator.flush();
+                }
+            });
+            generator.writeEndArray();
+        });
+    }
+
+    private void appendFilters(StringBuilder sql, List<Object> params, String ownerAccountId, String chatSessionId,
+                               String from, String to) {
+        sql.append(" WHERE 1 = 1");
+        if (StringUtils.isNotBlank(ownerAccountId)) {
+            sql.append(" AND OWNER_ACCOUNT_ID = ?");
+            params.add(ownerAccountId);
+        }
+        if (StringUtils.isNotBlank(chatSessionId)) {
+            sql.append(" AND CHATSESSIONID = ?");
+            params.add(chatSessionId);
+        }
+        if (StringUtils.isNotBlank(from)) {
+            sql.append(" AND CREATION_DATE >= ?");
+            params.add(parseInstant(from));
+        }
+        if (StringUtils.isNotBlank(to)) {
+            sql.append(" AND CREATION_DATE < ?");
+            params.add(parseInstant(to));
+        }
+    }
+
+    private void query(String sql, List<Object> params, RowWriter rowWriter) {
+        PreparedStatementCreator forwardOnly = connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            for (int i = 0; i < params.size(); i++) {
+                statement.setObject(i + 1, params.get(i));
+            }
+            return statement;
+        };
+        jdbcTemplate.query(forwardOnly, resultSet -> {
+            try {
+                rowWriter.write(resultSet);
+            } catch (IOException e) {
+                // the client went away, stop reading
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private ChatKey writeChat(JsonGenerator generator, ResultSet resultSet) throws SQLException, IOException {
+        long id = resultSet.getLong("ID");
+        Timestamp creationDate = resultSet.getTimestamp("CREATION_DATE");
+        long previousChatId = resultSet.getLong("PREVIOUS_CHAT_ID");
+        boolean hasPreviousChat = !resultSet.wasNull();
+
+        generator.writeStartObject();
+        generator.writeNumberField("id", id);
+        generator.writeStringField("creationDate", creationDate == null ? null : creationDate.toInstant().toString());
+        generator.writeStringField("chatSessionId", resultSet.getString("CHATSESSIONID"));
+        if (hasPreviousChat) {
+            generator.writeStringField("previousChatId", String.valueOf(previousChatId));
+        } else {
+            generator.writeNullField("previousChatId");
+        }
+        generator.writeStringField("message", resultSet.getString("MESSAGE"));
+        generator.writeStringField("response", resultSet.getString("RESPONSE"));
+        generator.writeStringField("accountId", resultSet.getString("ACCOUNT_ID"));
+        generator.writeStringField("ownerAccountId", resultSet.getString("OWNER_ACCOUNT_ID"));
+        generator.writeEndObject();
+        return new ChatKey(creationDate, id);
+    }
+
+    private void write(OutputStream outputStream, JsonBody jsonBody) {
+        try (JsonGenerator generator = jsonFactory.createGenerator(outputStream)) {
+            jsonBody.write(generator);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Timestamp parseInstant(String instant) {
+        try {
+            return Timestamp.from(Instant.parse(instant));
+        } catch (DateTimeParseException e) {
+            throw new ConversationException("Invalid time '" + instant + "', expected an ISO-8601 instant like "
+                    + "2019-05-04T00:00:00Z");
+        }
+    }
+
+    @FunctionalInterface
+    private interface JsonBody {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface RowWriter {
+        void write(ResultSet resultSet) throws SQLException, IOException;
+    }
+
+    /**
+     * Key of a chat in the history order. The cursor is its URL safe base64 so clients treat it as opaque.
+     */
+    static class ChatKey {
+        final Timestamp creationDate;
+        final long id;
+
+        ChatKey(Timestamp creationDate, long id) {
+            this.creationDate = creationDate;
+            this.id = id;
+        }
+
+        String encode() {
+            Instant instant = creationDate == null ? Instant.EPOCH : creationDate.toInstant();
+            String key = instant.getEpochSecond() + ":" + instant.getNano() + ":" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static ChatKey decode(String cursor) {
+            try {
+                String[] key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+                Instant instant = Instant.ofEpochSecond(Long.parseLong(key[0]), Long.parseLong(key[1]));
+                return new ChatKey(Timestamp.from(instant), Long.parseLong(key[2]));
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                throw new ConversationException("Invalid cursor '" + cursor + "'");
+            }
+        }
+    }
+}
@@ -1,33 +1,49 @@
 package com.seerlogics.chatbot.service;
 
+import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.lingoace.util.CommonUtil;
 import com.rabidgremlin.mutters.core.IntentMatch;
 import com.rabidgremlin.mutters.core.IntentMatcher;
 import com.seerlogics.chatbot.exception.ConversationException;
 import com.seerlogics.chatbot.model.ChatData;
 import com.seerlogics.chatbot.model.Transaction;
-import com.seerlogics.chatbot.mutters.CustomOpenNLPIntentMatcher;
+import com.seerlogics.chatbot.mutters.IntentResponseIndex;
+import com.seerlogics.chatbot.mutters.NlpModelRegistry;
 import com.seerlogics.chatbot.mutters.SeerBotConfiguration;
+import com.seerlogics.chatbot.mutters.TrainedModelStore;
 import com.seerlogics.chatbot.noggin.ChatSession;
 import com.seerlogics.chatbot.repository.ChatRepository;
-import com.seerlogics.chatbot.repository.TransactionRepository;
+import com.seerlogics.chatbot.service.ChatPipelineMetrics.BotTimers;
+import com.seerlogics.chatbot.service.ChatPipelineMetrics.Outcome;
+import com.seerlogics.chatbot.service.ChatPipelineMetrics.Stage;
+import com.seerlogics.chatbot.view.WidgetJsonWriter;
+import com.seerlogics.chatbot.view.WidgetOption;
 import com.seerlogics.commons.CommonUtils;
-import com.seerlogics.commons.dto.SearchIntents;
 import com.seerlogics.commons.exception.DuplicateEntitiesFoundException;
 import com.seerlogics.commons.exception.NoEntityFoundException;
 import com.seerlogics.commons.exception.UIDisplayException;
 import com.seerlogics.commons.model.Account;
-import com.seerlogics.commons.model.Bot;
-import com.seerlogics.commons.model.Intent;
-import com.seerlogics.commons.model.IntentResponse;
+import com.seerlogics.commons.model.LaunchInfo;
 import com.seerlogics.commons.repository.BotRepository;
 import com.seerlogics.commons.repository.IntentRepository;
 import com.seerlogics.commons.repository.LaunchInfoRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.VelocityEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.MessageSource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -36,8 +52,12 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.io.StringWriter;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 /**
  * Created by bkane on 4/15/18.
@@ -46,9 +66,19 @@ import java.util.stream.Collectors;
 @Service
 public class ChatNLPService {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChatNLPService.class);
+
     private static final String CHAT_BOT = "ChatBot";
     public static final String RESOURCE_PREFIX = "res_";
     public static final String UTF_8 = "UTF-8";
+    private static final String ENGLISH = "en";
+    private static final String DO_NOT_UNDERSTAND_INTENT = "DoNotUnderstandIntent";
+    private static final String TEXT_WIDGET = "text";
+    private static final String OPTIONS_WIDGET = "options";
+    private static final String DELETE_CONFIRM_WIDGET = "deleteConfirm";
+    private static final String SEARCH_EVENTS_OPTIONS_WIDGET = "searchEventsOptions";
+    private static final String MAYBE_OPTIONS_WIDGET = "maybeOptions";
+    private static final String CACHE_KEY_SEPARATOR = "\u0000";
 
     private final ChatRepository chatRepository;
 
@@ -62,22 +92,70 @@ public class ChatNLPService {
 
     private final BotRepository botRepository;
 
-    private final TransactionRepository transactionRepository;
+    private final NlpModelRegistry nlpModelRegistry;
+
+    private final TrainedModelStore trainedModelStore;
+
+    private final ChatWriteBehindService chatWriteBehindService;
 
     // this will cache SeerBotConfiguration.
-    private Cache<String, SeerBotConfiguration> seerBotConfigurationCache;
+    private LoadingCache<String, SeerBotConfiguration> seerBotConfigurationCache;
+
+    /**
+     * Max number of SeerBotConfiguration that can be built at the same time across all the bots. Each build does DB
+     * lookups and parses the trained model so we do not want a burst of cache misses to run all of them at once.
+     */
+    @Value("${seerchat.maxConcurrentBotConfigBuilds:4}")
+    private int maxConcurrentBotConfigBuilds;
+
+    private Semaphore botConfigBuildPermits;
+
+    /**
+     * Rendered widget responses that depend only on the widget and the response string, keyed by both.
+     */
+    @Value("${seerchat.responseCache.maximumSize:10000}")
+    private long responseCacheMaximumSize;
+
+    /**
+     * Max number of distinct token sequences whose intent scores are cached per bot. 0 turns the cache off.
+     */
+    @Value("${seerchat.intentScoreCache.maximumSize:1000}")
+    private long intentScoreCacheMaximumSize;
+
+    private Cache<String, String> renderedResponseCache;
+
+    private final MeterRegistry meterRegistry;
+
+    private final WidgetJsonWriter widgetJsonWriter;
+
+    // seerchat.intent.exactMatch?tag=result:hit|miss shows how many utterances skipped the categorizer
+    private Counter exactUtteranceHits;
+
+    private Counter exactUtteranceMisses;
+
+    // seerchat.intent.globalRule?tag=rule:[name], by rule name so no tags are built per chat
+    private final ConcurrentMap<String, Counter> globalRuleCounters = new ConcurrentHashMap<>();
+
+    private final ChatPipelineMetrics chatPipelineMetrics;
 
     public ChatNLPService(LaunchInfoRepository launchInfoRepository, BotRepository botRepository,
                           ChatRepository chatRepository, VelocityEngine velocityEngine,
                           MessageSource messageSource, IntentRepository intentRepository,
-                          TransactionRepository transactionRepository) {
+                          NlpModelRegistry nlpModelRegistry, TrainedModelStore trainedModelStore,
+                          ChatWriteBehindService chatWriteBehindService, MeterRegistry meterRegistry,
+                          WidgetJsonWriter widgetJsonWriter, ChatPipelineMetrics chatPipelineMetrics) {
         this.launchInfoRepository = launchInfoRepository;
         this.botRepository = botRepository;
         this.chatRepository = chatRepository;
         this.velocityEngine = velocityEngine;
         this.messageSource = messageSource;
         this.intentRepository = intentRepository;
-        this.transactionRepository = transactionRepository;
+        this.nlpModelRegistry = nlpModelRegistry;
+        this.trainedModelStore = trainedModelStore;
+        this.chatWriteBehindService = chatWriteBehindService;
+        this.meterRegistry = meterRegistry;
+        this.widgetJsonWriter = widgetJsonWriter;
+        this.chatPipelineMetrics = chatPipelineMetrics;
     }
 
     /**
@@ -87,18 +165,58 @@ public class ChatNLPService {
      */
     @PostConstruct
     private void buildCache() {
+        botConfigBuildPermits = new Semaphore(maxConcurrentBotConfigBuilds);
+        /**
+         * When a configuration is evicted, replaced or removed give its shared NLP models back to the registry.
+         */
+        RemovalListener<String, SeerBotConfiguration> releaseSharedModels = notification -> {
+            notification.getValue().release();
+            // a bot that is removed or replaced is loaded again right away, only an evicted one gives up its timers
+            if (notification.wasEvicted()) {
+                chatPipelineMetrics.remove(notification.getKey());
+            }
+        };
         /**
          * The cache will be thread safe natively and will be accessed by 4 threads concurrently
          */
         seerBotConfigurationCache =
                 CacheBuilder.newBuilder().concurrencyLevel(10000).maximumSize(100000)
                         // expire items after 1 hour if not accessed in that time
-                        .expireAfterAccess(3600, TimeUnit.SECONDS).build();
+                        .expireAfterAccess(3600, TimeUnit.SECONDS)
+                        .removalListener(releaseSharedModels)
+                        .recordStats()
+                        /**
+                         * Concurrent requests for a bot that is not in the cache wait for the one build that is in
+                         * progress instead of each building their own. A failed build is not cached, the next
+                         * request for that bot will try again.
+                         */
+                        .build(new CacheLoader<String, SeerBotConfiguration>() {
+                            @Override
+                            public SeerBotConfiguration load(String uniqueBotId) throws Exception {
+                                return buildSeerBotConfiguration(uniqueBotId);
+                            }
+                        });
+
+        // size, hit/miss, load time and evictions under actuator/metrics/cache.*?tag=cache:seerBotConfigurationCache
+        GuavaCacheMetrics.monitor(meterRegistry, seerBotConfigurationCache, "seerBotConfigurationCache");
+        Gauge.builder("seerchat.botConfigurationCache.hitRatio", seerBotConfigurationCache,
+                cache -> cache.stats().hitRate()).description("Hit ratio of the bot configuration cache")
+                .register(meterRegistry);
+
+        renderedResponseCache = CacheBuilder.newBuilder().maximumSize(responseCacheMaximumSize).recordStats().build();
+        // hit/miss/eviction stats under actuator/metrics/cache.*?tag=cache:renderedResponseCache
+        GuavaCacheMetrics.monitor(meterRegistry, renderedResponseCache, "renderedResponseCache");
+
+        exactUtteranceHits = Counter.builder("seerchat.intent.exactMatch").tag("result", "hit")
+                .description("Utterances matched by the exact utterance index").register(meterRegistry);
+        exactUtteranceMisses = Counter.builder("seerchat.intent.exactMatch").tag("result", "miss")
+                .description("Utterances that had to be scored by the intent model").register(meterRegistry);
     }
 
     @PreDestroy
     private void destroyCache() {
         seerBotConfigurationCache.invalidateAll();
+        renderedResponseCache.invalidateAll();
     }
 
     /**
@@ -109,13 +227,58 @@ public class ChatNLPService {
      * @return
      */
     public SeerBotConfiguration getSeerBotConfiguration(String uniqueBotId) {
-        SeerBotConfiguration seerBotConfiguration = this.seerBotConfigurationCache.asMap().get(uniqueBotId);
-        if (seerBotConfiguration == null) {
-            seerBotConfiguration = new SeerBotConfiguration(uniqueBotId, intentRepository,
-                    launchInfoRepository, botRepository);
-            this.seerBotConfigurationCache.put(uniqueBotId, seerBotConfiguration);
+        try {
+            return this.seerBotConfigurationCache.getUnchecked(uniqueBotId);
+        } catch (UncheckedExecutionException | ExecutionError e) {
+            // surface the original error such as ConversationException so that it is handled as before.
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new ConversationException("Error building bot configuration for " + uniqueBotId, e.getCause(),
+                    ConversationException.Type.ERROR_READING_BOT_CONFIG);
         }
-        return seerBotConfiguration;
+    }
+
+    /**
+     * @param xBotId         the bot the widget is for
+     * @param customerOrigin the origin of the page the widget is on
+     * @return true if the bot is launched for that origin
+     */
+    public boolean isValidBotAccess(String xBotId, String customerOrigin) {
+        if (StringUtils.isBlank(xBotId) || StringUtils.isBlank(customerOrigin)) {
+            LOGGER.error("Either X-Bot-Id or X-Customer-Origin is invalid");
+            return false;
+        }
+
+        LaunchInfo launchInfo = this.getSeerBotConfiguration(xBotId).getLaunchInfo();
+        boolean allValid = launchInfo.getUniqueBotId().equals(xBotId) &&
+                customerOrigin.equals(launchInfo.getAllowedOrigins());
+        if (!allValid) {
+            LOGGER.error("Invalid access: incoming xBotId = {} , actual botId = {} , xCustomerOrigin = {} "
+                            + ", Actual Origin = {} ", xBotId, launchInfo.getUniqueBotId(),
+                    customerOrigin, launchInfo.getAllowedOrigins());
+        }
+        return allValid;
+    }
+
+    private SeerBotConfiguration buildSeerBotConfiguration(String uniqueBotId) throws InterruptedException {
+        botConfigBuildPermits.acquire();
+        try {
+            long start = System.currentTimeMillis();
+            SeerBotConfiguration seerBotConfiguration = new SeerBotConfiguration(uniqueBotId, intentRepository,
+                    launchInfoRepository, botRepository, nlpModelRegistry, trainedModelStore,
+                    intentScoreCacheMaximumSize);
+            seerBotConfiguration.setMatchStageListener(chatPipelineMetrics.register(uniqueBotId));
+            LOGGER.info("Built bot configuration for {} in {} ms", uniqueBotId, System.currentTimeMillis() - start);
+            return seerBotConfiguration;
+        } finally {
+            botConfigBuildPermits.release();
+        }
+    }
+
+    /**
+     * @return snapshot of the configurations currently in the cache by uniqueBotId
+     */
+    public Map<String, SeerBotConfiguration> getSeerBotConfigurations() {
+        return new HashMap<>(this.seerBotConfigurationCache.asMap());
     }
 
     public void removeSeerBotConfiguration(String uniqueBotId) {
@@ -127,43 +290,109 @@ public class ChatNLPService {
     }
 
     public ChatData generateChatBotResponse(ChatData inputChatRequest, ChatSession chatSession) {
-        // Save the incoming message
-        String previousChatId = inputChatRequest.getPreviousChatId();
-        if (StringUtils.isNotBlank(previousChatId)) {
-            ChatData previousChat = chatRepository.getOne(Long.parseLong(previousChatId));
-            inputChatRequest.setPreviousChat(previousChat);
-            chatSession.setPreviousChat(previousChat);
+        long start = System.nanoTime();
+        // the previous chat is the last one saved for this session. The previousChatId the client sent is not used,
+        // it could be the id of any chat, of another session or of none. getOne is only a reference for the foreign
+        // key, the previous chat entity is never loaded.
+        String previousChatId = chatSession.getPreviousChatId();
+        inputChatRequest.setPreviousChatId(previousChatId);
+        if (StringUtils.isNumeric(previousChatId)) {
+            inputChatRequest.setPreviousChat(chatRepository.getOne(Long.parseLong(previousChatId)));
         }
 
-        Account owner = this.getSeerBotConfiguration(inputChatRequest.getAuthCode()).getTargetBot().getOwner();
+        SeerBotConfiguration seerBotConfiguration = this.getSeerBotConfiguration(inputChatRequest.getAuthCode());
+        long configEnd = System.nanoTime();
+        ChatData savedInputChat = chatRepository.save(prepareInputChat(inputChatRequest, seerBotConfiguration));
+        chatSession.setPreviousChatId(String.valueOf(savedInputChat.getId()));
+        long saveEnd = System.nanoTime();
+
+        ChatReply chatReply = generateReply(inputChatRequest, chatSession, seerBotConfiguration);
+        ChatData outChatData = chatReply.getReply();
+        linkReplyToInputChat(outChatData, savedInputChat);
+        long enqueueStart = System.nanoTime();
+        /**
+         * The incoming chat is saved right away since its id goes back to the widget as the previousChatId. The
+         * reply and the transaction are not needed before the response is sent so they are written behind.
+         */
+        chatWriteBehindService.save(outChatData);
+        chatWriteBehindService.save(chatReply.getTransaction());
+        long end = System.nanoTime();
+
+        // the outcome is only known once the chat is matched so the stages before that are recorded here
+        BotTimers timers = chatPipelineMetrics.of(inputChatRequest.getAuthCode());
+        Outcome outcome = chatReply.getOutcome();
+        timers.record(Stage.CONFIG, outcome, configEnd - start);
+        timers.record(Stage.SAVE, outcome, saveEnd - configEnd);
+        timers.record(Stage.ENQUEUE, outcome, end - enqueueStart);
+        timers.record(Stage.TOTAL, outcome, end - start);
+
+        return outChatData;
+    }
 
-        String ownerUserName = owner.getUserName();
+    /**
+     * Sets the account of an incoming chat before it is saved.
+     */
+    public ChatData prepareInputChat(ChatData inputChatRequest, SeerBotConfiguration seerBotConfiguration) {
+        String ownerUserName = seerBotConfiguration.getOwnerUserName();
         // for incoming chats both accountId and owner account will be same
         inputChatRequest.setAccountId(ownerUserName);
         inputChatRequest.setOwnerAccountId(ownerUserName);
-        ChatData savedInputChat = chatRepository.save(inputChatRequest);
+        return inputChatRequest;
+    }
 
-        // create new reply message and save that to the DB
-        ChatData outChatData = new ChatData();
+    public void linkReplyToInputChat(ChatData outChatData, ChatData savedInputChat) {
+        outChatData.setPreviousChatId(String.valueOf(savedInputChat.getId()));
+        outChatData.setPreviousChat(savedInputChat);
+    }
 
-        IntentMatcher intentMatcher = this.getSeerBotConfiguration(inputChatRequest.getAuthCode()).
-                getIntentMatcher();
-        IntentMatch match = handleSalutation(inputChatRequest.getMessage(), intentMatcher);
+    /**
+     * Matches the incoming chat and builds the reply and the transaction for it, moving the conversation of the
+     * session along. Nothing is saved here, the caller saves the incoming chat, links the reply to it with
+     * {@link #linkReplyToInputChat} and saves the reply and the transaction.
+     */
+    public ChatReply generateReply(ChatData inputChatRequest, ChatSession chatSession,
+                                   SeerBotConfiguration seerBotConfiguration) {
+        Account owner = seerBotConfiguration.getTargetBot().getOwner();
+        String ownerUserName = seerBotConfiguration.getOwnerUserName();
+
+        // create new reply message
+        ChatData outChatData = new ChatData();
 
-        if (match == null) {
-            match = intentMatcher.match(inputChatRequest.getMessage(), chatSession.getContext(),
-                    null, new HashMap<>());
+        IntentMatcher intentMatcher = seerBotConfiguration.getIntentMatcher();
+        long matchStart = System.nanoTime();
+        Outcome outcome;
+        // greetings, thanks etc. from the globalIntents of botConfig.json do not need the intent model
+        IntentMatch match = seerBotConfiguration.getGlobalIntentEngine().match(inputChatRequest.getMessage());
+        if (match != null) {
+            outcome = Outcome.GLOBAL;
+            getGlobalRuleCounter(match.getIntent().getName()).increment();
+        } else {
+            // button clicks and canned phrases are trained utterances, no need to score them with the model.
+            match = seerBotConfiguration.getExactUtteranceIndex().match(inputChatRequest.getMessage());
+            if (match != null) {
+                outcome = Outcome.EXACT;
+                exactUtteranceHits.increment();
+            } else {
+                exactUtteranceMisses.increment();
+                match = intentMatcher.match(inputChatRequest.getMessage(), chatSession.getContext(),
+                        null, new HashMap<>());
+                outcome = match != null ? Outcome.MODEL : Outcome.NONE;
+            }
         }
+        long matchNanos = System.nanoTime() - matchStart;
 
         outChatData.setMessage(inputChatRequest.getMessage());
 
         boolean isConversation = false;
+        long renderStart;
         // set the converation id before it gets wiped out below in case user calls it quits
         String conversationId = chatSession.getCurrentConversationId();
         if (chatSession.isConversationActive()) {
             isConversation = true;
             String responseKey = chatSession.decideNextResponseInConversation(outChatData);
-            outChatData.setResponse(convertToVelocityResponse(getMessage(responseKey, chatSession), chatSession));
+            String response = getMessage(responseKey, chatSession);
+            renderStart = System.nanoTime();
+            outChatData.setResponse(convertToVelocityResponse(response, chatSession));
             /*Object customResponse = chatSession.getAttribute(RESOURCE_PREFIX
                                             + responseKey.toLowerCase() + "CustomResponse");
             if (customResponse != null) {
@@ -181,26 +410,28 @@ public class ChatNLPService {
         } else if (match != null && chatSession.isIntentConversationStarter(match.getIntent().getName())) {
             chatSession.startConversation(match.getIntent().getName());
             String responseKey = chatSession.getCurrentStateMachineHandler().getCurrentState();
-            outChatData.setResponse(convertToVelocityResponse(getMessage(responseKey, chatSession), chatSession));
+            String response = getMessage(responseKey, chatSession);
+            renderStart = System.nanoTime();
+            outChatData.setResponse(convertToVelocityResponse(response, chatSession));
             isConversation = true;
         } else {
-            outChatData.setResponse(convertToVelocityResponse(getMessage(match, inputChatRequest), chatSession));
+            String response = getMessage(match, inputChatRequest);
+            renderStart = System.nanoTime();
+            outChatData.setResponse(convertToVelocityResponse(response, chatSession));
         }
+        long renderNanos = System.nanoTime() - renderStart;
 
         // out chats will have CHAT_BOT accountId
         outChatData.setAccountId(CHAT_BOT);
         outChatData.setOwnerAccountId(ownerUserName);
         outChatData.setCurrentSessionId(chatSession.getCurrentSessionId());
         outChatData.setChatSessionId(inputChatRequest.getChatSessionId());
-        outChatData.setPreviousChatId(String.valueOf(savedInputChat.getId()));
-        outChatData.setPreviousChat(savedInputChat);
         outChatData.setAuthCode(inputChatRequest.getAuthCode());
-        chatRepository.save(outChatData);
 
-        // finally save the transaction.
+        // finally the transaction.
         Transaction transaction = new Transaction();
         transaction.setAccountId(owner.getId());
-        transaction.setTargetBotId(this.getSeerBotConfiguration(inputChatRequest.getAuthCode()).getTargetBot().getId());
+        transaction.setTargetBotId(seerBotConfiguration.getTargetBot().getId());
         transaction.setSuccess(match != null);
         if (match != null && !isConversation) {
             transaction.setIntent(match.getIntent().getName());
@@ -213,51 +444,116 @@ public class ChatNLPService {
         transaction.setResolved(false);
         transaction.setIgnore(false);
         transaction.setUtterance(inputChatRequest.getMessage());
-        transactionRepository.save(transaction);
 
-        return outChatData;
+        BotTimers timers = chatPipelineMetrics.of(inputChatRequest.getAuthCode());
+        timers.record(Stage.MATCH, outcome, matchNanos);
+        timers.record(Stage.RENDER, outcome, renderNanos);
+
+        return new ChatReply(outChatData, transaction, match, outcome);
+    }
+
+    private Counter getGlobalRuleCounter(String rule) {
+        Counter counter = globalRuleCounters.get(rule);
+        if (counter == null) {
+            counter = globalRuleCounters.computeIfAbsent(rule,
+                    name -> meterRegistry.counter("seerchat.intent.globalRule", "rule", name));
+        }
+        return counter;
+    }
+
+    /**
+     * The reply to a chat and the transaction recording it, neither saved yet.
+     */
+    public static class ChatReply {
+        private final ChatData reply;
+        private final Transaction transaction;
+        private final IntentMatch intentMatch;
+        private final Outcome outcome;
+
+        ChatReply(ChatData reply, Transaction transaction, IntentMatch intentMatch, Outcome outcome) {
+            this.reply = reply;
+            this.transaction = transaction;
+            this.intentMatch = intentMatch;
+            this.outcome = outcome;
+        }
+
+        public ChatData getReply() {
+            return reply;
+        }
+
+        public Transaction getTransaction() {
+            return transaction;
+        }
+
+        /**
+         * @return the intent the chat matched or null if it did not match any
+         */
+        public IntentMatch getIntentMatch() {
+            return intentMatch;
+        }
+
+        /**
+         * @return what matched the chat: a global rule, an exact utterance, the intent model or nothing
+         */
+        public Outcome getOutcome() {
+            return outcome;
+        }
+    }
+
+    /**
+     * Returns the cached rendering of the widget for the input or renders it and caches it. Only use this for
+     * renderings that depend on nothing but the input.
+     */
+    private String getRenderedResponse(String widget, String input, Callable<String> renderer) {
+        try {
+            return renderedResponseCache.get(widget + CACHE_KEY_SEPARATOR + input, renderer);
+        } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            LOGGER.error("Error rendering " + widget, e.getCause());
+            throw new ConversationException("Error rendering " + widget + ": " + e.getCause().getMessage());
+        }
     }
 
     private String buildPlainTextResponse(String response) {
-        VelocityContext context = new VelocityContext();
-        context.put("response", response);
-        StringWriter stringWriter = new StringWriter();
-        velocityEngine.mergeTemplate("/velocity/simpleTexts.vm", UTF_8, context, stringWriter);
-        return stringWriter.toString().replaceAll("\\n", "");
+        return getRenderedResponse(TEXT_WIDGET, response, () -> widgetJsonWriter.writeText(response));
     }
 
+    // this depends on the session attributes so it is rendered every time.
     private String buildCustomVelocityResponse(String velocityTemplate, ChatSession chatSession) {
         VelocityContext context = new VelocityContext();
         context.put("attributes", chatSession.getAllAttributes());
         StringWriter stringWriter = new StringWriter();
         velocityEngine.mergeTemplate("/velocity" + velocityTemplate, UTF_8, context, stringWriter);
-        return stringWriter.toString().replaceAll("\\n", "").replace("\\t", "");
+        return StringUtils.remove(stringWriter.toString(), '\n').replace("\\t", "");
     }
 
-    private Intent getIntentForIntentName(String intentName, Bot targetBot) {
-        SearchIntents searchIntents = new SearchIntents();
-        searchIntents.setIntentName(intentName);
-        searchIntents.setCategory(targetBot.getCategory());
-        searchIntents.setOwnerAccount(targetBot.getOwner());
-        List<Intent> matchingIntents = this.intentRepository.findIntentsAndUtterances(searchIntents);
-        if (matchingIntents.size() > 1) {
+    /**
+     * Gets the responses of the bot's intents from the index built when the SeerBotConfiguration was loaded.
+     *
+     * @param intentName           intent that needs to be defined exactly once for the bot.
+     * @param seerBotConfiguration configuration of the bot
+     * @return the response index of the bot
+     */
+    private IntentResponseIndex getIntentResponses(String intentName, SeerBotConfiguration seerBotConfiguration) {
+        IntentResponseIndex intentResponseIndex = seerBotConfiguration.getIntentResponseIndex();
+        if (intentResponseIndex.isDuplicateIntent(intentName)) {
             String message = "Duplicate Intents found for intent = " + intentName;
             CommonUtils.throwUIDisplayException(message, new DuplicateEntitiesFoundException(message));
-        } else if (matchingIntents.size() == 0) {
+        } else if (!intentResponseIndex.containsIntent(intentName)) {
             String message = "No Intents found for for intent = " + intentName;
             CommonUtils.throwUIDisplayException(message, new NoEntityFoundException(message));
         }
-        return matchingIntents.get(0);
+        return intentResponseIndex;
     }
 
     public ChatData generateInitiateChatResponse(ChatData inChat, ChatSession chatSession) {
-        Bot targetBot = this.getSeerBotConfiguration(inChat.getAuthCode()).getTargetBot();
-        Intent initiateIntent = getIntentForIntentName(inChat.getMessage(), targetBot);
+        SeerBotConfiguration seerBotConfiguration = this.getSeerBotConfiguration(inChat.getAuthCode());
+        String initiateResponseMessage =
+                getIntentResponses(inChat.getMessage(), seerBotConfiguration).getFirstResponse(inChat.getMessage());
         ChatData initiateResponse = new ChatData();
         initiateResponse.setMessage(inChat.getMessage());
-        if (initiateIntent != null) {
-            List<IntentResponse> response = new ArrayList<>(initiateIntent.getResponses());
-            initiateResponse.setResponse(convertToVelocityResponse(response.get(0).getResponse(), chatSession));
+        if (initiateResponseMessage != null) {
+            initiateResponse.setResponse(convertToVelocityResponse(initiateResponseMessage, chatSession));
         } else {
             initiateResponse.setResponse(
                     convertToVelocityResponse(messageSource.getMessage("res_initialResponse",
@@ -266,11 +562,10 @@ public class ChatNLPService {
         initiateResponse.setChatSessionId(chatSession.getCurrentSessionId());
         initiateResponse.setCurrentSessionId(chatSession.getCurrentSessionId());
         initiateResponse.setAuthCode(inChat.getAuthCode());
-        String ownerUserName =
-                this.getSeerBotConfiguration(inChat.getAuthCode()).getTargetBot().getOwner().getUserName();
+        String ownerUserName = seerBotConfiguration.getOwnerUserName();
         initiateResponse.setAccountId(CHAT_BOT);
         initiateResponse.setOwnerAccountId(ownerUserName);
-        chatRepository.save(initiateResponse);
+        chatWriteBehindService.save(initiateResponse);
         return initiateResponse;
     }
 
@@ -282,58 +577,36 @@ public class ChatNLPService {
      * @return
      */
     private String getMessage(IntentMatch intent, ChatData inputChatRequest) {
+        SeerBotConfiguration seerBotConfiguration = this.getSeerBotConfiguration(inputChatRequest.getAuthCode());
         if (intent != null) {
             Object matchingIntent = intent.getIntent();
-            IntentResponse responseToSend;
+            String responseToSend;
             // this will occur if there is a match with intent defined by the customer.
             if (matchingIntent instanceof com.seerlogics.chatbot.mutters.Intent) {
                 com.seerlogics.chatbot.mutters.Intent muttersIntent =
                         (com.seerlogics.chatbot.mutters.Intent) intent.getIntent();
-                Intent dbIntent = intentRepository.getOne(muttersIntent.getDbIntent().getId());
-                List<IntentResponse> intentResponses =
-                        dbIntent.getResponses().stream().filter(
-                                intentResponse -> intentResponse.getLocale().contains("en"))
-                                .collect(Collectors.toList());
-                if (intentResponses.size() > 1) {
-                    throw new ConversationException("Multiple responses found...");
-                }
-                responseToSend = intentResponses.get(0);
+                responseToSend = seerBotConfiguration.getIntentResponseIndex()
+                        .getResponse(muttersIntent.getDbIntent().getId(), ENGLISH);
             } else if (matchingIntent != null) { // this will happen when there is a MayBe match
                 com.rabidgremlin.mutters.core.Intent maybeIntent = intent.getIntent();
-                Bot targetBot = this.getSeerBotConfiguration(inputChatRequest.getAuthCode()).getTargetBot();
                 String mayBeIntentName = maybeIntent.getName();
-                Intent dbMayBeIntent = getIntentForIntentName(mayBeIntentName, targetBot);
-                if (dbMayBeIntent != null) {
-                    List<IntentResponse> intentResponses =
-                            dbMayBeIntent.getResponses().stream().filter(
-                                    intentResponse -> intentResponse.getLocale().contains("en")).
-                                    collect(Collectors.toList());
-                    if (intentResponses.size() > 1) {
-                        throw new ConversationException("Multiple responses found...");
-                    }
-                    responseToSend = intentResponses.get(0);
-                } else { // if no MayBe intent defined in DB.
-                    responseToSend = this.getDoNotUnderstandIntent(inputChatRequest);
-                }
+                responseToSend = getIntentResponses(mayBeIntentName, seerBotConfiguration)
+                        .getResponse(mayBeIntentName, ENGLISH);
             } else { // catch ALL
-                responseToSend = this.getDoNotUnderstandIntent(inputChatRequest);
+                responseToSend = this.getDoNotUnderstandIntent(seerBotConfiguration);
             }
-            return responseToSend.getResponse();
+            // the intent has no english response
+            return responseToSend != null ? responseToSend : this.getDoNotUnderstandIntent(seerBotConfiguration);
         } else {
-            return getDoNotUnderstandIntent(inputChatRequest).getResponse();
+            return getDoNotUnderstandIntent(seerBotConfiguration);
         }
     }
 
-    private IntentResponse getDoNotUnderstandIntent(ChatData inputChatRequest) {
-        Bot targetBot = this.getSeerBotConfiguration(inputChatRequest.getAuthCode()).getTargetBot();
-        Intent doNotUnderstandIntent = getIntentForIntentName("DoNotUnderstandIntent", targetBot);
-        List<IntentResponse> intentResponses =
-                doNotUnderstandIntent.getResponses().stream().filter(intentResponse ->
-                        intentResponse.getLocale().contains("en")).collect(Collectors.toList());
-        if (intentResponses.size() > 1) {
-            throw new ConversationException("Multiple responses found...");
-        }
-        return intentResponses.get(0);
+    private String getDoNotUnderstandIntent(SeerBotConfiguration seerBotConfiguration) {
+        String response = getIntentResponses(DO_NOT_UNDERSTAND_INTENT, seerBotConfiguration)
+                .getResponse(DO_NOT_UNDERSTAND_INTENT, ENGLISH);
+        return response != null ? response :
+                messageSource.getMessage("res_iDoNotUnderstand", new Object[]{}, Locale.getDefault());
     }
 
     private String getMessage(String key, ChatSession chatSession) {
@@ -352,32 +625,27 @@ public class ChatNLPService {
     }
 
     private String buildOptionsResponse(String response) {
+        return getRenderedResponse(OPTIONS_WIDGET, response, () -> renderOptionsResponse(response));
+    }
+
+    private String renderOptionsResponse(String response) {
         String[] messageParts = StringUtils.split(response, "|");
         String mainMessage = messageParts[0];
-        List<Map> allOptions = new ArrayList<>(messageParts.length - 1);
+        List<WidgetOption> allOptions = new ArrayList<>(messageParts.length - 1);
         for (int i = 1, messagePartsLength = messageParts.length; i < messagePartsLength; i++) {
-            Map<String, String> option = new HashMap<>();
-            allOptions.add(option);
             String messagePart = messageParts[i];
             String[] optionParts = StringUtils.split(messagePart, "&");
             String firstPart = optionParts[0];
             String secondPart = optionParts[1];
             if (firstPart.contains("butt=")) {
-                option.put("option", StringUtils.split(firstPart, "=")[1]);
-                option.put("type", "button");
-                option.put("clickResponse", StringUtils.split(secondPart, "=")[1]);
+                allOptions.add(new WidgetOption(StringUtils.split(firstPart, "=")[1], WidgetOption.BUTTON,
+                        StringUtils.split(secondPart, "=")[1]));
             } else if (firstPart.contains("link=")) {
-                option.put("option", StringUtils.split(firstPart, "=")[1]);
-                option.put("type", "link");
-                option.put("clickResponse", StringUtils.split(secondPart, "=")[1]);
+                allOptions.add(new WidgetOption(StringUtils.split(firstPart, "=")[1], WidgetOption.LINK,
+                        StringUtils.split(secondPart, "=")[1]));
             }
         }
-        VelocityContext context = new VelocityContext();
-        context.put("allOptions", allOptions);
-        context.put("message", mainMessage);
-        StringWriter stringWriter = new StringWriter();
-        velocityEngine.mergeTemplate("/velocity/optionsResponse.vm", "UTF-8", context, stringWriter);
-        return stringWriter.toString().replaceAll("\\n", "");
+        return widgetJsonWriter.writeOptions(mainMessage, allOptions);
     }
 
     private String loadInitiateResponse() {
@@ -386,71 +654,34 @@ public class ChatNLPService {
     }
 
     public String getGenericConfirmMessage() {
-        VelocityContext context = new VelocityContext();
-        context.put("message", messageSource.getMessage("res_areYouSureYouWantToDelete",
-                new Object[]{}, Locale.getDefault()));
-        StringWriter stringWriter = new StringWriter();
-        velocityEngine.mergeTemplate("/velocity/deleteConfirm.vm", "UTF-8", context, stringWriter);
-        return stringWriter.toString().replaceAll("\\n", "");
+        String message = messageSource.getMessage("res_areYouSureYouWantToDelete", new Object[]{}, Locale.getDefault());
+        return getRenderedResponse(DELETE_CONFIRM_WIDGET, message, () -> widgetJsonWriter.writeDeleteConfirm(message));
     }
 
     public String getSearchAllEventsOptionsMessage() {
-        VelocityContext context = new VelocityContext();
-        StringWriter stringWriter = new StringWriter();
-        velocityEngine.mergeTemplate("/velocity/searchEventsOptions.vm", "UTF-8", context, stringWriter);
-        return stringWriter.toString().replaceAll("\\n", "");
+        return getRenderedResponse(SEARCH_EVENTS_OPTIONS_WIDGET, "", widgetJsonWriter::writeSearchEventsOptions);
     }
 
     public String getMayBeOptionsMessage(String intent) {
-        VelocityContext context = new VelocityContext();
-        context.put("message", messageSource.getMessage("res_" + intent.toLowerCase() + "_message",
-                new Object[]{}, Locale.getDefault()));
+        String message = messageSource.getMessage("res_" + intent.toLowerCase() + "_message",
+                new Object[]{}, Locale.getDefault());
         String options = messageSource.getMessage("res_" + intent.toLowerCase() + "_options", new Object[]{}, Locale.getDefault());
+        return getRenderedResponse(MAYBE_OPTIONS_WIDGET, message + CACHE_KEY_SEPARATOR + options,
+                () -> renderMayBeOptionsMessage(message, options));
+    }
+
+    private String renderMayBeOptionsMessage(String message, String options) {
         String[] splitOptions = StringUtils.split(options, "*");
-        List<Map> allOptions = new ArrayList<>(splitOptions.length);
+        List<WidgetOption> allOptions = new ArrayList<>(splitOptions.length);
         for (String splitOption : splitOptions) {
-            Map<String, String> currentOption = new HashMap<>();
             String[] secSplitOptions = StringUtils.split(splitOption, "|");
-            currentOption.put("whatCanBeDone", secSplitOptions[0]);
-            currentOption.put("clickResponse", secSplitOptions[1]);
-            allOptions.add(currentOption);
-        }
-        context.put("options", allOptions);
-        StringWriter stringWriter = new StringWriter();
-        velocityEngine.mergeTemplate("/velocity/maybeOptions.vm", "UTF-8", context, stringWriter);
-        return stringWriter.toString().replaceAll("\\n", "");
-    }
-
-    public IntentMatch handleSalutation(String message, IntentMatcher intentMatcher) {
-        CustomOpenNLPIntentMatcher customOpenNLPIntentMatcher = (CustomOpenNLPIntentMatcher) intentMatcher;
-        String[] wordsInMessage = message.split(" ");
-        List<String> saluations = Arrays.asList("Hi".toUpperCase(), "Hello".toUpperCase(), "Hey".toUpperCase(),
-                "Ola".toUpperCase(), "Namaste".toUpperCase(), "Chiao".toUpperCase());
-        boolean containsSalutation = true;
-        for (String s : wordsInMessage) {
-            if (!saluations.contains(StringUtils.replaceEach(s.trim().toUpperCase(),
-                                        new String[]{"!", "?", "'", "\""}, new String[]{"", "", "", ""}))) {
-                containsSalutation = false;
-            }
-        }
-
-        if (containsSalutation) {
-            com.rabidgremlin.mutters.core.Intent intent = customOpenNLPIntentMatcher.getIntentsCopy().get("HI");
-            return new IntentMatch(intent, null, message);
+            allOptions.add(new WidgetOption(secSplitOptions[0], WidgetOption.LINK, secSplitOptions[1]));
         }
-        return null;
+        return widgetJsonWriter.writeMaybeOptions(message, allOptions);
     }
 
     public List<ChatData> findByAccountId(String userName) {
         return chatRepository.findByAccountId(userName);
     }
 
-    public List<ChatData> findAll() {
-        return chatRepository.findAll();
-    }
-
-    public List<ChatData> findByChatSessionId(String chatsessionId) {
-        return chatRepository.findByChatSessionId(chatsessionId);
-    }
-
 }
@@ -0,0 +1,191 @@
+package com.seerlogics.chatbot.service;
+
+import com.seerlogics.chatbot.mutters.MatchStageListener;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Times each stage of a chat twice: under seerchat.chat.stage, tagged with the stage and how the chat was matched, and
+ * under seerchat.chat.bot.stage, tagged with the bot as well. Only seerchat.chat.stage has the histogram buckets for
+ * Prometheus, from 100 microseconds to 10 seconds, so the number of bucket series does not grow with the bots. The
+ * bot timers have the count, the total and the max.
+ * <p>
+ * A bot's timers are registered once and kept until its configuration is evicted, so the number of bot tags is the
+ * number of bots in the configuration cache. Recording a time is an array lookup and Timer.record, no tags are built
+ * per chat.
+ */
+@Component
+public class ChatPipelineMetrics {
+
+    public enum Stage {
+        // getSeerBotConfiguration
+        CONFIG,
+        // global rules, exact utterances and the intent model together
+        MATCH,
+        // the parts of a match by the intent model
+        TOKENIZE,
+        SCORE,
+        SLOTS,
+        // building the reply widget
+        RENDER,
+        // saving the incoming chat
+        SAVE,
+        // handing the reply and the transaction to the write behind
+        ENQUEUE,
+        TOTAL;
+
+        private final String tag = name().toLowerCase();
+    }
+
+    public enum Outcome {
+        GLOBAL,
+        EXACT,
+        MODEL,
+        NONE;
+
+        private final String tag = name().toLowerCase();
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private static final Outcome[] OUTCOMES = Outcome.values();
+
+    private final MeterRegistry meterRegistry;
+
+    // seerchat.chat.stage by stage and outcome, registered on first use
+    private final AtomicReferenceArray<Timer> stageTimers = new AtomicReferenceArray<>(STAGES.length * OUTCOMES.length);
+
+    // for the chats of a bot whose configuration was evicted while they were using it
+    private final BotTimers notRecordingPerBot;
+
+    private final ConcurrentMap<String, BotTimers> botTimers = new ConcurrentHashMap<>();
+
+    public ChatPipelineMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.notRecordingPerBot = new BotTimers(null, this);
+    }
+
+    /**
+     * @return the timers of the bot, registering them when the bot is first loaded
+     */
+    public BotTimers register(String uniqueBotId) {
+        return botTimers.computeIfAbsent(uniqueBotId, botId -> new BotTimers(botId, this));
+    }
+
+    /**
+     * @return the timers of the bot or timers that only record seerchat.chat.stage if the bot's configuration was
+     * evicted while a chat was using it
+     */
+    public BotTimers of(String uniqueBotId) {
+        BotTimers timers = botTimers.get(uniqueBotId);
+        return timers != null ? timers : notRecordingPerBot;
+    }
+
+    private static int index(Stage stage, Outcome outcome) {
+        return stage.ordinal() * OUTCOMES.length + outcome.ordinal();
+    }
+
+    private Timer stageTimer(Stage stage, Outcome outcome) {
+        int index = index(stage, outcome);
+        Timer timer = stageTimers.get(index);
+        if (timer == null) {
+            // the registry returns the same timer to threads registering it at the same time
+            timer = Timer.builder("seerchat.chat.stage").tag("stage", stage.tag).tag("outcome", outcome.tag)
+                    .description("Time spent in a stage of a chat")
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(100)))
+                    .maximumExpectedValue(Duration.ofSeconds(10))
+                    .register(meterRegistry);
+            stageTimers.set(index, timer);
+        }
+        return timer;
+    }
+
+    /**
+     * Removes the bot's timers from the registry, called when its configuration is evicted.
+     */
+    public void remove(String uniqueBotId) {
+        BotTimers timers = botTimers.remove(uniqueBotId);
+        if (timers != null) {
+            timers.removeFrom(meterRegistry);
+        }
+    }
+
+    public static final class BotTimers implements MatchStageListener {
+
+        // null for the timers that only record seerchat.chat.stage
+        private final String uniqueBotId;
+
+        private final ChatPipelineMetrics chatPipelineMetrics;
+
+        // by stage and outcome, registered on first use since most pairs (e.g. tokenize of a global rule) never occur
+        private final AtomicReferenceArray<Timer> timers = new AtomicReferenceArray<>(STAGES.length * OUTCOMES.length);
+
+        // set once the timers were removed from the registry, guarded by this
+        private boolean removed;
+
+        private BotTimers(String uniqueBotId, ChatPipelineMetrics chatPipelineMetrics) {
+            this.uniqueBotId = uniqueBotId;
+            this.chatPipelineMetrics = chatPipelineMetrics;
+        }
+
+        public void record(Stage stage, Outcome outcome, long nanos) {
+            chatPipelineMetrics.stageTimer(stage, outcome).record(nanos, TimeUnit.NANOSECONDS);
+            if (uniqueBotId == null) {
+                return;
+            }
+            int index = index(stage, outcome);
+            Timer timer = timers.get(index);
+            if (timer == null) {
+                timer = registerTimer(stage, outcome, index);
+                if (timer == null) {
+                    return;
+                }
+            }
+            timer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @return null when the timers were already removed, a chat that still holds on to them after the bot was
+         * evicted must not register a timer that nothing would remove
+         */
+        private synchronized Timer registerTimer(Stage stage, Outcome outcome, int index) {
+            if (removed) {
+                return null;
+            }
+            Timer timer = timers.get(index);
+            if (timer == null) {
+                timer = Timer.builder("seerchat.chat.bot.stage").tag("bot", uniqueBotId).tag("stage", stage.tag)
+                        .tag("outcome", outcome.tag).description("Time spent in a stage of a chat of the bot")
+                        .register(chatPipelineMetrics.meterRegistry);
+                timers.set(index, timer);
+            }
+            return timer;
+        }
+
+        @Override
+        public void matched(long tokenizeNanos, long scoreNanos, long slotMatchNanos, boolean matched) {
+            Outcome outcome = matched ? Outcome.MODEL : Outcome.NONE;
+            record(Stage.TOKENIZE, outcome, tokenizeNanos);
+            record(Stage.SCORE, outcome, scoreNanos);
+            record(Stage.SLOTS, outcome, slotMatchNanos);
+        }
+
+        private synchronized void removeFrom(MeterRegistry meterRegistry) {
+            removed = true;
+            for (int i = 0; i < timers.length(); i++) {
+                Timer timer = timers.get(i);
+                if (timer != null) {
+                    meterRegistry.remove(timer);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.seerlogics.chatbot.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.info.Info;
+import org.springframework.boot.actuate.info.InfoContributor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets per bot and per chat session that decide whether a chat is let in at all. It only looks at the ids
+ * the request carries, nothing about the bot is loaded, so a flood of chats for one bot is shed before it costs a
+ * SeerBotConfiguration lookup, an NLP pass or a DB write and the other bots keep their share of the node.
+ * <p>
+ * The default limits are seerchat.rateLimit.bot.* and seerchat.rateLimit.session.*, a bot can get its own with
+ * seerchat.rateLimit.botOverrides=[uniqueBotId]=[permitsPerSecond]:[burst],... The rejections per bot are under
+ * "rateLimit" in actuator/info and the totals are seerchat.rateLimit.rejected tagged with the bucket that was empty.
+ * <p>
+ * A bot id without a bucket, a bot that was idle or one that does not exist, first takes a token from the one
+ * seerchat.rateLimit.newBot.* bucket of the node. Chats with made up X-Bot-Ids would otherwise each get a full bucket
+ * and go on to the bot lookup, now only a few of them a second do.
+ */
+@Component
+public class ChatRateLimiter implements InfoContributor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChatRateLimiter.class);
+
+    @Value("${seerchat.rateLimit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${seerchat.rateLimit.bot.permitsPerSecond:50}")
+    private double botPermitsPerSecond;
+
+    @Value("${seerchat.rateLimit.bot.burst:100}")
+    private int botBurst;
+
+    @Value("${seerchat.rateLimit.session.permitsPerSecond:2}")
+    private double sessionPermitsPerSecond;
+
+    @Value("${seerchat.rateLimit.session.burst:10}")
+    private int sessionBurst;
+
+    @Value("${seerchat.rateLimit.newBot.permitsPerSecond:20}")
+    private double newBotPermitsPerSecond;
+
+    @Value("${seerchat.rateLimit.newBot.burst:100}")
+    private int newBotBurst;
+
+    @Value("${seerchat.rateLimit.botOverrides:}")
+    private String botOverrides;
+
+    /**
+     * Max number of bots and of sessions that have a bucket. Idle buckets are dropped after 10 minutes, a dropped
+     * bucket comes back full.
+     */
+    @Value("${seerchat.rateLimit.maximumBuckets:100000}")
+    private long maximumBuckets;
+
+    // uniqueBotId -> limit of that bot when it is not the default
+    private final Map<String, Limit> botLimits = new HashMap<>();
+
+    private Limit defaultBotLimit;
+
+    private Limit sessionLimit;
+
+    private TokenBucket newBotBucket;
+
+    private Cache<String, BotBucket> botBuckets;
+
+    private Cache<String, TokenBucket> sessionBuckets;
+
+    private final Counter botRejectedCounter;
+
+    private final Counter sessionRejectedCounter;
+
+    private final Counter newBotRejectedCounter;
+
+    // System::nanoTime, a fake clock in the tests
+    private final LongSupplier nanoClock;
+
+    @Autowired
+    public ChatRateLimiter(MeterRegistry meterRegistry) {
+        this(meterRegistry, System::nanoTime);
+    }
+
+    ChatRateLimiter(MeterRegistry meterRegistry, LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.botRejectedCounter = Counter.builder("seerchat.rateLimit.rejected").tag("bucket", "bot")
+                .description("Chats rejected because the bot's bucket was empty").register(meterRegistry);
+        this.sessionRejectedCounter = Counter.builder("seerchat.rateLimit.rejected").tag("bucket", "session")
+                .description("Chats rejected because the session's bucket was empty").register(meterRegistry);
+        this.newBotRejectedCounter = Counter.builder("seerchat.rateLimit.rejected").tag("bucket", "newBot")
+                .description("Chats rejected because too many bots without a bucket came in").register(meterRegistry);
+    }
+
+    @PostConstruct
+    private void init() {
+        defaultBotLimit = new Limit(botPermitsPerSecond, botBurst);
+        sessionLimit = new Limit(sessionPermitsPerSecond, sessionBurst);
+        newBotBucket = new TokenBucket(new Limit(newBotPermitsPerSecond, newBotBurst), nanoClock);
+        // [uniqueBotId]=[permitsPerSecond]:[burst],...
+        for (String botOverride : StringUtils.split(botOverrides, ",")) {
+            String[] botToLimit = StringUtils.split(botOverride.trim(), "=");
+            String[] limit = StringUtils.split(botToLimit[1], ":");
+            botLimits.put(botToLimit[0], new Limit(Double.parseDouble(limit[0]), Integer.parseInt(limit[1])));
+        }
+        botBuckets = CacheBuilder.newBuilder().maximumSize(maximumBuckets)
+                .expireAfterAccess(10, TimeUnit.MINUTES).build();
+        sessionBuckets = CacheBuilder.newBuilder().maximumSize(maximumBuckets)
+                .expireAfterAccess(10, TimeUnit.MINUTES).build();
+        LOGGER.info("Chat rate limits: enabled = {} , bot = {} , session = {} , new bot = {} , bot overrides = {}",
+                enabled, defaultBotLimit, sessionLimit, newBotBucket.limit, botLimits);
+    }
+
+    /**
+     * Takes a token from the bot's bucket and, when there is a session, from the session's bucket. A chat that is
+     * turned away by its session's bucket gives the bot's token back, one chatty session does not use up its bot's
+     * share.
+     *
+     * @param uniqueBotId the X-Bot-Id of the chat
+     * @param sessionId   a key the client can not make up for its chat session, e.g. the session of a signed resume
+     *                    token or the websocket connection, null when there is none
+     * @return 0 if the chat is let in, else the nanoseconds until the bucket that was empty has a token again
+     */
+    public long tryAcquire(String uniqueBotId, String sessionId) {
+        if (!enabled || uniqueBotId == null) {
+            return 0;
+        }
+        BotBucket botBucket = botBuckets.getIfPresent(uniqueBotId);
+        if (botBucket == null) {
+            long waitNanos = newBotBucket.tryAcquire();
+            if (waitNanos > 0) {
+                newBotRejectedCounter.increment();
+                return waitNanos;
+            }
+            botBucket = getBotBucket(uniqueBotId);
+        }
+        long waitNanos = botBucket.tryAcquire();
+        if (waitNanos > 0) {
+            botBucket.rejected.increment();
+            botRejectedCounter.increment();
+            return waitNanos;
+        }
+        if (sessionId != null) {
+            waitNanos = getBucket(sessionBuckets, uniqueBotId + "/" + sessionId,
+                    () -> new TokenBucket(sessionLimit, nanoClock)).tryAcquire();
+            if (waitNanos > 0) {
+                botBucket.giveBack();
+                botBucket.rejected.increment();
+                sessionRejectedCounter.increment();
+                return waitNanos;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Takes more tokens from the bot's bucket for a request that carries more than one chat, after it was let in by
+     * {@link #tryAcquire}. The tokens are taken even when the bucket does not have them, the bot's next chats then
+     * wait until they are paid back.
+     *
+     * @param uniqueBotId the X-Bot-Id of the request
+     * @param permits     the tokens to take
+     */
+    public void charge(String uniqueBotId, int permits) {
+        if (!enabled || uniqueBotId == null || permits <= 0) {
+            return;
+        }
+        getBotBucket(uniqueBotId).book(permits);
+    }
+
+    private BotBucket getBotBucket(String uniqueBotId) {
+        return getBucket(botBuckets, uniqueBotId,
+                () -> new BotBucket(botLimits.getOrDefault(uniqueBotId, defaultBotLimit), nanoClock));
+    }
+
+    private static <T extends TokenBucket> T getBucket(Cache<String, T> buckets, String key,
+                                                       Callable<T> newBucket) {
+        T bucket = buckets.getIfPresent(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        try {
+            return buckets.get(key, newBucket);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void contribute(Info.Builder builder) {
+        Map<String, Long> rejectedPerBot = new TreeMap<>();
+        for (Map.Entry<String, BotBucket> botBucket : botBuckets.asMap().entrySet()) {
+            long rejected = botBucket.getValue().rejected.sum();
+            if (rejected > 0) {
+                rejectedPerBot.put(botBucket.getKey(), rejected);
+            }
+        }
+        Map<String, Object> rateLimit = new HashMap<>();
+        rateLimit.put("enabled", enabled);
+        rateLimit.put("rejectedPerBot", rejectedPerBot);
+        builder.withDetail("rateLimit", rateLimit);
+    }
+
+    static class Limit {
+        // nanoseconds between two tokens
+        private final long intervalNanos;
+        // how far ahead of now the bucket may be booked, that is the room for burst - 1 more tokens
+        private final long toleranceNanos;
+        private final String description;
+
+        Limit(double permitsPerSecond, int burst) {
+            this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+            this.toleranceNanos = intervalNanos * (Math.max(burst, 1) - 1);
+            this.description = permitsPerSecond + "/s burst " + burst;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    /**
+     * A token bucket kept as the one time at which the bucket will be full again (the "theoretical arrival time" of
+     * GCRA), so taking a token is a single compare and set and never blocks.
+     */
+    static class TokenBucket {
+        private final Limit limit;
+        private final LongSupplier nanoClock;
+        private final AtomicLong fullAtNanos;
+
+        TokenBucket(Limit limit, LongSupplier nanoClock) {
+            this.limit = limit;
+            this.nanoClock = nanoClock;
+            this.fullAtNanos = new AtomicLong(nanoClock.getAsLong());
+        }
+
+        /**
+         * @return 0 if a token was taken, else the nanoseconds until there is one
+         */
+        long tryAcquire() {
+            while (true) {
+                long now = nanoClock.getAsLong();
+                long fullAt = fullAtNanos.get();
+                long bookedUntil = fullAt - now > 0 ? fullAt : now;
+                long aheadNanos = bookedUntil - now;
+                if (aheadNanos > limit.toleranceNanos) {
+                    return aheadNanos - limit.toleranceNanos;
+                }
+                if (fullAtNanos.compareAndSet(fullAt, bookedUntil + limit.intervalNanos)) {
+                    return 0;
+                }
+            }
+        }
+
+        /**
+         * Takes the tokens whether the bucket has them or not.
+         */
+        void book(int permits) {
+            long costNanos = limit.intervalNanos * permits;
+            while (true) {
+                long now = nanoClock.getAsLong();
+                long fullAt = fullAtNanos.get();
+                long bookedUntil = fullAt - now > 0 ? fullAt : now;
+                if (fullAtNanos.compareAndSet(fullAt, bookedUntil + costNanos)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Puts back a token taken by {@link #tryAcquire()}. A bucket that has filled up since stays full.
+         */
+        void giveBack() {
+            fullAtNanos.addAndGet(-limit.intervalNanos);
+        }
+    }
+
+    private static class BotBucket extends TokenBucket {
+        private final LongAdder rejected = new LongAdder();
+
+        private BotBucket(Limit limit, LongSupplier nanoClock) {
+            super(limit, nanoClock);
+        }
+    }
+}
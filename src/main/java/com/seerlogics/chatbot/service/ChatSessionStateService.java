@@ -0,0 +1,172 @@
+package com.seerlogics.chatbot.service;
+
+import com.seerlogics.chatbot.noggin.ChatSession;
+import com.seerlogics.chatbot.noggin.ChatSessionCodec;
+import com.seerlogics.chatbot.noggin.ChatSessionState;
+import com.seerlogics.chatbot.noggin.ChatSessionStore;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Saves the state of the chat session to the {@link ChatSessionStore} after every chat and resumes it when a chat
+ * with a resume token arrives at a node, or an HTTP session, that does not have the session yet.
+ * <p>
+ * The session ids are not secret, they are in every reply and in the chat history, so a session is never resumed
+ * from its id alone. Every reply carries a resume token: the session id signed with HMAC-SHA256 along with the bot,
+ * which only this server can issue. The key is seerchat.sessionToken.secret, which has to be the same on all the
+ * nodes for a session to be resumed on another node. Without it every node uses its own random key and a session is
+ * only resumed on the node that started it.
+ * <p>
+ * The encoded size of the sessions is recorded in seerchat.sessionStore.bytes (count, total and max in
+ * actuator/metrics, total / count is the bytes per session). The store is a convenience, a failure to save or resume
+ * only means the conversation starts over.
+ */
+@Service
+public class ChatSessionStateService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChatSessionStateService.class);
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final char TOKEN_SEPARATOR = '.';
+
+    private final ChatSessionStore chatSessionStore;
+
+    private final DistributionSummary sessionBytes;
+
+    @Value("${seerchat.sessionToken.secret:}")
+    private String sessionTokenSecret;
+
+    private SecretKeySpec sessionTokenKey;
+
+    public ChatSessionStateService(ChatSessionStore chatSessionStore, MeterRegistry meterRegistry) {
+        this.chatSessionStore = chatSessionStore;
+        this.sessionBytes = DistributionSummary.builder("seerchat.sessionStore.bytes").baseUnit("bytes")
+                .description("Encoded size of a chat session").register(meterRegistry);
+        Gauge.builder("seerchat.sessionStore.sessions", chatSessionStore, ChatSessionStore::size)
+                .description("Chat sessions in the session store").register(meterRegistry);
+    }
+
+    @PostConstruct
+    private void init() {
+        byte[] secret;
+        if (StringUtils.isNotBlank(sessionTokenSecret)) {
+            secret = sessionTokenSecret.getBytes(StandardCharsets.UTF_8);
+        } else {
+            secret = new byte[32];
+            new SecureRandom().nextBytes(secret);
+            LOGGER.info("No seerchat.sessionToken.secret, chat sessions can only be resumed on this node");
+        }
+        sessionTokenKey = new SecretKeySpec(secret, HMAC_ALGORITHM);
+    }
+
+    /**
+     * @param chatSession the session of this HTTP session or connection
+     * @param resumeToken the token of an earlier reply the widget sent, if any
+     * @param authCode    the bot the chat is for. A session is only resumed for the bot it was started with.
+     */
+    public void resume(ChatSession chatSession, String resumeToken, String authCode) {
+        if (StringUtils.isBlank(resumeToken) || StringUtils.isNotBlank(chatSession.getCurrentSessionId())) {
+            // nothing to resume or the session is already here
+            return;
+        }
+        String sessionId = verifyResumeToken(resumeToken, authCode);
+        if (sessionId == null) {
+            LOGGER.warn("Invalid chat session resume token for bot {}, a new session is started", authCode);
+            return;
+        }
+        try {
+            byte[] encodedState = chatSessionStore.load(sessionId);
+            if (encodedState == null) {
+                return;
+            }
+            ChatSessionState state = ChatSessionCodec.decode(encodedState);
+            if (!StringUtils.equals(state.getAuthCode(), authCode)) {
+                LOGGER.warn("Chat session {} belongs to another bot, it is not resumed", sessionId);
+                return;
+            }
+            chatSession.restoreState(state);
+            LOGGER.debug("Chat session {} resumed from {} bytes", sessionId, encodedState.length);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Unable to resume chat session " + sessionId + ", a new one is started", e);
+        }
+    }
+
+    /**
+     * @return the token the widget sends back to resume the session, see {@link #resume}
+     */
+    public String resumeToken(ChatSession chatSession) {
+        String sessionId = chatSession.getCurrentSessionId();
+        if (StringUtils.isBlank(sessionId)) {
+            return null;
+        }
+        return sessionId + TOKEN_SEPARATOR + sign(sessionId, chatSession.getAuthCode());
+    }
+
+    /**
+     * @param resumeToken the token the widget sent, may be null
+     * @param authCode    the bot the chat is for
+     * @return the session id of the token or null if there is no token or this server did not issue it for the bot
+     */
+    public String verifiedSessionId(String resumeToken, String authCode) {
+        return StringUtils.isBlank(resumeToken) ? null : verifyResumeToken(resumeToken, authCode);
+    }
+
+    /**
+     * @return the session id of the token or null if this server did not issue the token for the bot
+     */
+    private String verifyResumeToken(String resumeToken, String authCode) {
+        // the signature has no separator in it, the session id may
+        int separator = resumeToken.lastIndexOf(TOKEN_SEPARATOR);
+        if (separator <= 0) {
+            return null;
+        }
+        String sessionId = resumeToken.substring(0, separator);
+        byte[] signature = resumeToken.substring(separator + 1).getBytes(StandardCharsets.US_ASCII);
+        byte[] expectedSignature = sign(sessionId, authCode).getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(signature, expectedSignature) ? sessionId : null;
+    }
+
+    private String sign(String sessionId, String authCode) {
+        try {
+            // a Mac is not thread safe and cheap to create next to the HMAC itself
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(sessionTokenKey);
+            mac.update(sessionId.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(StringUtils.defaultString(authCode).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(mac.doFinal());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(HMAC_ALGORITHM + " is not available", e);
+        }
+    }
+
+    public void save(ChatSession chatSession) {
+        String sessionId = chatSession.getCurrentSessionId();
+        if (StringUtils.isBlank(sessionId)) {
+            return;
+        }
+        try {
+            byte[] encodedState = ChatSessionCodec.encode(chatSession.toState());
+            sessionBytes.record(encodedState.length);
+            chatSessionStore.save(sessionId, encodedState);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to save chat session " + sessionId, e);
+        }
+    }
+}
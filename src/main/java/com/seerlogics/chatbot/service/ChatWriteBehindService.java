@@ -0,0 +1,402 @@
+package com.seerlogics.chatbot.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.seerlogics.chatbot.model.ChatData;
+import com.seerlogics.chatbot.model.Transaction;
+import com.seerlogics.chatbot.repository.ChatRepository;
+import com.seerlogics.chatbot.repository.TransactionRepository;
+import com.seerlogics.chatbot.service.WriteBehindSpool.SpooledRecord;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write behind persistence for the chat messages and transactions that do not have to be in the DB before the
+ * reply is sent back to the user.
+ * <p>
+ * The request thread serializes the record, which is also the copy that is saved so that the entity it goes on using
+ * is never touched by the writer. A record saved inside a transaction is only queued once that transaction commits,
+ * so a reply never refers to an input chat that is not in the DB yet. The record is then appended to the local spool
+ * and offered to a bounded queue, and save() returns once the spool is on disk; the fsync of concurrent requests is
+ * group committed (see {@link WriteBehindSpool}). A single writer thread drains the queue either when
+ * seerchat.writeBehind.batchSize records are waiting or every seerchat.writeBehind.flushIntervalMs and saves the batch
+ * in one DB transaction. With hibernate.jdbc.batch_size set on the chat DB the inserts of a batch go out as JDBC
+ * batches. When the queue is full, or the spool can not be written, the record is saved on the request thread
+ * instead.
+ * <p>
+ * Whatever is left in the spool is replayed at startup, through the same retries and dead letter file as the writer.
+ * The transaction of a batch also moves the WRITE_BEHIND_CHECKPOINT row of the spool to the last sequence of the
+ * batch, and the replay skips the records up to it, so a batch that was committed before its spool segment was
+ * deleted is not saved twice. A record that can not be saved even on its own is appended to dead-letter.jsonl in the
+ * spool directory, which is not replayed. A failed replay is logged and never stops the application from starting.
+ */
+@Service
+public class ChatWriteBehindService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChatWriteBehindService.class);
+
+    private static final String CHAT_DATA = "C";
+    private static final String TRANSACTION = "T";
+    private static final int MAX_BATCH_ATTEMPTS = 3;
+
+    private static final String CREATE_CHECKPOINT_TABLE = "CREATE TABLE IF NOT EXISTS WRITE_BEHIND_CHECKPOINT "
+            + "(SPOOL_ID VARCHAR(64) NOT NULL PRIMARY KEY, LAST_SEQUENCE BIGINT NOT NULL)";
+
+    private static final String UPDATE_CHECKPOINT = "UPDATE WRITE_BEHIND_CHECKPOINT SET LAST_SEQUENCE = ? "
+            + "WHERE SPOOL_ID = ? AND LAST_SEQUENCE < ?";
+
+    private final ChatRepository chatRepository;
+
+    private final TransactionRepository transactionRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final MeterRegistry meterRegistry;
+
+    private final ObjectMapper spoolMapper;
+
+    @Value("${seerchat.writeBehind.queueCapacity:10000}")
+    private int queueCapacity;
+
+    @Value("${seerchat.writeBehind.batchSize:200}")
+    private int batchSize;
+
+    @Value("${seerchat.writeBehind.flushIntervalMs:200}")
+    private long flushIntervalMs;
+
+    @Value("${seerchat.writeBehind.segmentSize:5000}")
+    private int segmentSize;
+
+    /**
+     * false only flushes the spool to the OS: the records then survive the JVM going down but not the machine.
+     */
+    @Value("${seerchat.writeBehind.fsync:true}")
+    private boolean fsync;
+
+    /**
+     * This can be provided as a Java arg like "--seerchat.writeBehind.spoolDir=/var/seerbot/spool". Defaults to
+     * [java.io.tmpdir]/seerbot/spool
+     */
+    @Value("${seerchat.writeBehind.spoolDir:}")
+    private String spoolDir;
+
+    private BlockingQueue<SpooledRecord> queue;
+
+    // records are spooled and queued under this lock so the queue is in sequence order
+    private final Object enqueueLock = new Object();
+
+    private WriteBehindSpool spool;
+
+    // false when the checkpoint table is not there, the replay then may save a committed record again
+    private volatile boolean checkpointEnabled;
+
+    private volatile boolean running;
+
+    private Thread writerThread;
+
+    private Counter enqueuedCounter;
+
+    private Counter saturatedCounter;
+
+    private Counter flushedCounter;
+
+    private Counter replayedCounter;
+
+    private Counter failedCounter;
+
+    private Counter deadLetterCounter;
+
+    private Timer batchTimer;
+
+    public ChatWriteBehindService(ChatRepository chatRepository, TransactionRepository transactionRepository,
+                                  @Qualifier("transactionManager") PlatformTransactionManager transactionManager,
+                                  @Qualifier("chatBotDataSource") DataSource dataSource,
+                                  MeterRegistry meterRegistry) {
+        this.chatRepository = chatRepository;
+        this.transactionRepository = transactionRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // saves also run from afterCommit of the request's transaction, which must not be joined
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.meterRegistry = meterRegistry;
+        this.spoolMapper = new ObjectMapper()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                // only the id of the previous chat is spooled, not the whole chain of chats.
+                .addMixIn(ChatData.class, ChatDataSpoolMixIn.class);
+    }
+
+    @PostConstruct
+    private void start() throws IOException {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        enqueuedCounter = meterRegistry.counter("seerchat.writebehind.enqueued");
+        saturatedCounter = meterRegistry.counter("seerchat.writebehind.saturated");
+        flushedCounter = meterRegistry.counter("seerchat.writebehind.flushed");
+        replayedCounter = meterRegistry.counter("seerchat.writebehind.replayed");
+        failedCounter = meterRegistry.counter("seerchat.writebehind.failed");
+        deadLetterCounter = meterRegistry.counter("seerchat.writebehind.deadletter");
+        batchTimer = meterRegistry.timer("seerchat.writebehind.batch");
+        Gauge.builder("seerchat.writebehind.queue.depth", queue, BlockingQueue::size).register(meterRegistry);
+        Gauge.builder("seerchat.writebehind.queue.remaining", queue, BlockingQueue::remainingCapacity)
+                .register(meterRegistry);
+
+        Path spoolRoot = StringUtils.isBlank(spoolDir) ?
+                Paths.get(System.getProperty("java.io.tmpdir"), "seerbot", "spool") : Paths.get(spoolDir.trim());
+        spool = new WriteBehindSpool(spoolRoot, segmentSize, fsync);
+        spool.open(readCheckpoint(), batchSize, batch -> {
+            saveWithRetries(batch);
+            replayedCounter.increment(batch.size());
+        });
+
+        running = true;
+        writerThread = new Thread(this::drainQueue, "chat-write-behind");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @PreDestroy
+    private void stop() throws InterruptedException {
+        running = false;
+        writerThread.interrupt();
+        writerThread.join(TimeUnit.SECONDS.toMillis(30));
+        if (writerThread.isAlive()) {
+            LOGGER.warn("Write behind writer did not stop, {} queued records are not saved", queue.size());
+            return;
+        }
+        // whatever did not make it stays in the spool and is replayed on the next start
+        spool.close();
+    }
+
+    public void save(ChatData chatData) {
+        save(CHAT_DATA, chatData);
+    }
+
+    public void save(Transaction transaction) {
+        save(TRANSACTION, transaction);
+    }
+
+    private void save(String type, Object record) {
+        SpooledRecord spooledRecord;
+        try {
+            spooledRecord = new SpooledRecord(type, spoolMapper.writeValueAsString(record));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to serialize " + type + " record", e);
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // the record may refer to rows of this transaction, e.g. the reply to the input chat
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    enqueue(spooledRecord);
+                }
+            });
+        } else {
+            enqueue(spooledRecord);
+        }
+    }
+
+    private void enqueue(SpooledRecord spooledRecord) {
+        long recordSequence = 0;
+        try {
+            synchronized (enqueueLock) {
+                // only this block adds to the queue, so there is room for the record once it is spooled
+                if (queue.remainingCapacity() > 0) {
+                    recordSequence = spool.append(spooledRecord);
+                    queue.add(spooledRecord);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Unable to spool write behind record, it is saved right away", e);
+        }
+        if (recordSequence > 0) {
+            try {
+                spool.sync(recordSequence);
+            } catch (IOException e) {
+                // the writer still saves it, it is only not protected against a crash
+                LOGGER.error("Unable to sync write behind record " + recordSequence + " to the spool", e);
+            }
+            enqueuedCounter.increment();
+            return;
+        }
+        // the DB is not keeping up or the spool is broken. This is the only time the request waits for the DB.
+        saturatedCounter.increment();
+        saveBatch(Collections.singletonList(spooledRecord));
+    }
+
+    private void drainQueue() {
+        List<SpooledRecord> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                SpooledRecord first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long flushBy = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (batch.size() < batchSize) {
+                    long waitNanos = flushBy - System.nanoTime();
+                    SpooledRecord next = waitNanos > 0 ? queue.poll(waitNanos, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                if (running) {
+                    continue;
+                }
+                // shutting down: flush what is already in memory
+                queue.drainTo(batch);
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<SpooledRecord> batch) {
+        saveWithRetries(batch);
+        spool.committed(batch.get(batch.size() - 1).sequence);
+    }
+
+    /**
+     * Saves the batch, a few times if needed, and then record by record so that one bad record does not hold up the
+     * rest of the batch. The records that can not be saved at all are dead lettered. Never throws.
+     */
+    private void saveWithRetries(List<SpooledRecord> batch) {
+        for (int attempt = 1; attempt <= MAX_BATCH_ATTEMPTS; attempt++) {
+            try {
+                batchTimer.record(() -> saveBatch(batch));
+                flushedCounter.increment(batch.size());
+                return;
+            } catch (Exception e) {
+                LOGGER.warn("Write behind batch of " + batch.size() + " records failed, attempt " + attempt, e);
+                sleepQuietly(attempt * flushIntervalMs);
+            }
+        }
+        for (SpooledRecord spooledRecord : batch) {
+            try {
+                saveBatch(Collections.singletonList(spooledRecord));
+                flushedCounter.increment();
+            } catch (Exception e) {
+                failedCounter.increment();
+                LOGGER.error("Unable to save write behind record " + spooledRecord.sequence + " of type "
+                        + spooledRecord.type, e);
+                deadLetter(spooledRecord);
+            }
+        }
+    }
+
+    private void deadLetter(SpooledRecord spooledRecord) {
+        try {
+            spool.deadLetter(spooledRecord);
+            deadLetterCounter.increment();
+        } catch (IOException e) {
+            LOGGER.error("Unable to dead letter write behind record " + spooledRecord.toLine(), e);
+        }
+    }
+
+    private void saveBatch(List<SpooledRecord> batch) {
+        // new entities for every attempt, so that an attempt that was rolled back leaves no id behind
+        List<ChatData> chats = new ArrayList<>();
+        List<Transaction> transactions = new ArrayList<>();
+        long lastSequence = 0;
+        try {
+            for (SpooledRecord spooledRecord : batch) {
+                if (CHAT_DATA.equals(spooledRecord.type)) {
+                    chats.add(spoolMapper.readValue(spooledRecord.json, ChatData.class));
+                } else {
+                    transactions.add(spoolMapper.readValue(spooledRecord.json, Transaction.class));
+                }
+                lastSequence = Math.max(lastSequence, spooledRecord.sequence);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read write behind records", e);
+        }
+        long checkpoint = lastSequence;
+        transactionTemplate.execute(status -> {
+            if (!chats.isEmpty()) {
+                // the previous chat is not spooled, only its id. A reference is enough for the foreign key.
+                for (ChatData chat : chats) {
+                    if (StringUtils.isNumeric(chat.getPreviousChatId())) {
+                        chat.setPreviousChat(chatRepository.getOne(Long.parseLong(chat.getPreviousChatId())));
+                    }
+                }
+                chatRepository.saveAll(chats);
+            }
+            if (!transactions.isEmpty()) {
+                transactionRepository.saveAll(transactions);
+            }
+            if (checkpoint > 0 && checkpointEnabled) {
+                // in the same transaction as the records, so the replay knows exactly what is committed
+                jdbcTemplate.update(UPDATE_CHECKPOINT, checkpoint, spool.getId(), checkpoint);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @return the last sequence of this spool that is committed, 0 when it is not known
+     */
+    private long readCheckpoint() {
+        try {
+            jdbcTemplate.execute(CREATE_CHECKPOINT_TABLE);
+            List<Long> lastSequence = jdbcTemplate.queryForList(
+                    "SELECT LAST_SEQUENCE FROM WRITE_BEHIND_CHECKPOINT WHERE SPOOL_ID = ?", Long.class, spool.getId());
+            if (lastSequence.isEmpty()) {
+                jdbcTemplate.update("INSERT INTO WRITE_BEHIND_CHECKPOINT (SPOOL_ID, LAST_SEQUENCE) VALUES (?, 0)",
+                        spool.getId());
+            }
+            checkpointEnabled = true;
+            return lastSequence.isEmpty() ? 0 : lastSequence.get(0);
+        } catch (RuntimeException e) {
+            LOGGER.error("Unable to read the write behind checkpoint of spool " + spool.getId() + ", a record that was "
+                    + "committed but is still in the spool will be saved again", e);
+            return 0;
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @JsonIgnoreProperties({"previousChat"})
+    private abstract static class ChatDataSpoolMixIn {
+    }
+}
@@ -0,0 +1,71 @@
+package com.seerlogics.chatbot.service;
+
+import com.google.common.cache.CacheStats;
+import com.seerlogics.chatbot.mutters.SeerBotConfiguration;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.actuate.info.Info;
+import org.springframework.boot.actuate.info.InfoContributor;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Exposes the intent score caches of the bots that are currently loaded. The totals across the bots are gauges under
+ * actuator/metrics/seerchat.intentScoreCache.* and the stats of each bot are under "intentScoreCache" in
+ * actuator/info. A bot's cache, and its stats, go away when its configuration is evicted or replaced.
+ */
+@Component
+public class IntentScoreCacheMetrics implements InfoContributor {
+
+    private final ChatNLPService chatNLPService;
+
+    public IntentScoreCacheMetrics(ChatNLPService chatNLPService, MeterRegistry meterRegistry) {
+        this.chatNLPService = chatNLPService;
+        Gauge.builder("seerchat.intentScoreCache.size", this, IntentScoreCacheMetrics::getTotalSize)
+                .description("Token sequences with cached intent scores").register(meterRegistry);
+        Gauge.builder("seerchat.intentScoreCache.hits", this, metrics -> metrics.getTotalStats().hitCount())
+                .register(meterRegistry);
+        Gauge.builder("seerchat.intentScoreCache.misses", this, metrics -> metrics.getTotalStats().missCount())
+                .register(meterRegistry);
+        Gauge.builder("seerchat.intentScoreCache.evictions", this,
+                metrics -> metrics.getTotalStats().evictionCount()).register(meterRegistry);
+        Gauge.builder("seerchat.intentScoreCache.hitRatio", this, metrics -> metrics.getTotalStats().hitRate())
+                .register(meterRegistry);
+    }
+
+    private CacheStats getTotalStats() {
+        CacheStats totalStats = new CacheStats(0, 0, 0, 0, 0, 0);
+        for (SeerBotConfiguration seerBotConfiguration : chatNLPService.getSeerBotConfigurations().values()) {
+            totalStats = totalStats.plus(seerBotConfiguration.getIntentScoreCacheStats());
+        }
+        return totalStats;
+    }
+
+    private double getTotalSize() {
+        long totalSize = 0;
+        for (SeerBotConfiguration seerBotConfiguration : chatNLPService.getSeerBotConfigurations().values()) {
+            totalSize += seerBotConfiguration.getIntentScoreCacheSize();
+        }
+        return totalSize;
+    }
+
+    @Override
+    public void contribute(Info.Builder builder) {
+        Map<String, Object> botStats = new TreeMap<>();
+        for (Map.Entry<String, SeerBotConfiguration> botConfiguration :
+                chatNLPService.getSeerBotConfigurations().entrySet()) {
+            CacheStats stats = botConfiguration.getValue().getIntentScoreCacheStats();
+            Map<String, Object> details = new LinkedHashMap<>();
+            details.put("size", botConfiguration.getValue().getIntentScoreCacheSize());
+            details.put("hits", stats.hitCount());
+            details.put("misses", stats.missCount());
+            details.put("evictions", stats.evictionCount());
+            details.put("hitRatio", stats.hitRate());
+            botStats.put(botConfiguration.getKey(), details);
+        }
+        builder.withDetail("intentScoreCache", botStats);
+    }
+}
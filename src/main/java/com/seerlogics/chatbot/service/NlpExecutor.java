@@ -0,0 +1,278 @@
+package com.seerlogics.chatbot.service;
+
+import com.seerlogics.chatbot.exception.ChatOverloadedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs the NLP work of the chats (matching, conversations, rendering the reply and saving the chat) off the servlet
+ * threads, so a burst of chats can not take all of Tomcat's threads and starve actuator/health.
+ * <p>
+ * The work is not only CPU: it saves the incoming chat, calls the events API from the conversations and builds the
+ * bot's configuration when it is not cached. So there are seerchat.nlpExecutor.threadsPerCore threads per core, or
+ * seerchat.nlpExecutor.threads, and at most seerchat.nlpExecutor.queueCapacity chats wait for one. Compare the
+ * seerchat.pipeline config and save stages with the match stage to tune it. When the queue is full the chat is
+ * rejected right away with a {@link ChatOverloadedException} instead of queueing without limit.
+ * <p>
+ * The work of one chat session runs one after the other, see {@link #submit(String, Supplier)}. The chats of a session
+ * waiting behind its earlier chats are not in the executor's queue, so at most
+ * seerchat.nlpExecutor.maxPendingPerSession chats of a session are taken, running or waiting; more are rejected with
+ * a {@link ChatOverloadedException} as well. Work that is cancelled before it starts, e.g. because the request timed
+ * out, is skipped.
+ * <p>
+ * With seerchat.threads.mode=virtual each chat runs on its own virtual thread of the VirtualThreadConfig executor
+ * instead, so a chat waiting on the DB or the events API no longer holds a thread. The virtual threads share one
+ * carrier thread per core for the CPU work. The same number of chats is taken, threads plus queueCapacity, but all of
+ * them run at once and none is queued.
+ * <p>
+ * Metrics: seerchat.nlpExecutor.queued, seerchat.nlpExecutor.active, seerchat.nlpExecutor.wait (time from submit to
+ * start), seerchat.nlpExecutor.rejected (tag reason:queueFull|sessionFull) and seerchat.nlpExecutor.skipped.
+ */
+@Component
+public class NlpExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NlpExecutor.class);
+
+    private final Executor executor;
+
+    // null in virtual mode
+    private final ThreadPoolExecutor threadPool;
+
+    private final AtomicInteger activeCount = new AtomicInteger();
+
+    private final long retryAfterSeconds;
+
+    private final Timer waitTimer;
+
+    private final Counter rejectedCounter;
+
+    private final Counter sessionRejectedCounter;
+
+    private final Counter skippedCounter;
+
+    private final int maxPendingPerSession;
+
+    // chat session id -> the work of the session not done yet, removed when there is none
+    private final ConcurrentMap<String, SessionWork> workBySession = new ConcurrentHashMap<>();
+
+    public NlpExecutor(@Value("${seerchat.nlpExecutor.threads:0}") int threads,
+                       @Value("${seerchat.nlpExecutor.threadsPerCore:4}") int threadsPerCore,
+                       @Value("${seerchat.nlpExecutor.queueCapacity:200}") int queueCapacity,
+                       @Value("${seerchat.nlpExecutor.maxPendingPerSession:4}") int maxPendingPerSession,
+                       @Value("${seerchat.nlpExecutor.retryAfterSeconds:1}") long retryAfterSeconds,
+                       @Qualifier("virtualThreadExecutor") @Nullable ExecutorService virtualThreads,
+                       MeterRegistry meterRegistry) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors() * threadsPerCore;
+        if (virtualThreads == null) {
+            // AbortPolicy, a full queue throws RejectedExecutionException in the caller
+            this.threadPool = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), new NlpThreadFactory());
+            this.executor = threadPool;
+        } else {
+            this.threadPool = null;
+            this.executor = new BoundedExecutor(virtualThreads, poolSize + queueCapacity);
+        }
+        this.maxPendingPerSession = maxPendingPerSession;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.waitTimer = Timer.builder("seerchat.nlpExecutor.wait")
+                .description("Time a chat waits for an NLP thread").register(meterRegistry);
+        this.rejectedCounter = Counter.builder("seerchat.nlpExecutor.rejected").tag("reason", "queueFull")
+                .description("Chats rejected because the NLP queue was full").register(meterRegistry);
+        this.sessionRejectedCounter = Counter.builder("seerchat.nlpExecutor.rejected").tag("reason", "sessionFull")
+                .description("Chats rejected because their session had too many chats pending")
+                .register(meterRegistry);
+        this.skippedCounter = Counter.builder("seerchat.nlpExecutor.skipped")
+                .description("Chats not run because they were cancelled while they waited").register(meterRegistry);
+        Gauge.builder("seerchat.nlpExecutor.queued", this,
+                e -> e.threadPool == null ? 0 : e.threadPool.getQueue().size()).register(meterRegistry);
+        Gauge.builder("seerchat.nlpExecutor.active", activeCount, AtomicInteger::get).register(meterRegistry);
+        if (threadPool == null) {
+            LOGGER.info("NLP executor runs up to {} chats on virtual threads", poolSize + queueCapacity);
+        } else {
+            LOGGER.info("NLP executor has {} threads and a queue of {}", poolSize, queueCapacity);
+        }
+    }
+
+    /**
+     * @param work the work to run on an NLP thread
+     * @return completes with the result of the work, or exceptionally with what it threw
+     * @throws ChatOverloadedException when the queue is full
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        execute(work, result, new CompletableFuture<>());
+        return result;
+    }
+
+    /**
+     * Like {@link #submit(Supplier)} but the work starts only when the work submitted before for the same chat session
+     * is done, so two requests of a session never move its conversation at the same time. Cancelling the returned
+     * future does not let the next work start early, that waits until the cancelled work has ended or was skipped.
+     *
+     * @param chatSessionId the current session id of the chat session
+     * @param work          the work to run on an NLP thread
+     * @return completes with the result of the work, or exceptionally with what it threw or with a
+     * {@link ChatOverloadedException} when the queue was full once the earlier work was done
+     * @throws ChatOverloadedException when the session already has seerchat.nlpExecutor.maxPendingPerSession chats
+     *                                 pending, or when the queue is full and the session has no earlier work
+     */
+    public <T> CompletableFuture<T> submit(String chatSessionId, Supplier<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<Void> ended = new CompletableFuture<>();
+        CompletableFuture<?>[] previousWork = new CompletableFuture<?>[1];
+        boolean[] sessionFull = new boolean[1];
+        workBySession.compute(chatSessionId, (id, sessionWork) -> {
+            if (sessionWork == null) {
+                sessionWork = new SessionWork();
+            } else if (sessionWork.pending >= maxPendingPerSession) {
+                sessionFull[0] = true;
+                return sessionWork;
+            }
+            previousWork[0] = sessionWork.last;
+            sessionWork.last = ended;
+            sessionWork.pending++;
+            return sessionWork;
+        });
+        if (sessionFull[0]) {
+            sessionRejectedCounter.increment();
+            throw new ChatOverloadedException("Too many chats pending for the chat session", retryAfterSeconds);
+        }
+        ended.whenComplete((ignored, e) -> workBySession.computeIfPresent(chatSessionId,
+                (id, sessionWork) -> --sessionWork.pending == 0 ? null : sessionWork));
+
+        CompletableFuture<?> previous = previousWork[0];
+        if (previous == null) {
+            execute(work, result, ended);
+        } else {
+            previous.whenComplete((ignored, e) -> {
+                try {
+                    execute(work, result, ended);
+                } catch (ChatOverloadedException overloaded) {
+                    result.completeExceptionally(overloaded);
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * @param ended completed once the work has run, was skipped or was rejected
+     */
+    private <T> void execute(Supplier<T> work, CompletableFuture<T> result, CompletableFuture<Void> ended) {
+        long queuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                waitTimer.record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+                activeCount.incrementAndGet();
+                try {
+                    if (result.isDone()) {
+                        // cancelled while it waited, nobody is waiting for the reply anymore
+                        skippedCounter.increment();
+                    } else {
+                        result.complete(work.get());
+                    }
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    activeCount.decrementAndGet();
+                    ended.complete(null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            ended.complete(null);
+            rejectedCounter.increment();
+            throw new ChatOverloadedException("NLP queue is full", retryAfterSeconds);
+        }
+    }
+
+    /**
+     * @return chats of the session running or waiting, for the tests
+     */
+    int pendingOf(String chatSessionId) {
+        SessionWork sessionWork = workBySession.get(chatSessionId);
+        return sessionWork == null ? 0 : sessionWork.pending;
+    }
+
+    @PreDestroy
+    private void destroy() {
+        // the virtual thread executor is shut down by its bean
+        if (threadPool != null) {
+            threadPool.shutdown();
+        }
+    }
+
+    /**
+     * Changed only in compute of the map entry of the session.
+     */
+    private static class SessionWork {
+        // completes when the last work submitted for the session is done
+        private CompletableFuture<Void> last;
+        private volatile int pending;
+    }
+
+    /**
+     * Runs each task on the given executor, rejecting tasks once maxRunning of them have not ended.
+     */
+    private static class BoundedExecutor implements Executor {
+        private final Executor delegate;
+        private final Semaphore permits;
+
+        private BoundedExecutor(Executor delegate, int maxRunning) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(maxRunning);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (!permits.tryAcquire()) {
+                throw new RejectedExecutionException("Too many chats running");
+            }
+            try {
+                delegate.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                throw e;
+            }
+        }
+    }
+
+    private static class NlpThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "chat-nlp-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
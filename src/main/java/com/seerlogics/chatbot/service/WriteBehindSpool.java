@@ -0,0 +1,319 @@
+package com.seerlogics.chatbot.service;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Local journal of the write behind records, split in segments "spool-[first sequence].jsonl" of one record per line.
+ * <p>
+ * A record is appended with the next sequence and {@link #sync(long)} returns once it is on disk. Syncs are group
+ * committed: the thread that forces the segment covers every record appended before it started, so the threads that
+ * were waiting for it return without forcing again. {@link #committed(long)} deletes the segments whose records are
+ * all in the DB, {@link #open} replays the rest after a restart.
+ * <p>
+ * The spool has an id, kept in the spool directory, so that the DB can remember up to which sequence this spool is
+ * committed.
+ */
+class WriteBehindSpool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindSpool.class);
+
+    private static final String SPOOL_PREFIX = "spool-";
+    private static final String SPOOL_SUFFIX = ".jsonl";
+    private static final String SPOOL_ID_FILE = "spool.id";
+    static final String DEAD_LETTER_FILE = "dead-letter.jsonl";
+
+    private final Path spoolRoot;
+
+    private final int segmentSize;
+
+    private final boolean fsync;
+
+    private final String id;
+
+    private final Deque<SpoolSegment> closedSegments = new ArrayDeque<>();
+
+    private SpoolSegment currentSegment;
+
+    private long sequence;
+
+    // only one thread forces the segment at a time, the others wait for it and usually find their record synced
+    private final Object syncLock = new Object();
+
+    private long syncedSequence;
+
+    /**
+     * @param segmentSize records per segment, a segment is only deleted when all of its records are committed
+     * @param fsync       false only flushes the records to the OS, they are then lost if the machine goes down
+     */
+    WriteBehindSpool(Path spoolRoot, int segmentSize, boolean fsync) throws IOException {
+        this.spoolRoot = spoolRoot;
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+        Files.createDirectories(spoolRoot);
+        Path idFile = spoolRoot.resolve(SPOOL_ID_FILE);
+        if (Files.exists(idFile)) {
+            this.id = new String(Files.readAllBytes(idFile), StandardCharsets.UTF_8).trim();
+        } else {
+            this.id = UUID.randomUUID().toString();
+            Files.write(idFile, id.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    String getId() {
+        return id;
+    }
+
+    /**
+     * Hands the records left in the spool by the last run to the saver, a batch at a time and oldest first, and
+     * opens a new segment. The records up to committedSequence are already in the DB and are skipped. A segment is
+     * deleted once all its records are handed over; a segment that can not be read or whose batch the saver throws
+     * on is kept for the next start.
+     */
+    synchronized void open(long committedSequence, int batchSize, Consumer<List<SpooledRecord>> saver)
+            throws IOException {
+        sequence = Math.max(sequence, committedSequence);
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> spoolFiles =
+                     Files.newDirectoryStream(spoolRoot, SPOOL_PREFIX + "*" + SPOOL_SUFFIX)) {
+            for (Path spoolFile : spoolFiles) {
+                String fileName = spoolFile.getFileName().toString();
+                long firstSequence = Long.parseLong(fileName.substring(SPOOL_PREFIX.length(),
+                        fileName.length() - SPOOL_SUFFIX.length()));
+                segments.put(firstSequence, spoolFile);
+                sequence = Math.max(sequence, firstSequence);
+            }
+        }
+        for (Path segment : segments.values()) {
+            try {
+                List<SpooledRecord> records = read(segment, committedSequence);
+                LOGGER.info("Replaying {} records from spool segment {}", records.size(), segment);
+                for (int i = 0; i < records.size(); i += batchSize) {
+                    saver.accept(records.subList(i, Math.min(i + batchSize, records.size())));
+                }
+                Files.deleteIfExists(segment);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Unable to replay spool segment " + segment + ", it is kept for the next start", e);
+            }
+        }
+        syncedSequence = sequence;
+        currentSegment = openSegment(sequence + 1);
+    }
+
+    private List<SpooledRecord> read(Path segment, long committedSequence) throws IOException {
+        List<SpooledRecord> records = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                SpooledRecord record = SpooledRecord.parse(line);
+                if (record == null) {
+                    // a partial line written when the process died
+                    continue;
+                }
+                sequence = Math.max(sequence, record.sequence);
+                if (record.sequence > committedSequence) {
+                    records.add(record);
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Appends the record with the next sequence. It is on disk once {@link #sync(long)} returns for that sequence.
+     *
+     * @return the sequence of the record
+     */
+    synchronized long append(SpooledRecord record) throws IOException {
+        record.sequence = ++sequence;
+        currentSegment.append(record.sequence, record.toLine());
+        if (currentSegment.records >= segmentSize) {
+            // the closed segment is never forced again, so everything in it has to be on disk now
+            currentSegment.sync(fsync);
+            currentSegment.close();
+            closedSegments.add(currentSegment);
+            currentSegment = openSegment(sequence + 1);
+        }
+        return record.sequence;
+    }
+
+    /**
+     * Returns once the record with the given sequence, and all the ones before it, are on disk.
+     */
+    void sync(long recordSequence) throws IOException {
+        synchronized (syncLock) {
+            if (syncedSequence >= recordSequence) {
+                // forced by the thread that held the lock before
+                return;
+            }
+            SpoolSegment segment;
+            long upTo;
+            synchronized (this) {
+                segment = currentSegment;
+                upTo = sequence;
+                segment.flush();
+            }
+            // the appends go on while the segment is forced, the ones after upTo wait for the next force
+            segment.force(fsync);
+            syncedSequence = upTo;
+        }
+    }
+
+    /**
+     * Deletes the segments whose records are all in the DB. The records are committed in sequence order.
+     */
+    synchronized void committed(long committedSequence) {
+        while (!closedSegments.isEmpty() && closedSegments.peek().lastSequence <= committedSequence) {
+            closedSegments.poll().delete();
+        }
+        if (currentSegment.records > 0 && currentSegment.lastSequence <= committedSequence) {
+            // everything spooled so far is in the DB, start over with an empty segment
+            currentSegment.close();
+            currentSegment.delete();
+            currentSegment = openSegment(sequence + 1);
+        }
+    }
+
+    /**
+     * Keeps a record that could not be saved out of the spool, so that it does not fail the replay at every start,
+     * without dropping it. dead-letter.jsonl is never replayed.
+     */
+    synchronized void deadLetter(SpooledRecord record) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(spoolRoot.resolve(DEAD_LETTER_FILE),
+                StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(record.toLine());
+            writer.newLine();
+        }
+    }
+
+    synchronized void close() {
+        if (currentSegment != null) {
+            try {
+                currentSegment.sync(fsync);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to sync spool segment " + currentSegment.path, e);
+            }
+            currentSegment.close();
+        }
+    }
+
+    private SpoolSegment openSegment(long firstSequence) {
+        try {
+            return new SpoolSegment(spoolRoot.resolve(SPOOL_PREFIX + firstSequence + SPOOL_SUFFIX));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open write behind spool in " + spoolRoot, e);
+        }
+    }
+
+    static class SpooledRecord {
+        // set when the record is appended to the spool, 0 for a record that is saved without being spooled
+        long sequence;
+        final String type;
+        final String json;
+
+        SpooledRecord(String type, String json) {
+            this(0, type, json);
+        }
+
+        SpooledRecord(long sequence, String type, String json) {
+            this.sequence = sequence;
+            this.type = type;
+            this.json = json;
+        }
+
+        String toLine() {
+            return sequence + "\t" + type + "\t" + json;
+        }
+
+        static SpooledRecord parse(String line) {
+            String[] parts = StringUtils.split(line, "\t", 3);
+            if (parts.length < 3 || !StringUtils.isNumeric(parts[0])) {
+                return null;
+            }
+            return new SpooledRecord(Long.parseLong(parts[0]), parts[1], parts[2]);
+        }
+    }
+
+    private static class SpoolSegment {
+        private final Path path;
+        private final FileChannel channel;
+        private final BufferedWriter writer;
+        private int records;
+        private long lastSequence;
+
+        private SpoolSegment(Path path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            this.writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel),
+                    StandardCharsets.UTF_8));
+        }
+
+        private void append(long recordSequence, String line) throws IOException {
+            writer.write(line);
+            writer.newLine();
+            records++;
+            lastSequence = recordSequence;
+        }
+
+        // to the OS, so that the records survive the JVM going down
+        private void flush() throws IOException {
+            writer.flush();
+        }
+
+        // to the disk, so that the records survive the machine going down
+        private void force(boolean fsync) throws IOException {
+            if (!fsync) {
+                return;
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // closed since it was flushed: either forced when it was rolled over or all its records are in the DB
+            }
+        }
+
+        private void sync(boolean fsync) throws IOException {
+            flush();
+            force(fsync);
+        }
+
+        private void close() {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOGGER.warn("Unable to close spool segment " + path, e);
+            }
+        }
+
+        private void delete() {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to delete spool segment " + path, e);
+            }
+        }
+    }
+}
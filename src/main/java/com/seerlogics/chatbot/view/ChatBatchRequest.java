@@ -0,0 +1,43 @@
+package com.seerlogics.chatbot.view;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Body of POST /api/chats/batch. The messages of a session are processed in order since each one can move the
+ * conversation along, the sessions are independent of each other.
+ */
+public class ChatBatchRequest {
+
+    private List<Session> sessions = new ArrayList<>();
+
+    public List<Session> getSessions() {
+        return sessions;
+    }
+
+    public void setSessions(List<Session> sessions) {
+        this.sessions = sessions;
+    }
+
+    public static class Session {
+        // optional, one is generated when it is not given
+        private String chatSessionId;
+        private List<String> messages = new ArrayList<>();
+
+        public String getChatSessionId() {
+            return chatSessionId;
+        }
+
+        public void setChatSessionId(String chatSessionId) {
+            this.chatSessionId = chatSessionId;
+        }
+
+        public List<String> getMessages() {
+            return messages;
+        }
+
+        public void setMessages(List<String> messages) {
+            this.messages = messages;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.seerlogics.chatbot.view;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Response of POST /api/chats/batch, one result per message in the order of the request.
+ */
+public class ChatBatchResponse {
+
+    private List<Session> sessions = new ArrayList<>();
+    // time to match all the messages, the sessions run in parallel
+    private long matchMs;
+    // time to save all the chats and transactions
+    private long persistMs;
+    private long totalMs;
+
+    public List<Session> getSessions() {
+        return sessions;
+    }
+
+    public void setSessions(List<Session> sessions) {
+        this.sessions = sessions;
+    }
+
+    public long getMatchMs() {
+        return matchMs;
+    }
+
+    public void setMatchMs(long matchMs) {
+        this.matchMs = matchMs;
+    }
+
+    public long getPersistMs() {
+        return persistMs;
+    }
+
+    public void setPersistMs(long persistMs) {
+        this.persistMs = persistMs;
+    }
+
+    public long getTotalMs() {
+        return totalMs;
+    }
+
+    public void setTotalMs(long totalMs) {
+        this.totalMs = totalMs;
+    }
+
+    public static class Session {
+        private String chatSessionId;
+        private List<Item> items = new ArrayList<>();
+
+        public String getChatSessionId() {
+            return chatSessionId;
+        }
+
+        public void setChatSessionId(String chatSessionId) {
+            this.chatSessionId = chatSessionId;
+        }
+
+        public List<Item> getItems() {
+            return items;
+        }
+
+        public void setItems(List<Item> items) {
+            this.items = items;
+        }
+    }
+
+    public static class Item {
+        private String message;
+        private String response;
+        // matched intent, the conversation id while in a conversation or null if nothing matched
+        private String intent;
+        private String error;
+        private double elapsedMs;
+
+        public String getMessage() {
+            return message;
+        }
+
+        public void setMessage(String message) {
+            this.message = message;
+        }
+
+        public String getResponse() {
+            return response;
+        }
+
+        public void setResponse(String response) {
+            this.response = response;
+        }
+
+        public String getIntent() {
+            return intent;
+        }
+
+        public void setIntent(String intent) {
+            this.intent = intent;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public void setError(String error) {
+            this.error = error;
+        }
+
+        public double getElapsedMs() {
+            return elapsedMs;
+        }
+
+        public void setElapsedMs(double elapsedMs) {
+            this.elapsedMs = elapsedMs;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.seerlogics.chatbot.view;
+
+import com.seerlogics.chatbot.model.ChatData;
+
+/**
+ * What the widget gets back for a chat. Only the fields the widget uses, the previous chat is just its id so a reply
+ * never pulls in the chain of chat entities behind it.
+ */
+public class ChatResponse {
+
+    // null for a reply, which is written behind and only gets its id once it is saved
+    private Long id;
+    private String message;
+    private String response;
+    private String chatSessionId;
+    private String currentSessionId;
+    // id of the chat this is the reply to. The widget sends it back as the previousChatId of its next chat, the bot
+    // links that chat by the id its session keeps though
+    private String previousChatId;
+    // signed session id the widget sends back in X-Chat-Session-Token, or as sessionToken when it opens the WebSocket,
+    // to pick the session up on another node or after its HTTP session expired
+    private String resumeToken;
+
+    public static ChatResponse from(ChatData chatData) {
+        ChatResponse chatResponse = new ChatResponse();
+        chatResponse.setId(chatData.getId());
+        chatResponse.setMessage(chatData.getMessage());
+        chatResponse.setResponse(chatData.getResponse());
+        chatResponse.setChatSessionId(chatData.getChatSessionId());
+        chatResponse.setCurrentSessionId(chatData.getCurrentSessionId());
+        chatResponse.setPreviousChatId(chatData.getPreviousChatId());
+        return chatResponse;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public String getResponse() {
+        return response;
+    }
+
+    public void setResponse(String response) {
+        this.response = response;
+    }
+
+    public String getChatSessionId() {
+        return chatSessionId;
+    }
+
+    public void setChatSessionId(String chatSessionId) {
+        this.chatSessionId = chatSessionId;
+    }
+
+    public String getCurrentSessionId() {
+        return currentSessionId;
+    }
+
+    public void setCurrentSessionId(String currentSessionId) {
+        this.currentSessionId = currentSessionId;
+    }
+
+    public String getPreviousChatId() {
+        return previousChatId;
+    }
+
+    public void setPreviousChatId(String previousChatId) {
+        this.previousChatId = previousChatId;
+    }
+
+    public String getResumeToken() {
+        return resumeToken;
+    }
+
+    public void setResumeToken(String resumeToken) {
+        this.resumeToken = resumeToken;
+    }
+
+    @Override
+    public String toString() {
+        return "ChatResponse{" +
+                "id=" + id +
+                ", chatSessionId='" + chatSessionId + '\'' +
+                ", previousChatId='" + previousChatId + '\'' +
+                ", response='" + response + '\'' +
+                '}';
+    }
+}
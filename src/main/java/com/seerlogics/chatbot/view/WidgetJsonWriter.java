@@ -0,0 +1,153 @@
+package com.seerlogics.chatbot.view;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Writes the chat widgets (text, options, maybe options and confirm) straight to JSON with a streaming generator.
+ * The fields and their order are the same as the velocity templates these replace, the JSON is just compact and the
+ * strings are properly escaped.
+ */
+@Component
+public class WidgetJsonWriter {
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    /**
+     * {"widget":"text","content":"..."}
+     */
+    public String writeText(String content) {
+        return write(generator -> {
+            generator.writeStartObject();
+            generator.writeStringField("widget", "text");
+            generator.writeStringField("content", content);
+            generator.writeEndObject();
+        });
+    }
+
+    /**
+     * {"widget":"options","heading":"...","options":[{"option":[{"message":"...","type":"...",
+     * "clickResponse":"..."}]}]}
+     */
+    public String writeOptions(String heading, List<WidgetOption> options) {
+        return write(generator -> {
+            generator.writeStartObject();
+            generator.writeStringField("widget", "options");
+            generator.writeStringField("heading", heading);
+            generator.writeArrayFieldStart("options");
+            for (WidgetOption option : options) {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("option");
+                generator.writeStartObject();
+                generator.writeStringField("message", option.getMessage());
+                generator.writeStringField("type", option.getType());
+                generator.writeStringField("clickResponse", option.getClickResponse());
+                generator.writeEndObject();
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        });
+    }
+
+    /**
+     * {"widget":"options","heading":"...","rows":[{"cols":[{"colName":"...","clickAction":"linkClick",
+     * "clickResponse":"..."}]}]}
+     */
+    public String writeMaybeOptions(String heading, List<WidgetOption> options) {
+        return write(generator -> {
+            generator.writeStartObject();
+            generator.writeStringField("widget", "options");
+            generator.writeStringField("heading", heading);
+            generator.writeArrayFieldStart("rows");
+            for (WidgetOption option : options) {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("cols");
+                generator.writeStartObject();
+                generator.writeStringField("colName", option.getMessage());
+                generator.writeStringField("clickAction", "linkClick");
+                generator.writeStringField("clickResponse", option.getClickResponse());
+                generator.writeEndObject();
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        });
+    }
+
+    /**
+     * The yes/no widget shown before an event is deleted.
+     */
+    public String writeDeleteConfirm(String message) {
+        return write(generator -> {
+            generator.writeStartObject();
+            generator.writeStringField("widget", "confirmAction");
+            generator.writeStringField("message", message);
+            generator.writeObjectFieldStart("yesOption");
+            generator.writeStringField("message", "Yes");
+            generator.writeStringField("value", "yes");
+            generator.writeEndObject();
+            generator.writeObjectFieldStart("noOption");
+            generator.writeStringField("message", "No");
+            generator.writeStringField("value", "no");
+            generator.writeEndObject();
+            generator.writeStringField("yesResponse", "perform event delete");
+            generator.writeStringField("noResponse", "cancel delete event");
+            generator.writeEndObject();
+        });
+    }
+
+    /**
+     * The fixed "Here's what you can do" options for searching events.
+     */
+    public String writeSearchEventsOptions() {
+        return write(generator -> {
+            generator.writeStartObject();
+            generator.writeStringField("widget", "options");
+            generator.writeStringField("heading", "Here's what you can do");
+            generator.writeArrayFieldStart("rows");
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("cols");
+            generator.writeStartObject();
+            generator.writeStringField("col", "option1");
+            generator.writeStringField("colName", "Search events");
+            generator.writeStringField("clickUrl", "/admin/events");
+            generator.writeEndObject();
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("cols");
+            generator.writeStartObject();
+            generator.writeStringField("col", "option2");
+            generator.writeStringField("colName", "Search events by going to Search All Events menu");
+            generator.writeEndObject();
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeEndArray();
+            generator.writeEndObject();
+        });
+    }
+
+    private String write(WidgetBody widgetBody) {
+        StringWriter stringWriter = new StringWriter(256);
+        try (JsonGenerator generator = jsonFactory.createGenerator(stringWriter)) {
+            widgetBody.write(generator);
+        } catch (IOException e) {
+            // a StringWriter does not throw, this is only here for the checked exception
+            throw new UncheckedIOException(e);
+        }
+        return stringWriter.toString();
+    }
+
+    private interface WidgetBody {
+        void write(JsonGenerator generator) throws IOException;
+    }
+}
@@ -0,0 +1,32 @@
+package com.seerlogics.chatbot.view;
+
+/**
+ * One clickable option of an options widget.
+ */
+public class WidgetOption {
+
+    public static final String BUTTON = "button";
+    public static final String LINK = "link";
+
+    private final String message;
+    private final String type;
+    private final String clickResponse;
+
+    public WidgetOption(String message, String type, String clickResponse) {
+        this.message = message;
+        this.type = type;
+        this.clickResponse = clickResponse;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getClickResponse() {
+        return clickResponse;
+    }
+}
@@ -0,0 +1,99 @@
+package com.seerlogics.chatbot.controller;
+
+import com.seerlogics.chatbot.noggin.ChatSession;
+import com.seerlogics.chatbot.noggin.InMemoryChatSessionStore;
+import com.seerlogics.chatbot.service.ChatRateLimiter;
+import com.seerlogics.chatbot.service.ChatSessionStateService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChatAdmissionFilterTest {
+
+    private static final String BOT = "bot-1";
+
+    private ChatSessionStateService chatSessionStateService;
+
+    private ChatAdmissionFilter chatAdmissionFilter;
+
+    @Before
+    public void createFilter() {
+        ChatRateLimiter chatRateLimiter = new ChatRateLimiter(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(chatRateLimiter, "enabled", true);
+        ReflectionTestUtils.setField(chatRateLimiter, "botPermitsPerSecond", 100.0);
+        ReflectionTestUtils.setField(chatRateLimiter, "botBurst", 100);
+        // no token comes back while a test runs
+        ReflectionTestUtils.setField(chatRateLimiter, "sessionPermitsPerSecond", 0.001);
+        ReflectionTestUtils.setField(chatRateLimiter, "sessionBurst", 2);
+        ReflectionTestUtils.setField(chatRateLimiter, "newBotPermitsPerSecond", 100.0);
+        ReflectionTestUtils.setField(chatRateLimiter, "newBotBurst", 100);
+        ReflectionTestUtils.setField(chatRateLimiter, "botOverrides", "");
+        ReflectionTestUtils.setField(chatRateLimiter, "maximumBuckets", 100L);
+        ReflectionTestUtils.invokeMethod(chatRateLimiter, "init");
+
+        chatSessionStateService = new ChatSessionStateService(new InMemoryChatSessionStore(30, 100),
+                new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(chatSessionStateService, "sessionTokenSecret", "secret");
+        ReflectionTestUtils.invokeMethod(chatSessionStateService, "init");
+
+        chatAdmissionFilter = new ChatAdmissionFilter(chatRateLimiter, chatSessionStateService);
+    }
+
+    private String resumeToken(String sessionId, String uniqueBotId) {
+        ChatSession chatSession = new ChatSession(null);
+        chatSession.setCurrentSessionId(sessionId);
+        chatSession.setAuthCode(uniqueBotId);
+        return chatSessionStateService.resumeToken(chatSession);
+    }
+
+    private int chat(String remoteAddress, String requestedSessionId, String sessionToken) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/chats");
+        request.addHeader("X-Bot-Id", BOT);
+        request.setRemoteAddr(remoteAddress);
+        request.setRequestedSessionId(requestedSessionId);
+        if (sessionToken != null) {
+            request.addHeader(ChatController.SESSION_TOKEN_HEADER, sessionToken);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        chatAdmissionFilter.doFilter(request, response, new MockFilterChain());
+        return response.getStatus();
+    }
+
+    @Test
+    public void aNewSessionIdPerChatDoesNotGetANewBucket() throws Exception {
+        assertEquals(200, chat("10.0.0.1", "cookie-1", null));
+        assertEquals(200, chat("10.0.0.1", "cookie-2", null));
+        assertEquals(429, chat("10.0.0.1", "cookie-3", null));
+        // another address has its own bucket
+        assertEquals(200, chat("10.0.0.2", "cookie-4", null));
+    }
+
+    @Test
+    public void madeUpTokensTakeFromTheBucketOfTheAddress() throws Exception {
+        assertEquals(200, chat("10.0.0.1", null, "session-1.forged"));
+        assertEquals(200, chat("10.0.0.1", null, "session-2.forged"));
+        assertEquals(429, chat("10.0.0.1", null, "session-3.forged"));
+        // signed for another bot
+        assertEquals(429, chat("10.0.0.1", null, resumeToken("session-4", "bot-2")));
+    }
+
+    @Test
+    public void aSignedTokenHasTheBucketOfItsSession() throws Exception {
+        String token = resumeToken("session-1", BOT);
+        assertEquals(200, chat("10.0.0.1", null, null));
+        assertEquals(200, chat("10.0.0.1", null, null));
+        assertEquals(429, chat("10.0.0.1", null, null));
+
+        assertEquals(200, chat("10.0.0.1", null, token));
+        // from another address it is still the same session
+        assertEquals(200, chat("10.0.0.2", null, token));
+        assertEquals(429, chat("10.0.0.3", null, token));
+        assertEquals(200, chat("10.0.0.1", null, resumeToken("session-2", BOT)));
+    }
+}
@@ -0,0 +1,124 @@
+package com.seerlogics.chatbot.mutters;
+
+import com.rabidgremlin.mutters.core.IntentMatch;
+import com.seerlogics.commons.model.IntentUtterance;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ExactUtteranceIndexTest {
+
+    // the custom intents of the matcher, by name
+    private final Map<String, Intent> intents = new HashMap<>();
+
+    private com.seerlogics.commons.model.Intent dbIntent(String name, String... utterances) {
+        com.seerlogics.commons.model.Intent dbIntent = new com.seerlogics.commons.model.Intent();
+        dbIntent.setIntent(name);
+        Set<IntentUtterance> intentUtterances = new LinkedHashSet<>();
+        for (String utterance : utterances) {
+            IntentUtterance intentUtterance = new IntentUtterance();
+            intentUtterance.setUtterance(utterance);
+            intentUtterances.add(intentUtterance);
+        }
+        dbIntent.setUtterances(intentUtterances);
+        intents.put(name, new Intent(name, dbIntent));
+        return dbIntent;
+    }
+
+    private ExactUtteranceIndex index(com.seerlogics.commons.model.Intent... dbIntents) {
+        return new ExactUtteranceIndex(intents, Arrays.asList(dbIntents));
+    }
+
+    private void assertMatches(String intentName, ExactUtteranceIndex index, String utterance) {
+        IntentMatch match = index.match(utterance);
+        assertSame(utterance, intents.get(intentName), match.getIntent());
+        assertEquals(utterance, match.getUtterance());
+    }
+
+    @Test
+    public void matchesAnUtteranceOfOneIntent() {
+        ExactUtteranceIndex index = index(dbIntent("Hours", "when are you open", "opening hours"),
+                dbIntent("Book", "book a table"));
+
+        assertMatches("Hours", index, "opening hours");
+        assertMatches("Book", index, "book a table");
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    public void ignoresCaseAndWhitespace() {
+        ExactUtteranceIndex index = index(dbIntent("Book", "Book a  table"));
+
+        assertMatches("Book", index, "  book A table ");
+        assertMatches("Book", index, "BOOK\ta\ntable");
+    }
+
+    @Test
+    public void leavesOutAnUtteranceOfTwoIntents() {
+        ExactUtteranceIndex index = index(dbIntent("Hours", "opening hours", "when are you open"),
+                dbIntent("Location", "Opening  Hours", "where are you"));
+
+        // the categorizer decides between the two
+        assertNull(index.match("opening hours"));
+        assertMatches("Hours", index, "when are you open");
+        assertMatches("Location", index, "where are you");
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void staysOutWhenAThirdIntentHasItAgain() {
+        ExactUtteranceIndex index = index(dbIntent("Hours", "hi"), dbIntent("Location", "hi"),
+                dbIntent("Greeting", "hi"));
+
+        assertNull(index.match("hi"));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void keepsAnUtteranceRepeatedInTheSameIntent() {
+        ExactUtteranceIndex index = index(dbIntent("Hours", "opening hours", "Opening hours"));
+
+        assertMatches("Hours", index, "opening hours");
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void onlyIndexesTheIntentsOfTheMatcher() {
+        com.seerlogics.commons.model.Intent hours = dbIntent("Hours", "opening hours");
+        com.seerlogics.commons.model.Intent notInMatcher = dbIntent("Retired", "opening hours");
+        intents.remove("Retired");
+
+        // an intent the matcher can not return does not make the utterance ambiguous
+        ExactUtteranceIndex index = index(hours, notInMatcher);
+        assertMatches("Hours", index, "opening hours");
+    }
+
+    @Test
+    public void doesNotMatchBlankOrUnknownUtterances() {
+        ExactUtteranceIndex index = index(dbIntent("Hours", "opening hours", " "));
+
+        assertNull(index.match(null));
+        assertNull(index.match("   "));
+        assertNull(index.match("opening"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void skipsIntentsWithoutUtterances() {
+        com.seerlogics.commons.model.Intent empty = dbIntent("Empty");
+        empty.setUtterances(null);
+        List<com.seerlogics.commons.model.Intent> dbIntents = Arrays.asList(empty, dbIntent("Hours", "hours"));
+
+        ExactUtteranceIndex index = new ExactUtteranceIndex(intents, dbIntents);
+        assertMatches("Hours", index, "hours");
+    }
+}
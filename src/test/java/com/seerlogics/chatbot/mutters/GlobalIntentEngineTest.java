@@ -0,0 +1,125 @@
+package com.seerlogics.chatbot.mutters;
+
+import com.rabidgremlin.mutters.core.Intent;
+import com.rabidgremlin.mutters.core.IntentMatch;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class GlobalIntentEngineTest {
+
+    private final List<GlobalIntent> rules = new ArrayList<>();
+
+    // the intents of the bot by upper case name
+    private final Map<String, Intent> intents = new HashMap<>();
+
+    private void rule(String intentName, String... keywords) {
+        GlobalIntent globalIntent = new GlobalIntent();
+        globalIntent.setIntentName(intentName);
+        globalIntent.setKnotName(intentName.toLowerCase());
+        globalIntent.setKeywords(Arrays.asList(keywords));
+        rules.add(globalIntent);
+    }
+
+    private void botHas(String... intentNames) {
+        for (String intentName : intentNames) {
+            intents.put(intentName.toUpperCase(), new Intent(intentName));
+        }
+    }
+
+    private GlobalIntentEngine shippedRules() {
+        rule("Hi", "hi", "hello", "hey", "ola", "namaste", "chiao");
+        rule("ThankYou", "thanks", "thank you", "thank you very much", "thanks a lot", "thx", "cheers");
+        rule("Goodbye", "bye", "goodbye", "good bye", "bye bye", "see you", "see ya", "cya");
+        rule("Help", "help", "help me", "help please", "please help", "what can you do");
+        return new GlobalIntentEngine(rules, intents);
+    }
+
+    private static String intentOf(IntentMatch match) {
+        return match == null ? null : match.getIntent().getName();
+    }
+
+    @Test
+    public void matchesAMessageMadeOfKeywords() {
+        botHas("Hi");
+        GlobalIntentEngine engine = shippedRules();
+
+        assertEquals("Hi", intentOf(engine.match("hi")));
+        assertEquals("Hi", intentOf(engine.match("Hello hi!")));
+        assertEquals("Hi", intentOf(engine.match("  HEY,  hey  ")));
+        assertNull(engine.match("hi, find events near me"));
+        assertNull(engine.match("   "));
+        assertNull(engine.match(null));
+    }
+
+    @Test
+    public void matchesMultiWordPhrases() {
+        botHas("ThankYou", "Goodbye", "Help");
+        GlobalIntentEngine engine = shippedRules();
+
+        assertEquals("ThankYou", intentOf(engine.match("thank you very much")));
+        assertEquals("ThankYou", intentOf(engine.match("Thanks a lot, thank you!")));
+        assertEquals("Goodbye", intentOf(engine.match("good bye, see you")));
+        assertEquals("Help", intentOf(engine.match("what can you do?")));
+        // every word is a keyword but not as the phrase
+        assertNull(engine.match("thank"));
+        assertNull(engine.match("you"));
+        assertNull(engine.match("what can you"));
+        // a phrase has to be whole, not cut across the words of the message
+        assertNull(engine.match("thank you very"));
+    }
+
+    @Test
+    public void doesNotMixTheKeywordsOfDifferentRules() {
+        botHas("Hi", "ThankYou", "Goodbye", "Help");
+        GlobalIntentEngine engine = shippedRules();
+
+        assertNull(engine.match("hi thanks"));
+        assertNull(engine.match("thanks bye"));
+        assertNull(engine.match("help bye bye"));
+        assertEquals("Goodbye", intentOf(engine.match("bye bye bye")));
+    }
+
+    @Test
+    public void firstDefinedRuleWins() {
+        rule("Hi", "hey", "hello there");
+        rule("Greeting", "hey", "hello");
+        rule("There", "there", "hello there");
+        botHas("Hi", "Greeting", "There");
+        GlobalIntentEngine engine = new GlobalIntentEngine(rules, intents);
+
+        assertEquals("Hi", intentOf(engine.match("hey")));
+        assertEquals("Hi", intentOf(engine.match("hello there")));
+        // only the second rule makes up the whole message
+        assertEquals("Greeting", intentOf(engine.match("hello hey")));
+        assertEquals("There", intentOf(engine.match("there hello there")));
+    }
+
+    @Test
+    public void onlyUsesTheRulesOfIntentsTheBotHas() {
+        botHas("hi", "HELP");
+        GlobalIntentEngine engine = shippedRules();
+
+        assertEquals(2, engine.size());
+        assertEquals("hi", intentOf(engine.match("hello")));
+        assertEquals("HELP", intentOf(engine.match("help me")));
+        // left to the intent model of the bot
+        assertNull(engine.match("thanks"));
+        assertNull(engine.match("bye"));
+    }
+
+    @Test
+    public void matchesNothingWithoutRules() {
+        GlobalIntentEngine engine = shippedRules();
+
+        assertEquals(0, engine.size());
+        assertNull(engine.match("hi"));
+    }
+}
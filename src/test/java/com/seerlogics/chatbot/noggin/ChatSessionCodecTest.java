@@ -0,0 +1,167 @@
+package com.seerlogics.chatbot.noggin;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChatSessionCodecTest {
+
+    @Test
+    public void roundTripsAllTheFields() throws IOException {
+        ChatSessionState state = new ChatSessionState();
+        state.setCurrentSessionId("6D3C0F8A2B1E4F7A9C5D0E1F2A3B4C5D");
+        state.setAuthCode("event-bot");
+        state.setConversationIntent("GetReservations");
+        state.setConversationId("GetReservations_5b0c8c9e-3f0e-4c1c-9a47-2f1f0d1e2a3b");
+        state.setStateMachineState("LUNCH_OR_DINNER");
+        state.setPreviousChatId("4711");
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put("mealType", "lunch");
+        attributes.put("confirmed", Boolean.TRUE);
+        attributes.put("guests", 4);
+        attributes.put("eventId", 9_000_000_000L);
+        attributes.put("latitude", 35.2271);
+        attributes.put("address", null);
+        attributes.put("city", "Z\u00fcrich");
+        state.setAttributes(attributes);
+        state.setCurrentChatContext(new ArrayList<>(Arrays.asList("SearchEvents", "")));
+
+        ChatSessionState decoded = ChatSessionCodec.decode(ChatSessionCodec.encode(state));
+
+        assertEquals(state.getCurrentSessionId(), decoded.getCurrentSessionId());
+        assertEquals(state.getAuthCode(), decoded.getAuthCode());
+        assertEquals(state.getConversationIntent(), decoded.getConversationIntent());
+        assertEquals(state.getConversationId(), decoded.getConversationId());
+        assertEquals(state.getStateMachineState(), decoded.getStateMachineState());
+        assertEquals(state.getPreviousChatId(), decoded.getPreviousChatId());
+        assertEquals(attributes, decoded.getAttributes());
+        assertEquals(new ArrayList<>(attributes.keySet()), new ArrayList<>(decoded.getAttributes().keySet()));
+        assertEquals(state.getCurrentChatContext(), decoded.getCurrentChatContext());
+    }
+
+    @Test
+    public void keepsNullsAndEmptyStringsApart() throws IOException {
+        ChatSessionState state = new ChatSessionState();
+        state.setCurrentSessionId("");
+        state.setAuthCode(null);
+
+        ChatSessionState decoded = ChatSessionCodec.decode(ChatSessionCodec.encode(state));
+
+        assertEquals("", decoded.getCurrentSessionId());
+        assertNull(decoded.getAuthCode());
+        assertNull(decoded.getConversationIntent());
+        assertNull(decoded.getPreviousChatId());
+        assertTrue(decoded.getAttributes().isEmpty());
+        assertTrue(decoded.getCurrentChatContext().isEmpty());
+    }
+
+    @Test
+    public void roundTripsStringsLongerThanOneLengthByte() throws IOException {
+        ChatSessionState state = new ChatSessionState();
+        String longValue = StringUtils.repeat("\u00e9", 20_000);
+        state.setCurrentSessionId("session");
+        state.setAttributes(new LinkedHashMap<>(Collections.singletonMap("notes", longValue)));
+
+        ChatSessionState decoded = ChatSessionCodec.decode(ChatSessionCodec.encode(state));
+
+        assertEquals(longValue, decoded.getAttributes().get("notes"));
+    }
+
+    @Test
+    public void leavesOutAttributesOfOtherTypes() throws IOException {
+        ChatSessionState state = new ChatSessionState();
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put("kept", "yes");
+        attributes.put("list", new ArrayList<>(Collections.singletonList("no")));
+        attributes.put("float", 1.5f);
+        state.setAttributes(attributes);
+
+        ChatSessionState decoded = ChatSessionCodec.decode(ChatSessionCodec.encode(state));
+
+        assertEquals(Collections.singletonMap("kept", "yes"), decoded.getAttributes());
+    }
+
+    @Test
+    public void decodesVersion1WithoutThePreviousChat() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(1);
+            writeString(out, "session-1");
+            writeString(out, "event-bot");
+            writeString(out, "GetReservations");
+            writeString(out, "GetReservations_1");
+            writeString(out, "NUMBER_OF_GUESTS");
+            // attributes
+            out.writeByte(2);
+            writeString(out, "mealType");
+            out.writeByte(1);
+            writeString(out, "dinner");
+            writeString(out, "guests");
+            out.writeByte(3);
+            out.writeInt(2);
+            // chat context
+            out.writeByte(1);
+            writeString(out, "GetReservations");
+        }
+
+        ChatSessionState decoded = ChatSessionCodec.decode(bytes.toByteArray());
+
+        assertEquals("session-1", decoded.getCurrentSessionId());
+        assertEquals("event-bot", decoded.getAuthCode());
+        assertEquals("GetReservations", decoded.getConversationIntent());
+        assertEquals("GetReservations_1", decoded.getConversationId());
+        assertEquals("NUMBER_OF_GUESTS", decoded.getStateMachineState());
+        assertNull(decoded.getPreviousChatId());
+        assertEquals("dinner", decoded.getAttributes().get("mealType"));
+        assertEquals(2, decoded.getAttributes().get("guests"));
+        assertEquals(Collections.singletonList("GetReservations"), decoded.getCurrentChatContext());
+    }
+
+    @Test
+    public void rejectsAnUnknownVersion() {
+        byte[] encoded = ChatSessionCodec.encode(new ChatSessionState());
+        encoded[0] = 3;
+        try {
+            ChatSessionCodec.decode(encoded);
+            fail("version 3 was decoded");
+        } catch (IOException e) {
+            assertFalse(e.getMessage().isEmpty());
+        }
+    }
+
+    @Test
+    public void rejectsATruncatedState() {
+        ChatSessionState state = new ChatSessionState();
+        state.setCurrentSessionId("session");
+        state.setAuthCode("event-bot");
+        byte[] encoded = ChatSessionCodec.encode(state);
+        try {
+            ChatSessionCodec.decode(Arrays.copyOf(encoded, encoded.length - 3));
+            fail("a truncated state was decoded");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    // strings shorter than 127 bytes, whose length prefix is one byte
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(utf8.length + 1);
+        out.write(utf8);
+    }
+}
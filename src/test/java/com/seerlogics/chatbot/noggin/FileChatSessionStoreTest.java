@@ -0,0 +1,150 @@
+package com.seerlogics.chatbot.noggin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileChatSessionStoreTest {
+
+    private static final long TTL_MINUTES = 30;
+
+    private Path storeDir;
+
+    private FileChatSessionStore store;
+
+    @Before
+    public void createStore() throws IOException {
+        storeDir = Files.createTempDirectory("seerbot-sessions");
+        store = newStore();
+    }
+
+    @After
+    public void deleteStore() throws IOException {
+        try (Stream<Path> files = Files.walk(storeDir)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private FileChatSessionStore newStore() {
+        FileChatSessionStore fileChatSessionStore = new FileChatSessionStore();
+        ReflectionTestUtils.setField(fileChatSessionStore, "storeDir", storeDir.toString());
+        ReflectionTestUtils.setField(fileChatSessionStore, "ttlMinutes", TTL_MINUTES);
+        ReflectionTestUtils.invokeMethod(fileChatSessionStore, "init");
+        return fileChatSessionStore;
+    }
+
+    @Test
+    public void loadsWhatWasSaved() {
+        byte[] state = bytes("state 1");
+        store.save("session-1", state);
+
+        assertArrayEquals(state, store.load("session-1"));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void replacesTheStateOfASession() {
+        store.save("session-1", bytes("state 1"));
+        store.save("session-1", bytes("state 2"));
+
+        assertArrayEquals(bytes("state 2"), store.load("session-1"));
+        assertEquals(1, store.size());
+        // no temp files are left behind
+        assertEquals(1, files().size());
+    }
+
+    @Test
+    public void returnsNullForAnUnknownSession() {
+        assertNull(store.load("unknown"));
+    }
+
+    @Test
+    public void removesASession() {
+        store.save("session-1", bytes("state 1"));
+        store.save("session-2", bytes("state 2"));
+        store.remove("session-1");
+        store.remove("unknown");
+
+        assertNull(store.load("session-1"));
+        assertArrayEquals(bytes("state 2"), store.load("session-2"));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void keepsSessionIdsInsideTheStore() {
+        store.save("../../etc/passwd", bytes("state"));
+
+        List<Path> files = files();
+        assertEquals(1, files.size());
+        assertEquals(storeDir, files.get(0).getParent());
+        assertArrayEquals(bytes("state"), store.load("../../etc/passwd"));
+    }
+
+    @Test
+    public void expiresSessionsWhenTheyAreRead() throws IOException {
+        store.save("session-1", bytes("state 1"));
+        age(files().get(0), TTL_MINUTES + 1);
+
+        assertNull(store.load("session-1"));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void removesExpiredSessionsAtStartup() throws IOException {
+        store.save("expired", bytes("state 1"));
+        age(files().get(0), TTL_MINUTES + 1);
+        store.save("current", bytes("state 2"));
+
+        FileChatSessionStore restarted = newStore();
+
+        assertEquals(1, restarted.size());
+        assertArrayEquals(bytes("state 2"), restarted.load("current"));
+    }
+
+    @Test
+    public void sharesSessionsBetweenStoresOnTheSameDirectory() {
+        FileChatSessionStore otherNode = newStore();
+        store.save("session-1", bytes("state 1"));
+
+        assertArrayEquals(bytes("state 1"), otherNode.load("session-1"));
+        assertTrue(otherNode.size() > 0);
+    }
+
+    private List<Path> files() {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(storeDir)) {
+            for (Path file : dir) {
+                files.add(file);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return files;
+    }
+
+    private static void age(Path file, long minutes) throws IOException {
+        Files.setLastModifiedTime(file,
+                FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(minutes)));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,92 @@
+package com.seerlogics.chatbot.noggin;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.config.StateMachineBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StateMachinePoolTest {
+
+    private static final String INTENT = "GetReservations";
+
+    private StateMachinePool stateMachinePool;
+
+    /**
+     * A two state conversation, configured the way the conversation state machines are: a class with a
+     * createStateMachine() method.
+     */
+    public static class TwoStepStateMachine {
+        public StateMachine<String, String> createStateMachine() throws Exception {
+            StateMachineBuilder.Builder<String, String> builder = StateMachineBuilder.builder();
+            builder.configureStates().withStates().initial("ASK_TIME").state("ASK_GUESTS");
+            builder.configureTransitions().withExternal().source("ASK_TIME").target("ASK_GUESTS").event("time");
+            return builder.build();
+        }
+    }
+
+    @Before
+    public void createPool() {
+        stateMachinePool = new StateMachinePool(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(stateMachinePool, "intentToStateMachine",
+                INTENT + "=" + TwoStepStateMachine.class.getName());
+        ReflectionTestUtils.setField(stateMachinePool, "maxIdlePerType", 1);
+        ReflectionTestUtils.invokeMethod(stateMachinePool, "init");
+    }
+
+    @SuppressWarnings("unchecked")
+    private StateMachine<String, String> borrow() {
+        return stateMachinePool.borrow(INTENT);
+    }
+
+    @Test
+    public void releasedMachineStartsOverInItsInitialState() {
+        StateMachine<String, String> stateMachine = borrow();
+        stateMachine.start();
+        stateMachine.getExtendedState().getVariables().put("mealOption", "lunch");
+        assertTrue(stateMachine.sendEvent("time"));
+        assertEquals("ASK_GUESTS", stateMachine.getState().getId());
+        stateMachinePool.release(INTENT, stateMachine);
+
+        StateMachine<String, String> borrowedAgain = borrow();
+        assertSame("the machine is reused", stateMachine, borrowedAgain);
+        borrowedAgain.start();
+        assertEquals("ASK_TIME", borrowedAgain.getState().getId());
+        assertTrue(borrowedAgain.getExtendedState().getVariables().isEmpty());
+    }
+
+    @Test
+    public void buildsANewMachineWhenNoneIsIdle() {
+        StateMachine<String, String> first = borrow();
+        StateMachine<String, String> second = borrow();
+
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void dropsMachinesBeyondTheIdleCap() {
+        StateMachine<String, String> first = borrow();
+        StateMachine<String, String> second = borrow();
+        stateMachinePool.release(INTENT, first);
+        stateMachinePool.release(INTENT, second);
+
+        // only one is kept idle
+        assertSame(first, borrow());
+        StateMachine<String, String> third = borrow();
+        assertNotSame(first, third);
+        assertNotSame(second, third);
+    }
+
+    @Test
+    public void knowsTheConversationIntents() {
+        assertTrue(stateMachinePool.isConversationStarter(INTENT));
+        assertFalse(stateMachinePool.isConversationStarter("Hi"));
+    }
+}
@@ -0,0 +1,123 @@
+package com.seerlogics.chatbot.noggin;
+
+import opennlp.tools.tokenize.Tokenizer;
+import opennlp.tools.tokenize.TokenizerME;
+import opennlp.tools.tokenize.TokenizerModel;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that TokenNormalizer gives the same tokens as the stop word filter and SynonymHelper pass it replaced.
+ */
+public class TokenNormalizerTest {
+
+    private static final String TOKENIZER_MODEL = "nlp/models/standard/en-token.bin";
+    private static final String EVENT_INTENTS = "nlp/models/custom/EventGenieBotIntents.train";
+
+    private static Tokenizer tokenizer;
+
+    @BeforeClass
+    public static void loadTokenizer() throws IOException {
+        try (InputStream in = open(TOKENIZER_MODEL)) {
+            tokenizer = new TokenizerME(new TokenizerModel(in));
+        }
+    }
+
+    @Test
+    public void normalizesTrainingUtterancesLikeStopWordsAndSynonymHelper() throws IOException {
+        List<String> utterances = readUtterances();
+        assertFalse(utterances.isEmpty());
+        TokenNormalizer tokenNormalizer = TokenNormalizer.getDefault();
+        for (String utterance : utterances) {
+            String[] tokens = tokenizer.tokenize(utterance);
+            assertArrayEquals(utterance, normalizeTheOldWay(tokens), tokenNormalizer.normalize(tokens.clone()));
+        }
+    }
+
+    @Test
+    public void normalizesEdgeCasesLikeStopWordsAndSynonymHelper() {
+        String[][] cases = {
+                // contains a synonym without being one
+                {"Looking", "for", "Hiking", "events"},
+                // zip codes, with and without the extension
+                {"events", "near", "28202"}, {"events", "near", "28202-1234"}, {"events", "near", "2820"},
+                // single characters are stop words, as is the upper case form of a stop word
+                {"I", "want", "THE", "a", "b", "events"},
+                {"Ciao", "OLA", "closeby", "scanning"},
+                {}
+        };
+        TokenNormalizer tokenNormalizer = TokenNormalizer.getDefault();
+        for (String[] tokens : cases) {
+            assertArrayEquals(StringUtils.join(tokens, " "), normalizeTheOldWay(tokens),
+                    tokenNormalizer.normalize(tokens.clone()));
+        }
+    }
+
+    @Test
+    public void reusesTheArrayWhenNothingIsRemoved() {
+        String[] tokens = {"search", "events", "nearby"};
+        String[] normalized = TokenNormalizer.getDefault().normalize(tokens);
+        assertTrue(tokens == normalized);
+        assertArrayEquals(new String[]{"search", "events", "near"}, normalized);
+    }
+
+    @Test
+    public void isStopWordMatchesStopWords() {
+        TokenNormalizer tokenNormalizer = TokenNormalizer.getDefault();
+        StopWords stopWords = StopWords.getInstance();
+        for (String token : new String[]{"the", "The", "x", "events", "search", "0"}) {
+            assertEquals(token, stopWords.isStopWord(token), tokenNormalizer.isStopWord(token));
+        }
+    }
+
+    /**
+     * What CustomOpenNLPTokenizer did before TokenNormalizer.
+     */
+    private static String[] normalizeTheOldWay(String[] tokens) {
+        StopWords stopWords = StopWords.getInstance();
+        List<String> noStopWordsTokens = new ArrayList<>();
+        for (String token : tokens) {
+            if (!stopWords.isStopWord(token)) {
+                noStopWordsTokens.add(token.toLowerCase());
+            }
+        }
+        return new SynonymHelper().replaceSynonyms(noStopWordsTokens.toArray(new String[0]));
+    }
+
+    private static List<String> readUtterances() throws IOException {
+        List<String> utterances = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(open(EVENT_INTENTS), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (StringUtils.isNotBlank(line)) {
+                    // "Intent the utterance"
+                    utterances.add(StringUtils.substringAfter(line, " "));
+                }
+            }
+        }
+        return utterances;
+    }
+
+    private static InputStream open(String resource) throws IOException {
+        InputStream in = TokenNormalizerTest.class.getClassLoader().getResourceAsStream(resource);
+        if (in == null) {
+            throw new IOException("Missing " + resource);
+        }
+        return in;
+    }
+}
@@ -0,0 +1,147 @@
+package com.seerlogics.chatbot.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.seerlogics.chatbot.exception.ConversationException;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChatHistoryServiceTest {
+
+    private static final String OWNER = "owner-1";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private JdbcTemplate jdbcTemplate;
+
+    private ChatHistoryService chatHistoryService;
+
+    @Before
+    public void createHistory() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE CHAT (ID BIGINT PRIMARY KEY, CREATION_DATE TIMESTAMP, "
+                + "CHATSESSIONID VARCHAR(255), PREVIOUS_CHAT_ID BIGINT, MESSAGE VARCHAR(255), RESPONSE VARCHAR(255), "
+                + "ACCOUNT_ID VARCHAR(255), OWNER_ACCOUNT_ID VARCHAR(255))");
+
+        chatHistoryService = new ChatHistoryService(dataSource);
+        ReflectionTestUtils.setField(chatHistoryService, "fetchSize", 0);
+        ReflectionTestUtils.setField(chatHistoryService, "maxPageSize", 500);
+        ReflectionTestUtils.invokeMethod(chatHistoryService, "init");
+    }
+
+    private void chat(long id, String creationDate, String ownerAccountId) {
+        jdbcTemplate.update("INSERT INTO CHAT (ID, CREATION_DATE, CHATSESSIONID, MESSAGE, RESPONSE, OWNER_ACCOUNT_ID) "
+                        + "VALUES (?, ?, ?, ?, ?, ?)", id, Timestamp.from(Instant.parse(creationDate)), "session-1",
+                "message " + id, "response " + id, ownerAccountId);
+    }
+
+    private JsonNode read(StreamingResponseBody body) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        return objectMapper.readTree(out.toByteArray());
+    }
+
+    /**
+     * @return the ids of all the pages of the owner, following nextCursor
+     */
+    private List<Long> allPages(int pageSize) throws Exception {
+        List<Long> ids = new ArrayList<>();
+        String cursor = null;
+        do {
+            JsonNode page = read(chatHistoryService.page(OWNER, null, null, null, cursor, pageSize));
+            assertTrue(page.get("items").size() <= pageSize);
+            for (JsonNode chat : page.get("items")) {
+                ids.add(chat.get("id").asLong());
+            }
+            cursor = page.get("nextCursor").isNull() ? null : page.get("nextCursor").asText();
+        } while (cursor != null);
+        return ids;
+    }
+
+    @Test
+    public void cursorGivesBackTheKeyItWasMadeOf() {
+        Timestamp creationDate = Timestamp.from(Instant.parse("2019-05-04T10:15:30.123456789Z"));
+        ChatHistoryService.ChatKey key = ChatHistoryService.ChatKey.decode(
+                new ChatHistoryService.ChatKey(creationDate, 42).encode());
+
+        assertEquals(creationDate, key.creationDate);
+        assertEquals(42, key.id);
+    }
+
+    @Test
+    public void rejectsACursorItDidNotMake() {
+        for (String cursor : Arrays.asList("not base64!", "MTIz", "YTpiOmM")) {
+            try {
+                ChatHistoryService.ChatKey.decode(cursor);
+                fail(cursor + " is not a cursor");
+            } catch (ConversationException e) {
+                assertTrue(e.getMessage().contains(cursor));
+            }
+        }
+    }
+
+    @Test
+    public void pagesAcrossChatsWithTheSameCreationDate() throws Exception {
+        chat(7, "2019-05-04T10:00:00Z", OWNER);
+        chat(3, "2019-05-04T10:00:01Z", OWNER);
+        chat(9, "2019-05-04T10:00:01Z", OWNER);
+        chat(1, "2019-05-04T10:00:01Z", OWNER);
+        chat(5, "2019-05-04T10:00:01Z", OWNER);
+        chat(2, "2019-05-04T10:00:01Z", OWNER);
+        chat(4, "2019-05-04T10:00:02Z", OWNER);
+        chat(8, "2019-05-04T10:00:01Z", "owner-2");
+
+        List<Long> inOrder = Arrays.asList(7L, 1L, 2L, 3L, 5L, 9L, 4L);
+        assertEquals(inOrder, allPages(2));
+        assertEquals(inOrder, allPages(3));
+        assertEquals(inOrder, allPages(7));
+    }
+
+    @Test
+    public void lastPageHasNoCursor() throws Exception {
+        chat(1, "2019-05-04T10:00:00Z", OWNER);
+        chat(2, "2019-05-04T10:00:00Z", OWNER);
+
+        JsonNode page = read(chatHistoryService.page(OWNER, null, null, null, null, 2));
+
+        assertEquals(2, page.get("items").size());
+        assertTrue(page.get("nextCursor").isNull());
+    }
+
+    @Test
+    public void usesAnIndexThatStartsWithTheHistoryColumns() {
+        assertTrue(chatHistoryService.hasHistoryIndex());
+        // any index with the history columns first will do, init does not add another one
+        jdbcTemplate.execute("DROP INDEX " + ChatHistoryService.HISTORY_INDEX);
+        assertFalse(chatHistoryService.hasHistoryIndex());
+        jdbcTemplate.execute("CREATE INDEX CHAT_BY_OWNER ON CHAT (OWNER_ACCOUNT_ID, CREATION_DATE, ID, MESSAGE)");
+        ReflectionTestUtils.invokeMethod(chatHistoryService, "init");
+        assertTrue(chatHistoryService.hasHistoryIndex());
+        jdbcTemplate.execute("DROP INDEX CHAT_BY_OWNER");
+        assertFalse(chatHistoryService.hasHistoryIndex());
+    }
+
+    @Test
+    public void readsInChunksOnDbsOtherThanMySql() {
+        assertEquals(500, ReflectionTestUtils.getField(chatHistoryService, "fetchSize"));
+    }
+}
@@ -0,0 +1,139 @@
+package com.seerlogics.chatbot.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChatRateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // a clock that only moves when the test moves it
+    private long nowNanos;
+
+    private ChatRateLimiter chatRateLimiter;
+
+    @Before
+    public void createLimiter() {
+        nowNanos = 1000 * SECOND;
+        chatRateLimiter = new ChatRateLimiter(new SimpleMeterRegistry(), () -> nowNanos);
+        ReflectionTestUtils.setField(chatRateLimiter, "enabled", true);
+        ReflectionTestUtils.setField(chatRateLimiter, "botPermitsPerSecond", 10.0);
+        ReflectionTestUtils.setField(chatRateLimiter, "botBurst", 5);
+        ReflectionTestUtils.setField(chatRateLimiter, "sessionPermitsPerSecond", 1.0);
+        ReflectionTestUtils.setField(chatRateLimiter, "sessionBurst", 2);
+        ReflectionTestUtils.setField(chatRateLimiter, "newBotPermitsPerSecond", 1.0);
+        ReflectionTestUtils.setField(chatRateLimiter, "newBotBurst", 2);
+        ReflectionTestUtils.setField(chatRateLimiter, "botOverrides", "");
+        ReflectionTestUtils.setField(chatRateLimiter, "maximumBuckets", 100L);
+        ReflectionTestUtils.invokeMethod(chatRateLimiter, "init");
+    }
+
+    private ChatRateLimiter.TokenBucket newBucket(double permitsPerSecond, int burst) {
+        return new ChatRateLimiter.TokenBucket(new ChatRateLimiter.Limit(permitsPerSecond, burst), () -> nowNanos);
+    }
+
+    @Test
+    public void letsTheBurstThroughAtOnce() {
+        ChatRateLimiter.TokenBucket bucket = newBucket(10, 5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals("token " + i, 0, bucket.tryAcquire());
+        }
+        assertTrue(bucket.tryAcquire() > 0);
+    }
+
+    @Test
+    public void saysHowLongToWaitForTheNextToken() {
+        ChatRateLimiter.TokenBucket bucket = newBucket(10, 5);
+        for (int i = 0; i < 5; i++) {
+            bucket.tryAcquire();
+        }
+        assertEquals(SECOND / 10, bucket.tryAcquire());
+
+        nowNanos += SECOND / 20;
+        assertEquals(SECOND / 20, bucket.tryAcquire());
+    }
+
+    @Test
+    public void refillsOneTokenPerInterval() {
+        ChatRateLimiter.TokenBucket bucket = newBucket(10, 5);
+        for (int i = 0; i < 5; i++) {
+            bucket.tryAcquire();
+        }
+
+        nowNanos += SECOND / 10;
+        assertEquals(0, bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire() > 0);
+
+        // an idle bucket fills up to the burst and no further
+        nowNanos += 10 * SECOND;
+        for (int i = 0; i < 5; i++) {
+            assertEquals("token " + i, 0, bucket.tryAcquire());
+        }
+        assertTrue(bucket.tryAcquire() > 0);
+    }
+
+    @Test
+    public void bookedTokensAreOwed() {
+        ChatRateLimiter.TokenBucket bucket = newBucket(10, 5);
+        bucket.book(15);
+
+        // 15 tokens out of a full bucket of 5 leave 10 owed, the next one comes 11 intervals later
+        assertEquals(11 * SECOND / 10, bucket.tryAcquire());
+
+        nowNanos += 11 * SECOND / 10;
+        assertEquals(0, bucket.tryAcquire());
+    }
+
+    @Test
+    public void givenBackTokenCanBeTakenAgain() {
+        ChatRateLimiter.TokenBucket bucket = newBucket(10, 1);
+        assertEquals(0, bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire() > 0);
+
+        bucket.giveBack();
+        assertEquals(0, bucket.tryAcquire());
+    }
+
+    @Test
+    public void sessionRejectionGivesTheBotTokenBack() {
+        assertEquals(0, chatRateLimiter.tryAcquire("bot-1", "session-1"));
+        assertEquals(0, chatRateLimiter.tryAcquire("bot-1", "session-1"));
+        // the session's burst of 2 is used up, the bot has 3 of its 5 left
+        for (int i = 0; i < 10; i++) {
+            assertTrue(chatRateLimiter.tryAcquire("bot-1", "session-1") > 0);
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals("chat " + i, 0, chatRateLimiter.tryAcquire("bot-1", "session-" + (i + 2)));
+        }
+        assertTrue(chatRateLimiter.tryAcquire("bot-1", "session-9") > 0);
+    }
+
+    @Test
+    public void newBotsShareOneBucket() {
+        assertEquals(0, chatRateLimiter.tryAcquire("bot-1", null));
+        assertEquals(0, chatRateLimiter.tryAcquire("bot-2", null));
+        assertEquals(SECOND, chatRateLimiter.tryAcquire("made-up-bot", null));
+
+        // a bot that has a bucket is not held back by the new ones
+        assertEquals(0, chatRateLimiter.tryAcquire("bot-1", null));
+
+        nowNanos += SECOND;
+        assertEquals(0, chatRateLimiter.tryAcquire("made-up-bot", null));
+    }
+
+    @Test
+    public void chargesTheRestOfABatchToTheBot() {
+        assertEquals(0, chatRateLimiter.tryAcquire("bot-1", null));
+        chatRateLimiter.charge("bot-1", 9);
+
+        // 10 tokens out of a bucket of 5 at 10 a second
+        assertEquals(SECOND / 2 + SECOND / 10, chatRateLimiter.tryAcquire("bot-1", null));
+    }
+}
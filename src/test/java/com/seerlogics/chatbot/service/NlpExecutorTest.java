@@ -0,0 +1,234 @@
+package com.seerlogics.chatbot.service;
+
+import com.seerlogics.chatbot.exception.ChatOverloadedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NlpExecutorTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private NlpExecutor newExecutor(int threads, int queueCapacity, int maxPendingPerSession) {
+        return new NlpExecutor(threads, 1, queueCapacity, maxPendingPerSession, 1, null, new SimpleMeterRegistry());
+    }
+
+    private static <T> T get(CompletableFuture<T> future) throws Exception {
+        return future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // the pending count goes down just after the result is completed
+    private static void awaitNoPending(NlpExecutor nlpExecutor, String chatSessionId) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (nlpExecutor.pendingOf(chatSessionId) > 0) {
+            assertTrue("chats still pending", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void runsTheChatsOfASessionOneAfterTheOther() throws Exception {
+        NlpExecutor nlpExecutor = newExecutor(4, 100, 100);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<Integer>> replies = new ArrayList<>();
+
+        for (int i = 0; i < 50; i++) {
+            int chat = i;
+            replies.add(nlpExecutor.submit("session-1", () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                order.add(chat);
+                Thread.yield();
+                running.decrementAndGet();
+                return chat;
+            }));
+        }
+
+        for (int i = 0; i < replies.size(); i++) {
+            assertEquals(Integer.valueOf(i), get(replies.get(i)));
+        }
+        assertEquals(1, maxRunning.get());
+        for (int i = 0; i < order.size(); i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+        awaitNoPending(nlpExecutor, "session-1");
+    }
+
+    @Test
+    public void runsDifferentSessionsAtTheSameTime() throws Exception {
+        NlpExecutor nlpExecutor = newExecutor(2, 10, 4);
+        CountDownLatch bothStarted = new CountDownLatch(2);
+
+        CompletableFuture<Boolean> first = nlpExecutor.submit("session-1", () -> {
+            bothStarted.countDown();
+            await(bothStarted);
+            return true;
+        });
+        CompletableFuture<Boolean> second = nlpExecutor.submit("session-2", () -> {
+            bothStarted.countDown();
+            await(bothStarted);
+            return true;
+        });
+
+        assertTrue(get(first));
+        assertTrue(get(second));
+    }
+
+    @Test
+    public void skipsAChatCancelledWhileItWaits() throws Exception {
+        NlpExecutor nlpExecutor = newExecutor(4, 10, 4);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean cancelledRan = new AtomicBoolean();
+
+        CompletableFuture<Integer> slow = nlpExecutor.submit("session-1", () -> {
+            await(release);
+            return 1;
+        });
+        CompletableFuture<Integer> cancelled = nlpExecutor.submit("session-1", () -> {
+            cancelledRan.set(true);
+            return 2;
+        });
+        CompletableFuture<Integer> next = nlpExecutor.submit("session-1", () -> 3);
+        cancelled.cancel(false);
+
+        // the chat after the cancelled one still waits for the slow one
+        Thread.sleep(50);
+        assertFalse(next.isDone());
+
+        release.countDown();
+        assertEquals(Integer.valueOf(1), get(slow));
+        assertEquals(Integer.valueOf(3), get(next));
+        assertFalse(cancelledRan.get());
+    }
+
+    @Test
+    public void passesOnWhatTheWorkThrew() throws Exception {
+        NlpExecutor nlpExecutor = newExecutor(1, 10, 4);
+
+        CompletableFuture<Integer> failed = nlpExecutor.submit("session-1", () -> {
+            throw new IllegalStateException("no bot");
+        });
+        CompletableFuture<Integer> next = nlpExecutor.submit("session-1", () -> 2);
+
+        try {
+            get(failed);
+            fail("the work threw");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(Integer.valueOf(2), get(next));
+    }
+
+    @Test
+    public void rejectsChatsBeyondThePendingCapOfASession() throws Exception {
+        NlpExecutor nlpExecutor = newExecutor(2, 10, 2);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Integer> running = nlpExecutor.submit("session-1", () -> {
+            await(release);
+            return 1;
+        });
+        CompletableFuture<Integer> waiting = nlpExecutor.submit("session-1", () -> 2);
+        try {
+            nlpExecutor.submit("session-1", () -> 3);
+            fail("the session already has 2 chats pending");
+        } catch (ChatOverloadedException e) {
+            assertEquals(1, e.getRetryAfterSeconds());
+        }
+        assertEquals(2, nlpExecutor.pendingOf("session-1"));
+
+        // other sessions are not held back
+        assertEquals(Integer.valueOf(4), get(nlpExecutor.submit("session-2", () -> 4)));
+
+        release.countDown();
+        assertEquals(Integer.valueOf(1), get(running));
+        assertEquals(Integer.valueOf(2), get(waiting));
+        awaitNoPending(nlpExecutor, "session-1");
+        assertEquals(Integer.valueOf(5), get(nlpExecutor.submit("session-1", () -> 5)));
+    }
+
+    @Test
+    public void rejectsChatsWhenTheQueueIsFull() throws Exception {
+        NlpExecutor nlpExecutor = newExecutor(1, 1, 4);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Integer> running = nlpExecutor.submit("session-1", () -> {
+            started.countDown();
+            await(release);
+            return 1;
+        });
+        await(started);
+        CompletableFuture<Integer> queued = nlpExecutor.submit("session-2", () -> 2);
+        try {
+            nlpExecutor.submit("session-3", () -> 3);
+            fail("the one thread is busy and the queue of one is full");
+        } catch (ChatOverloadedException e) {
+            // a rejected chat does not count as pending for its session
+            assertEquals(0, nlpExecutor.pendingOf("session-3"));
+        }
+
+        release.countDown();
+        assertEquals(Integer.valueOf(1), get(running));
+        assertEquals(Integer.valueOf(2), get(queued));
+    }
+
+    @Test
+    public void runsEveryChatAtOnceOnThePerChatExecutor() throws Exception {
+        // stands in for the virtual thread executor, which this JVM may not have
+        ExecutorService perChatExecutor = Executors.newCachedThreadPool();
+        try {
+            NlpExecutor nlpExecutor = new NlpExecutor(1, 1, 2, 4, 1, perChatExecutor, new SimpleMeterRegistry());
+            CountDownLatch allStarted = new CountDownLatch(3);
+            CountDownLatch release = new CountDownLatch(1);
+            List<CompletableFuture<Boolean>> replies = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                replies.add(nlpExecutor.submit("session-" + i, () -> {
+                    allStarted.countDown();
+                    await(release);
+                    return true;
+                }));
+            }
+            // all three run at once though there is one thread
+            await(allStarted);
+            try {
+                nlpExecutor.submit("session-3", () -> false);
+                fail("1 thread and a queue of 2 take 3 chats");
+            } catch (ChatOverloadedException e) {
+                assertEquals(1, e.getRetryAfterSeconds());
+            }
+
+            release.countDown();
+            for (CompletableFuture<Boolean> reply : replies) {
+                assertTrue(get(reply));
+            }
+        } finally {
+            perChatExecutor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.seerlogics.chatbot.service;
+
+import com.seerlogics.chatbot.service.WriteBehindSpool.SpooledRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WriteBehindSpoolTest {
+
+    private static final int SEGMENT_SIZE = 3;
+
+    private static final int BATCH_SIZE = 2;
+
+    private Path spoolDir;
+
+    private WriteBehindSpool spool;
+
+    // what the last open handed over, batch by batch
+    private List<List<String>> replayed;
+
+    @Before
+    public void createSpool() throws IOException {
+        spoolDir = Files.createTempDirectory("seerbot-spool");
+        spool = open(0);
+    }
+
+    @After
+    public void deleteSpool() throws IOException {
+        spool.close();
+        try (Stream<Path> files = Files.walk(spoolDir)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private WriteBehindSpool open(long committedSequence) throws IOException {
+        replayed = new ArrayList<>();
+        WriteBehindSpool writeBehindSpool = new WriteBehindSpool(spoolDir, SEGMENT_SIZE, true);
+        writeBehindSpool.open(committedSequence, BATCH_SIZE, batch -> replayed.add(
+                batch.stream().map(record -> record.sequence + ":" + record.json).collect(Collectors.toList())));
+        return writeBehindSpool;
+    }
+
+    private WriteBehindSpool restart(long committedSequence) throws IOException {
+        // no close: the process died
+        return open(committedSequence);
+    }
+
+    private long append(String json) throws IOException {
+        long sequence = spool.append(new SpooledRecord("C", json));
+        spool.sync(sequence);
+        return sequence;
+    }
+
+    private long spoolSegments() throws IOException {
+        try (Stream<Path> files = Files.list(spoolDir)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("spool-")).count();
+        }
+    }
+
+    @Test
+    public void replaysWhatWasNotCommitted() throws IOException {
+        assertEquals(1, append("a"));
+        assertEquals(2, append("b"));
+        assertEquals(3, append("c"));
+        append("d");
+        spool.committed(2);
+
+        spool = restart(0);
+
+        // the first segment held 1 to 3, it is not all committed so all of it comes back
+        assertEquals(Arrays.asList(Arrays.asList("1:a", "2:b"), Arrays.asList("3:c"), Arrays.asList("4:d")),
+                replayed);
+        assertEquals("a replayed segment is deleted", 1, spoolSegments());
+    }
+
+    @Test
+    public void skipsWhatTheCheckpointSaysIsCommitted() throws IOException {
+        append("a");
+        append("b");
+        append("c");
+        append("d");
+        // the DB committed up to 3 but the process died before the segment was deleted
+
+        spool = restart(3);
+
+        assertEquals(Arrays.asList(Arrays.asList("4:d")), replayed);
+    }
+
+    @Test
+    public void deletesSegmentsOnceCommitted() throws IOException {
+        for (int i = 0; i < 7; i++) {
+            append("chat " + i);
+        }
+        assertEquals(3, spoolSegments());
+
+        spool.committed(6);
+        assertEquals(1, spoolSegments());
+
+        spool.committed(7);
+        spool = restart(0);
+        assertTrue(replayed.isEmpty());
+    }
+
+    @Test
+    public void goesOnFromTheLastSequence() throws IOException {
+        append("a");
+        append("b");
+
+        spool = restart(0);
+        assertEquals(3, append("c"));
+
+        // the spool was emptied, the checkpoint still knows how far it got
+        spool.committed(3);
+        spool = restart(10);
+        assertEquals(11, append("d"));
+    }
+
+    @Test
+    public void skipsAPartialLine() throws IOException {
+        append("a");
+        Path segment;
+        try (Stream<Path> files = Files.list(spoolDir)) {
+            segment = files.filter(file -> file.getFileName().toString().startsWith("spool-")).findFirst().get();
+        }
+        Files.write(segment, "2\tC".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        spool = restart(0);
+
+        assertEquals(Arrays.asList(Arrays.asList("1:a")), replayed);
+    }
+
+    @Test
+    public void keepsTheSegmentWhenTheReplayFails() throws IOException {
+        append("a");
+
+        WriteBehindSpool failingSpool = new WriteBehindSpool(spoolDir, SEGMENT_SIZE, true);
+        failingSpool.open(0, BATCH_SIZE, batch -> {
+            throw new IllegalStateException("DB is down");
+        });
+        failingSpool.close();
+
+        spool = restart(0);
+        assertEquals(Arrays.asList(Arrays.asList("1:a")), replayed);
+    }
+
+    @Test
+    public void deadLettersAreNotReplayed() throws IOException {
+        long sequence = append("bad");
+        spool.deadLetter(new SpooledRecord(sequence, "C", "bad"));
+        spool.committed(sequence);
+
+        spool = restart(0);
+
+        assertTrue(replayed.isEmpty());
+        assertEquals(Arrays.asList("1\tC\tbad"),
+                Files.readAllLines(spoolDir.resolve(WriteBehindSpool.DEAD_LETTER_FILE), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void keepsItsIdAcrossRestarts() throws IOException {
+        String id = spool.getId();
+        spool = restart(0);
+        assertEquals(id, spool.getId());
+    }
+}
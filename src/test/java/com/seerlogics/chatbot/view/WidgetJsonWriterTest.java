@@ -0,0 +1,173 @@
+package com.seerlogics.chatbot.view;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The widgets against what the velocity templates they replace rendered for the same values. A message without
+ * characters that need escaping gives the same JSON, only compact.
+ */
+public class WidgetJsonWriterTest {
+
+    private final WidgetJsonWriter widgetJsonWriter = new WidgetJsonWriter();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // the template output with the whitespace between the tokens removed, the field order is kept
+    private String compact(String templateOutput) throws IOException {
+        return objectMapper.readTree(templateOutput).toString();
+    }
+
+    @Test
+    public void textIsTheSimpleTextsTemplate() throws IOException {
+        String simpleTexts = "{\n"
+                + "    \"widget\": \"text\",\n"
+                + "    \"content\": \"Hi, how can I help?\"\n"
+                + "}";
+
+        assertEquals(compact(simpleTexts), widgetJsonWriter.writeText("Hi, how can I help?"));
+    }
+
+    @Test
+    public void optionsAreTheOptionsResponseTemplate() throws IOException {
+        String optionsResponse = "{\n"
+                + "  \"widget\": \"options\",\n"
+                + "  \"heading\": \"Pick one\",\n"
+                + "  \"options\": [\n"
+                + "        {\n"
+                + "          \"option\": [\n"
+                + "            {\n"
+                + "              \"message\": \"Book a table\",\n"
+                + "              \"type\": \"button\",\n"
+                + "              \"clickResponse\": \"book a table\"\n"
+                + "            }\n"
+                + "          ]\n"
+                + "        }, \n"
+                + "        {\n"
+                + "          \"option\": [\n"
+                + "            {\n"
+                + "              \"message\": \"Opening hours\",\n"
+                + "              \"type\": \"link\",\n"
+                + "              \"clickResponse\": \"opening hours\"\n"
+                + "            }\n"
+                + "          ]\n"
+                + "        }\n"
+                + "  ]\n"
+                + "}";
+
+        assertEquals(compact(optionsResponse), widgetJsonWriter.writeOptions("Pick one", Arrays.asList(
+                new WidgetOption("Book a table", WidgetOption.BUTTON, "book a table"),
+                new WidgetOption("Opening hours", WidgetOption.LINK, "opening hours"))));
+    }
+
+    @Test
+    public void maybeOptionsAreTheMaybeOptionsTemplate() throws IOException {
+        String maybeOptions = "{\n"
+                + "  \"widget\": \"options\",\n"
+                + "  \"heading\": \"Did you mean\",\n"
+                + "  \"rows\": [\n"
+                + "        {\n"
+                + "          \"cols\": [\n"
+                + "            {\n"
+                + "              \"colName\": \"Search events\",\n"
+                + "              \"clickAction\": \"linkClick\",\n"
+                + "              \"clickResponse\": \"search events\"\n"
+                + "            }\n"
+                + "          ]\n"
+                + "        }\n"
+                + "  ]\n"
+                + "}";
+
+        assertEquals(compact(maybeOptions), widgetJsonWriter.writeMaybeOptions("Did you mean",
+                Arrays.asList(new WidgetOption("Search events", WidgetOption.LINK, "search events"))));
+    }
+
+    @Test
+    public void deleteConfirmIsTheDeleteConfirmTemplate() throws IOException {
+        String deleteConfirm = "{\n"
+                + "    \"widget\": \"confirmAction\",\n"
+                + "    \"message\": \"Delete the event?\",\n"
+                + "    \"yesOption\": {\n"
+                + "        \"message\": \"Yes\",\n"
+                + "        \"value\": \"yes\"\n"
+                + "        },\n"
+                + "    \"noOption\": {\n"
+                + "        \"message\": \"No\",\n"
+                + "        \"value\": \"no\"\n"
+                + "        },\n"
+                + "    \"yesResponse\": \"perform event delete\",\n"
+                + "    \"noResponse\": \"cancel delete event\"\n"
+                + "}";
+
+        assertEquals(compact(deleteConfirm), widgetJsonWriter.writeDeleteConfirm("Delete the event?"));
+    }
+
+    @Test
+    public void searchEventsOptionsAreTheSearchEventsOptionsTemplate() throws IOException {
+        String searchEventsOptions = "{\n"
+                + "    \"widget\": \"options\",\n"
+                + "    \"heading\": \"Here's what you can do\",\n"
+                + "    \"rows\": [\n"
+                + "            {\n"
+                + "                \"cols\": [{\n"
+                + "                    \"col\": \"option1\",\n"
+                + "                    \"colName\": \"Search events\",\n"
+                + "                    \"clickUrl\": \"/admin/events\"\n"
+                + "                    }\n"
+                + "                ]\n"
+                + "            },\n"
+                + "            {\n"
+                + "                \"cols\": [{\n"
+                + "                \"col\": \"option2\",\n"
+                + "                \"colName\": \"Search events by going to Search All Events menu\"\n"
+                + "                }\n"
+                + "                ]\n"
+                + "            }\n"
+                + "    ]\n"
+                + "}";
+
+        assertEquals(compact(searchEventsOptions), widgetJsonWriter.writeSearchEventsOptions());
+    }
+
+    @Test
+    public void escapesWhatTheTemplatesWroteRaw() throws IOException {
+        // res_help has quotes, the simpleTexts template made invalid JSON out of it
+        String help = "I can help you search for events. Just say \"Search Events or Search Roles\"";
+        String message = "C:\\events\\\tnew line\nend \u00e9\u20ac </script>";
+
+        assertEquals("{\"widget\":\"text\",\"content\":\"I can help you search for events. Just say "
+                + "\\\"Search Events or Search Roles\\\"\"}", widgetJsonWriter.writeText(help));
+
+        JsonNode text = objectMapper.readTree(widgetJsonWriter.writeText(message));
+        assertEquals(message, text.get("content").asText());
+
+        JsonNode options = objectMapper.readTree(widgetJsonWriter.writeOptions(help,
+                Arrays.asList(new WidgetOption(message, WidgetOption.BUTTON, help))));
+        assertEquals(help, options.get("heading").asText());
+        JsonNode option = options.get("options").get(0).get("option").get(0);
+        assertEquals(message, option.get("message").asText());
+        assertEquals(help, option.get("clickResponse").asText());
+
+        JsonNode maybeOptions = objectMapper.readTree(widgetJsonWriter.writeMaybeOptions(message,
+                Arrays.asList(new WidgetOption(help, WidgetOption.LINK, message))));
+        assertEquals(message, maybeOptions.get("heading").asText());
+        assertEquals(help, maybeOptions.get("rows").get(0).get("cols").get(0).get("colName").asText());
+
+        JsonNode deleteConfirm = objectMapper.readTree(widgetJsonWriter.writeDeleteConfirm(message));
+        assertEquals(message, deleteConfirm.get("message").asText());
+    }
+
+    @Test
+    public void writesNoOptionsAsAnEmptyList() throws IOException {
+        assertEquals("{\"widget\":\"options\",\"heading\":\"Nothing\",\"options\":[]}",
+                widgetJsonWriter.writeOptions("Nothing", Arrays.asList()));
+        assertEquals("{\"widget\":\"options\",\"heading\":\"Nothing\",\"rows\":[]}",
+                widgetJsonWriter.writeMaybeOptions("Nothing", Arrays.asList()));
+    }
+}